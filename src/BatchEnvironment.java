@@ -0,0 +1,221 @@
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Owns many independent headless games at once, and steps all of them
+ * together. This is meant for training movement bots: every step, the
+ * bot passes in one input bitmask per game, and gets back the state of
+ * every game as plain int arrays.
+ *
+ * Games are split into shards, and the shards are stepped in parallel
+ * on a ForkJoinPool, so stepping gets faster with more cores. All of
+ * the tasks and arrays are created once in the constructor and reused
+ * for every step, so step() does not create any new objects.
+ *
+ * Input bitmasks use the same bits as GameState.setInputMask():
+ * INPUT_LEFT, INPUT_UP, INPUT_RIGHT, INPUT_DOWN and INPUT_SHIFT.
+ *
+ * @version Version 1.4
+ */
+public class BatchEnvironment {
+	public static final int INPUT_LEFT = 1; //input bit for the left arrow key
+	public static final int INPUT_UP = 2; //input bit for the up arrow key
+	public static final int INPUT_RIGHT = 4; //input bit for the right arrow key
+	public static final int INPUT_DOWN = 8; //input bit for the down arrow key
+	public static final int INPUT_SHIFT = 16; //input bit for the shift key
+	private static final int SHARDS_PER_THREAD = 4; //how many shards to create for each thread in the pool, so that fast shards don't leave threads waiting on slow ones
+	private GameState[] games; //the games being stepped
+	private int startMap; //the map number that every game starts on, and goes back to when reset
+	private int ticksPerStep; //how many game ticks pass in each step
+	private ForkJoinPool pool; //the pool that the shards are stepped on
+	private StepShard[] shards; //each shard steps a contiguous range of games
+	private StepAll stepAll; //the root task, which steps every shard
+	private int[] stepInputs; //the inputs for the step currently being run
+	private int[] obsX; //the x position of the player in each game, after the last step
+	private int[] obsY; //the y position of the player in each game, after the last step
+	private int[] obsClimb; //the climbability value (see GameState.checkClimb()) of each game, after the last step
+	private int[] obsOnGround; //1 if the player is on the ground in each game, 0 if not, after the last step
+	private int[] obsMap; //the map number of each game, after the last step
+
+	/**
+	 * Create a batch of headless games, stepped on the common ForkJoinPool.
+	 * @param count how many games to create
+	 * @param mapNumber the map number that every game starts on
+	 * @param ticksPerStep how many game ticks (TickTimer.TICK_LENGTH ms each) pass during each step
+	 */
+	public BatchEnvironment(int count, int mapNumber, int ticksPerStep){
+		this(count, mapNumber, ticksPerStep, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Create a batch of headless games, stepped on the specified ForkJoinPool.
+	 * @param count how many games to create
+	 * @param mapNumber the map number that every game starts on
+	 * @param ticksPerStep how many game ticks (TickTimer.TICK_LENGTH ms each) pass during each step
+	 * @param pool the pool to step the games on
+	 */
+	public BatchEnvironment(int count, int mapNumber, int ticksPerStep, ForkJoinPool pool){
+		if (count < 1 || ticksPerStep < 1){
+			throw new IllegalArgumentException("count and ticksPerStep must both be at least 1");
+		}
+		startMap = mapNumber;
+		this.ticksPerStep = ticksPerStep;
+		this.pool = pool;
+		games = new GameState[count];
+		obsX = new int[count];
+		obsY = new int[count];
+		obsClimb = new int[count];
+		obsOnGround = new int[count];
+		obsMap = new int[count];
+		for (int i = 0; i < count; i++){
+			games[i] = new GameState(mapNumber, true);
+			observe(i);
+		}
+
+		//split the games into contiguous ranges, one range per shard
+		int shardCount = Math.min(count, pool.getParallelism() * SHARDS_PER_THREAD);
+		shards = new StepShard[shardCount];
+		for (int i = 0; i < shardCount; i++){
+			shards[i] = new StepShard((int) ((long) count * i / shardCount), (int) ((long) count * (i + 1) / shardCount));
+		}
+		stepAll = new StepAll();
+	}
+
+	/**
+	 * Step every game. Each game is given its input bitmask, then ticked
+	 * ticksPerStep times, then observed. The results can be read with
+	 * getX(), getY(), getClimb(), getOnGround() and getMap(), which always
+	 * return the same arrays (they are overwritten by every step).
+	 * @param inputs one input bitmask per game
+	 */
+	public void step(int[] inputs){
+		if (inputs.length != games.length){
+			throw new IllegalArgumentException("expected " + games.length + " inputs but got " + inputs.length);
+		}
+		stepInputs = inputs;
+		stepAll.reinitialize();
+		pool.invoke(stepAll);
+		stepInputs = null;
+	}
+
+	/**
+	 * Throw away the specified game and start a new one on the starting map.
+	 * This creates a new game, so it should not be called every step.
+	 * @param index which game to reset
+	 */
+	public void reset(int index){
+		games[index] = new GameState(startMap, true);
+		observe(index);
+	}
+
+	/**
+	 * Step and observe one game. Called by the shards.
+	 * @param index which game to step
+	 */
+	private void stepGame(int index){
+		GameState game = games[index];
+		game.setInputMask(stepInputs[index]);
+		for (int t = 0; t < ticksPerStep; t++){
+			game.tick();
+		}
+		observe(index);
+	}
+
+	/**
+	 * Copy the state of one game into the observation arrays.
+	 * @param index which game to observe
+	 */
+	private void observe(int index){
+		GameState game = games[index];
+		obsX[index] = game.getCharX();
+		obsY[index] = game.getCharY();
+		obsClimb[index] = game.getClimbPriority();
+		obsOnGround[index] = game.isOnGround(game.getCharX(), game.getCharY()) ? 1 : 0;
+		obsMap[index] = game.getMapNumber();
+	}
+
+	/**
+	 * Return how many games are in this batch
+	 * @return int: the number of games
+	 */
+	public int getCount(){
+		return games.length;
+	}
+
+	/**
+	 * Return the x position of the player in every game, after the last step
+	 * @return int[]: one x position per game
+	 */
+	public int[] getX(){
+		return obsX;
+	}
+
+	/**
+	 * Return the y position of the player in every game, after the last step
+	 * @return int[]: one y position per game
+	 */
+	public int[] getY(){
+		return obsY;
+	}
+
+	/**
+	 * Return the climbability value of every game, after the last step
+	 * @return int[]: one climbability value per game (see GameState.checkClimb())
+	 */
+	public int[] getClimb(){
+		return obsClimb;
+	}
+
+	/**
+	 * Return whether the player is on the ground in every game, after the last step
+	 * @return int[]: 1 if the player is on the ground, 0 if not, one value per game
+	 */
+	public int[] getOnGround(){
+		return obsOnGround;
+	}
+
+	/**
+	 * Return the map number of every game, after the last step
+	 * @return int[]: one map number per game
+	 */
+	public int[] getMap(){
+		return obsMap;
+	}
+
+	/**
+	 * Steps one contiguous range of games.
+	 */
+	@SuppressWarnings("serial") //tasks are never serialized
+	class StepShard extends RecursiveAction {
+		private int from; //the first game in this shard
+		private int to; //one past the last game in this shard
+
+		StepShard(int from, int to){
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			for (int i = from; i < to; i++){
+				stepGame(i);
+			}
+		}
+	}
+
+	/**
+	 * The root task for a step. Resets every shard so it can be run
+	 * again, then runs all of them in parallel and waits for them.
+	 */
+	@SuppressWarnings("serial") //tasks are never serialized
+	class StepAll extends RecursiveAction {
+		@Override
+		protected void compute() {
+			for (StepShard shard : shards){
+				shard.reinitialize();
+			}
+			ForkJoinTask.invokeAll(shards);
+		}
+	}
+}
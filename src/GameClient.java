@@ -0,0 +1,206 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.Random;
+
+/**
+ * A client for the GameServer. It sends the keys it is holding down,
+ * and keeps the latest positions of the players near it on its map, as
+ * decided by the server (see GameServer.MAX_VISIBLE).
+ *
+ * The client never blocks: poll() reads whatever the server has sent so far,
+ * applies every snapshot to the snapshot it was based on, and tells the
+ * server which snapshot it received last, so the next one can be a delta
+ * against it.
+ *
+ * main() connects a number of bots that press random keys, and prints how
+ * much bandwidth each one uses.
+ *
+ * @version Version 1.4
+ */
+public class GameClient {
+	private SocketChannel channel; //the connection to the server
+	private ByteBuffer in = ByteBuffer.allocate(2 + GameServer.MAX_FRAME); //messages that have been read but not handled yet
+	private ByteBuffer out = ByteBuffer.allocate(GameServer.INPUT_MESSAGE_SIZE); //the input message being sent
+	private int playerId = -1; //this client's player id, or -1 until the server sends it
+	private int inputMask; //the keys this client is holding down
+	private int lastTick = NetSnapshot.NO_TICK; //the newest snapshot received
+	private NetSnapshot[] history = NetSnapshot.createHistory(); //the snapshots recently received, used as the bases of new ones
+	private long bytesReceived; //how many bytes have been received from the server
+	private long snapshotsReceived; //how many snapshots have been received
+
+	/**
+	 * Connect to a server.
+	 * @param host the server's host name or address
+	 * @param port the server's port
+	 * @throws IOException if the connection fails
+	 */
+	public GameClient(String host, int port) throws IOException {
+		channel = SocketChannel.open(new InetSocketAddress(host, port));
+		channel.socket().setTcpNoDelay(true);
+		channel.configureBlocking(false);
+	}
+
+	/**
+	 * Set which keys are held down, and tell the server.
+	 * @param mask the input bitmask (see GameState.setInputMask())
+	 * @throws IOException if the connection fails
+	 */
+	public void setInput(int mask) throws IOException {
+		if (mask != inputMask){
+			inputMask = mask;
+			sendInput();
+		}
+	}
+
+	/**
+	 * Send the current keys and the newest snapshot received to the server.
+	 * @throws IOException if the connection fails
+	 */
+	private void sendInput() throws IOException {
+		out.clear();
+		out.put((byte) GameServer.MSG_INPUT);
+		out.putInt(inputMask);
+		out.putInt(lastTick);
+		out.flip();
+		while (out.hasRemaining()){
+			channel.write(out);
+		}
+	}
+
+	/**
+	 * Read and handle everything the server has sent so far.
+	 * @return boolean: true if at least one new snapshot was received
+	 * @throws IOException if the connection fails or the server closes it
+	 */
+	public boolean poll() throws IOException {
+		int read = channel.read(in);
+		if (read < 0){
+			throw new IOException("the server closed the connection");
+		}
+		bytesReceived += read;
+		in.flip();
+		boolean received = false;
+		while (in.remaining() >= 2){
+			int length = in.getShort(in.position()) & 0xFFFF;
+			if (in.remaining() < 2 + length){
+				break; //the rest of this message hasn't arrived yet
+			}
+			in.position(in.position() + 2);
+			int end = in.position() + length;
+			int type = in.get();
+			if (type == GameServer.MSG_WELCOME){
+				playerId = in.getInt();
+			} else if (type == GameServer.MSG_SNAPSHOT){
+				int tick = in.getInt();
+				int baseTick = in.getInt();
+				NetSnapshot base = NetSnapshot.find(history, baseTick);
+				if (baseTick != NetSnapshot.NO_TICK && base == null){
+					throw new IOException("snapshot " + tick + " is based on unknown snapshot " + baseTick);
+				}
+				NetSnapshot.decodeDelta(base, tick, in, history[tick % NetSnapshot.HISTORY_SIZE]);
+				lastTick = tick;
+				snapshotsReceived++;
+				received = true;
+			}
+			in.position(end);
+		}
+		in.compact();
+		if (received){
+			sendInput(); //acknowledge the newest snapshot
+		}
+		return received;
+	}
+
+	/**
+	 * Close the connection.
+	 */
+	public void close(){
+		try {
+			channel.close();
+		} catch (IOException e) {
+			//already closed
+		}
+	}
+
+	/**
+	 * Return the newest snapshot received: the positions of the players this client can see (itself included).
+	 * @return NetSnapshot: the snapshot, or null if none has been received yet
+	 */
+	public NetSnapshot getSnapshot(){
+		return NetSnapshot.find(history, lastTick);
+	}
+
+	/**
+	 * Return this client's player id
+	 * @return int: the id, or -1 if the server hasn't sent it yet
+	 */
+	public int getPlayerId(){
+		return playerId;
+	}
+
+	/**
+	 * Return how many bytes have been received from the server
+	 * @return long: the number of bytes
+	 */
+	public long getBytesReceived(){
+		return bytesReceived;
+	}
+
+	/**
+	 * Return how many snapshots have been received
+	 * @return long: the number of snapshots
+	 */
+	public long getSnapshotsReceived(){
+		return snapshotsReceived;
+	}
+
+	/**
+	 * Connect bots that press random keys, and print the bandwidth they use.
+	 * @param args optional: the number of bots (default 10), the host (default localhost), the port (default GameServer.DEFAULT_PORT), and how many seconds to run (default 10)
+	 */
+	public static void main(String[] args){
+		int count = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+		String host = args.length > 1 ? args[1] : "localhost";
+		int port = args.length > 2 ? Integer.parseInt(args[2]) : GameServer.DEFAULT_PORT;
+		int seconds = args.length > 3 ? Integer.parseInt(args[3]) : 10;
+		Random random = new Random();
+		GameClient[] bots = new GameClient[count];
+		try {
+			for (int i = 0; i < count; i++){
+				bots[i] = new GameClient(host, port);
+			}
+			long end = System.currentTimeMillis() + seconds * 1000L;
+			while (System.currentTimeMillis() < end){
+				for (GameClient bot : bots){
+					if (random.nextInt(50) == 0){
+						bot.setInput(random.nextInt(32));
+					}
+					bot.poll();
+				}
+				Thread.sleep(TickTimer.TICK_LENGTH);
+			}
+		} catch (IOException e) {
+			System.out.println("Connection failed: " + e);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		long bytes = 0;
+		long snapshots = 0;
+		int players = 0;
+		for (GameClient bot : bots){
+			if (bot != null){
+				bytes += bot.getBytesReceived();
+				snapshots += bot.getSnapshotsReceived();
+				NetSnapshot snapshot = bot.getSnapshot();
+				if (snapshot != null){
+					players = Math.max(players, snapshot.getCount());
+				}
+				bot.close();
+			}
+		}
+		System.out.println(count + " bots, each one seeing up to " + players + " players");
+		System.out.println((bytes / count / seconds) + " bytes/s per bot, " + (snapshots / count / seconds) + " snapshots/s per bot");
+	}
+}
@@ -0,0 +1,140 @@
+/**
+ * Collects gameplay events while a game ticks, and sends them to listeners
+ * at the end of the tick.
+ *
+ * Events are stored as plain numbers in a set of arrays that are created
+ * once, in the constructor, and reused like a ring. Emitting an event just
+ * writes a few numbers into those arrays, so it can be done from the busiest
+ * parts of the game (GameState.move(), checkClimb() and edgeWarp()) without
+ * creating any new objects. If more events happen in one tick than the bus can
+ * hold, the extra events are dropped and counted.
+ *
+ * Only the thread that ticks the game should use the bus.
+ *
+ * @version Version 1.4
+ */
+public class GameEventBus {
+	public static final int EVENT_JUMP_STARTED = 0; //the player started a jump. arg is unused (0)
+	public static final int EVENT_LANDED = 1; //the player stopped falling. arg is the climbability value they landed in (0 means solid ground)
+	public static final int EVENT_CLIMB_ENTERED = 2; //the player started touching something climbable or watery. arg is the climbability value (1, 2 or 3)
+	public static final int EVENT_CLIMB_LEFT = 3; //the player stopped touching something climbable or watery. arg is the climbability value that was left
+	public static final int EVENT_EDGE_WARP = 4; //the player walked or fell off the edge of the map. arg is the direction ('l', 'r', 'u' or 'd')
+	public static final int EVENT_IN_MAP_WARP = 5; //the player went through an in-map warp. arg is the warp number
+	public static final int EVENT_MAP_CHANGED = 6; //the player moved to a different map. arg is the previous map number. sent once the player has been placed on the new map, so x and y are the player's position there
+	public static final int EVENT_REGION_ENTERED = 7; //the player started touching a region (a climbable, watery or in-map-warp shape). arg is the shape's number in the map
+	public static final int EVENT_REGION_LEFT = 8; //the player stopped touching a region. arg is the shape's number in the map. not sent when the map changes, since every region is left then
+	private static final int DEFAULT_CAPACITY = 256; //how many events can be held at once by default
+	private int[] types; //the type of each event
+	private long[] ticks; //the tick count when each event happened
+	private int[] maps; //the map number for each event
+	private int[] xs; //the player's x position for each event
+	private int[] ys; //the player's y position for each event
+	private int[] args; //the extra argument for each event
+	private int count; //how many events are waiting to be dispatched
+	private long dropped; //how many events were dropped because the bus was full
+	private GameEventListener[] listeners = new GameEventListener[0]; //who gets the events. replaced (not changed) when a listener is added or removed
+
+	/**
+	 * Create an event bus with the default capacity.
+	 */
+	public GameEventBus(){
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Create an event bus that can hold the specified number of events per tick.
+	 * @param capacity how many events can be waiting at once
+	 */
+	public GameEventBus(int capacity){
+		types = new int[capacity];
+		ticks = new long[capacity];
+		maps = new int[capacity];
+		xs = new int[capacity];
+		ys = new int[capacity];
+		args = new int[capacity];
+	}
+
+	/**
+	 * Record an event. It will be sent to listeners the next time dispatch() is called.
+	 * If nobody is listening, the event is ignored.
+	 * @param type the kind of event, one of the EVENT_ constants
+	 * @param tick the tick count when the event happened
+	 * @param map the map number
+	 * @param x the player's x position
+	 * @param y the player's y position
+	 * @param arg extra information, see the EVENT_ constants
+	 */
+	public void emit(int type, long tick, int map, int x, int y, int arg){
+		if (listeners.length == 0){
+			return;
+		}
+		if (count == types.length){
+			dropped++;
+			return;
+		}
+		types[count] = type;
+		ticks[count] = tick;
+		maps[count] = map;
+		xs[count] = x;
+		ys[count] = y;
+		args[count] = arg;
+		count++;
+	}
+
+	/**
+	 * Send every waiting event to every listener, in the order the events happened,
+	 * then clear the waiting events. GameState calls this at the end of every tick.
+	 */
+	public void dispatch(){
+		GameEventListener[] current = listeners;
+		for (int i = 0; i < count; i++){
+			for (int j = 0; j < current.length; j++){
+				current[j].gameEvent(types[i], ticks[i], maps[i], xs[i], ys[i], args[i]);
+			}
+		}
+		count = 0;
+	}
+
+	/**
+	 * Throw away every waiting event without sending it. GameState does this when a
+	 * snapshot is restored, since the waiting events no longer happened.
+	 */
+	public void clear(){
+		count = 0;
+	}
+
+	/**
+	 * Start sending events to a listener.
+	 * @param listener the listener to add
+	 */
+	public void addListener(GameEventListener listener){
+		GameEventListener[] bigger = new GameEventListener[listeners.length + 1];
+		System.arraycopy(listeners, 0, bigger, 0, listeners.length);
+		bigger[listeners.length] = listener;
+		listeners = bigger;
+	}
+
+	/**
+	 * Stop sending events to a listener.
+	 * @param listener the listener to remove
+	 */
+	public void removeListener(GameEventListener listener){
+		for (int i = 0; i < listeners.length; i++){
+			if (listeners[i] == listener){
+				GameEventListener[] smaller = new GameEventListener[listeners.length - 1];
+				System.arraycopy(listeners, 0, smaller, 0, i);
+				System.arraycopy(listeners, i + 1, smaller, i, listeners.length - i - 1);
+				listeners = smaller;
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Return how many events were dropped because too many happened in one tick
+	 * @return long: the number of dropped events
+	 */
+	public long getDropped(){
+		return dropped;
+	}
+}
@@ -0,0 +1,20 @@
+/**
+ * Receives gameplay events from a GameEventBus, such as jumps, landings,
+ * warps and map changes. Useful for sounds, statistics and achievements.
+ * Events are delivered at the end of the tick they happened in.
+ *
+ * @version Version 1.4
+ */
+public interface GameEventListener {
+
+	/**
+	 * Called once for every event, in the order the events happened.
+	 * @param type the kind of event, one of the GameEventBus.EVENT_ constants
+	 * @param tick the tick count of the game when the event happened
+	 * @param map the map number the player was on right after the event
+	 * @param x the player's x position right after the event
+	 * @param y the player's y position right after the event
+	 * @param arg extra information about the event. see the GameEventBus.EVENT_ constants for what it means for each kind of event
+	 */
+	public void gameEvent(int type, long tick, int map, int x, int y, int arg);
+}
@@ -0,0 +1,711 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+
+/**
+ * An authoritative multiplayer server. Clients (see GameClient) connect over
+ * TCP and send which keys they are holding down. The server runs a headless
+ * GameState for every player, so only the server decides where anybody is,
+ * and sends each client the positions of all players on its map.
+ *
+ * Players only hear about the players they can see: the MAX_VISIBLE players
+ * nearest to them (themselves included) on the same map, within one
+ * INTEREST_CELL of the cell they are in. The server keeps a MapRoom for every
+ * map that has players on it. When a player's game changes maps
+ * (GameEventBus.EVENT_MAP_CHANGED), the player is moved from one room to the
+ * other, so the rooms never have to be rebuilt, and sending snapshots only
+ * ever looks at the players in each room. Every batch, each room sorts its
+ * players into a grid of INTEREST_CELL sized cells, so finding the players
+ * near someone only looks at the 9 cells around them.
+ *
+ * How it scales: a client is never sent more than MAX_VISIBLE players, so the
+ * bytes sent to each player have a fixed limit no matter how many players are
+ * on the map: one snapshot of at most MAX_SNAPSHOT_MESSAGE bytes (1167) per
+ * batch, which always fits in one message. Until a client's surroundings fill
+ * up, it costs less the fewer players are near it. In a crowd, the nearest
+ * players change often, and each change is sent as a full entry, so snapshots
+ * get closer to the limit (about 600 to 850 bytes with 400 to 1500 bots
+ * crowded on one small map, up from under 100 with 20). The server's time per player is the game's ticks plus
+ * looking at the players in the 9 cells around it, so it stays flat while
+ * players are spread out, and grows with the number of players crowded into
+ * the same few cells.
+ *
+ * Ticks are processed in batches of BATCH_TICKS: the server reads input from
+ * every client, runs each player's game for the whole batch at once, and then
+ * sends one snapshot per client. Snapshots are delta-encoded (see NetSnapshot)
+ * against the last snapshot each client acknowledged, so players that are
+ * standing still cost no bandwidth. If a client can't keep up, it is skipped
+ * until it has received what it was already sent, and its next snapshot is a
+ * delta against whatever it acknowledged last.
+ *
+ * Spectators can connect to a second port. They get the whole state of the
+ * server every batch, through a SpectatorHub, and never send anything.
+ *
+ * Everything runs on one thread, using a non-blocking NIO selector.
+ *
+ * Messages from client to server are all INPUT_MESSAGE_SIZE bytes long:
+ * ~   MSG_INPUT, int input bitmask (see GameState.setInputMask()), int last snapshot tick received
+ * Messages from server to client start with an unsigned short length (not counting itself), then:
+ * ~   MSG_WELCOME, int player id
+ * ~   MSG_SNAPSHOT, then a snapshot written by NetSnapshot.encodeDelta()
+ *
+ * @version Version 1.4
+ */
+public class GameServer {
+	public static final int DEFAULT_PORT = 7777; //the port the server listens on if no other port is given
+	public static final int DEFAULT_SPECTATOR_PORT = 7778; //the port spectators connect to if no other port is given
+	public static final int MSG_INPUT = 1; //client to server: the keys the client is holding down, and the last snapshot it received
+	public static final int INPUT_MESSAGE_SIZE = 9; //how many bytes are in every message from client to server
+	public static final int MSG_WELCOME = 1; //server to client: the id of the client's player, sent once after connecting
+	public static final int MSG_SNAPSHOT = 2; //server to client: the positions of the players on the client's map
+	public static final int MAX_FRAME = 0xFFFF; //the longest message the server can send, because of the two byte length
+	public static final int BATCH_TICKS = 3; //how many game ticks are run between snapshots
+	public static final int MAX_VISIBLE = 64; //the most players one client is sent, itself included
+	public static final int INTEREST_CELL = 256; //how wide and tall each cell of a room's grid is, in pixels. a client sees players in its own cell and the 8 around it
+	private static final int MAX_SNAPSHOT_MESSAGE = 1 + NetSnapshot.getMaxDeltaSize(MAX_VISIBLE, MAX_VISIBLE); //the longest snapshot message: the type, then the biggest possible delta
+	private static final long STATS_INTERVAL = 5000000000L; //how often the stats are printed, in nanoseconds
+	private Selector selector; //tells the server which connections are ready
+	private ServerSocketChannel serverChannel; //accepts new connections
+	private ServerSocketChannel spectatorChannel; //accepts new spectators, or null if spectators aren't allowed
+	private SpectatorHub spectators = new SpectatorHub(); //sends the server's state to every spectator
+	private int startMap; //the map every new player starts on
+	private MapCache maps = new MapCache(MapCache.DEFAULT_CAPACITY); //one shared copy of each recently used map, given to every player's game
+	private ArrayList<Client> clients = new ArrayList<Client>(); //every connected client, in order of id
+	private HashMap<Integer, MapRoom> rooms = new HashMap<Integer, MapRoom>(); //the players on each map, by map number. only maps with players on them have a room
+	private int nextId; //the id the next player will get
+	private TickWatchdog watchdog; //keeps the batches on schedule
+	private int serverTick; //how many batches have run. snapshots are numbered with this
+	private ByteBuffer frame = ByteBuffer.allocateDirect(2 + MAX_FRAME); //the message being sent. each message is written here, then to the client
+	private volatile boolean running; //is the server running?
+	private boolean printStats; //should run() print stats every STATS_INTERVAL?
+	private long bytesSent; //how many bytes have been sent to clients
+	private long batchTime; //how long all batches took to run, including sending snapshots, in nanoseconds
+	private long playerBatches; //how many player batches have run (one per player per batch)
+
+	/**
+	 * Create a server, and start listening for connections. Nothing happens
+	 * until run() is called.
+	 * @param port the port to listen on (0 for any free port)
+	 * @param startMap the map every new player starts on
+	 * @throws IOException if the port can't be opened
+	 */
+	public GameServer(int port, int startMap) throws IOException {
+		this(port, startMap, -1);
+	}
+
+	/**
+	 * Create a server that also accepts spectators, and start listening for
+	 * connections. Nothing happens until run() is called.
+	 * @param port the port to listen on (0 for any free port)
+	 * @param startMap the map every new player starts on
+	 * @param spectatorPort the port to accept spectators on (0 for any free port), or -1 for no spectators
+	 * @throws IOException if a port can't be opened
+	 */
+	public GameServer(int port, int startMap, int spectatorPort) throws IOException {
+		if (MAX_SNAPSHOT_MESSAGE > MAX_FRAME){
+			throw new IllegalStateException("MAX_VISIBLE is too big: a snapshot could be longer than MAX_FRAME");
+		}
+		this.startMap = startMap;
+		watchdog = new TickWatchdog(TickTimer.TICK_LENGTH * BATCH_TICKS, TickWatchdog.POLICY_CATCH_UP);
+		selector = Selector.open();
+		serverChannel = ServerSocketChannel.open();
+		serverChannel.bind(new InetSocketAddress(port));
+		serverChannel.configureBlocking(false);
+		serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+		if (spectatorPort >= 0){
+			spectatorChannel = ServerSocketChannel.open();
+			spectatorChannel.bind(new InetSocketAddress(spectatorPort));
+			spectatorChannel.configureBlocking(false);
+			spectatorChannel.register(selector, SelectionKey.OP_ACCEPT);
+		}
+	}
+
+	/**
+	 * Run the server until stop() is called. Must only be called once.
+	 */
+	public void run(){
+		running = true;
+		long nextStats = System.nanoTime() + STATS_INTERVAL;
+		try {
+			while (running){
+				int due = watchdog.ticksDue(System.nanoTime());
+				if (due > 0){
+					long start = System.nanoTime();
+					runBatches(due);
+					sendSnapshots();
+					if (spectators.getSpectatorCount() > 0){
+						broadcastToSpectators();
+					}
+					batchTime += System.nanoTime() - start;
+				}
+				long wait = (watchdog.getNextTickTime() - System.nanoTime()) / 1000000;
+				if (wait > 0){
+					selector.select(wait);
+				} else {
+					selector.selectNow();
+				}
+				handleSelected();
+				if (printStats && System.nanoTime() >= nextStats){
+					printStats();
+					nextStats += STATS_INTERVAL;
+				}
+			}
+		} catch (IOException e) {
+			System.out.println("GameServer stopped: " + e);
+		} finally {
+			close();
+		}
+	}
+
+	/**
+	 * Stop the server. Can be called from any thread.
+	 */
+	public void stop(){
+		running = false;
+		selector.wakeup();
+	}
+
+	/**
+	 * Run the game of every player for a number of batches.
+	 * @param batches how many batches are due
+	 */
+	private void runBatches(int batches){
+		int ticks = batches * BATCH_TICKS;
+		for (int i = 0; i < clients.size(); i++){
+			Client client = clients.get(i);
+			client.game.setInputMask(client.inputMask);
+			for (int t = 0; t < ticks; t++){
+				client.game.tick();
+			}
+		}
+		serverTick += batches;
+		playerBatches += (long) batches * clients.size();
+	}
+
+	/**
+	 * Send every client that isn't behind a snapshot of the players it can see.
+	 * The grid of each room is built once, then each client in the room gets
+	 * the players near it, as a delta against the snapshot it acknowledged.
+	 */
+	private void sendSnapshots(){
+		boolean failed = false;
+		for (MapRoom room : rooms.values()){
+			room.buildGrid();
+			for (int i = 0; i < room.members.size(); i++){
+				Client client = room.members.get(i);
+				if (client.pending != null || client.failed){
+					continue; //still sending an older message. it will get a delta against its last ack later
+				}
+				NetSnapshot current = client.history[serverTick % NetSnapshot.HISTORY_SIZE];
+				NetSnapshot base = NetSnapshot.find(client.history, client.ackedTick);
+				if (base == current){
+					base = null; //the ack is so old that its slot is being reused
+				}
+				room.findVisible(i, serverTick, current);
+				frame.clear();
+				frame.putShort((short) 0); //the length, filled in below
+				frame.put((byte) MSG_SNAPSHOT);
+				NetSnapshot.encodeDelta(base, current, frame);
+				if (!send(client)){
+					failed = true;
+				}
+			}
+		}
+		if (failed){
+			//disconnect after going through the rooms, since disconnecting changes them
+			for (int i = clients.size() - 1; i >= 0; i--){
+				if (clients.get(i).failed){
+					disconnect(clients.get(i));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Move a player into the room for a map, leaving the room it was in.
+	 * Rooms are created when the first player arrives, and removed when the last one leaves.
+	 * @param client the player
+	 * @param mapNumber the map the player is on now, or -1 to just leave its room
+	 */
+	private void moveToRoom(Client client, int mapNumber){
+		if (client.room != null){
+			if (client.room.mapNumber == mapNumber){
+				return;
+			}
+			client.room.remove(client);
+			if (client.room.members.isEmpty()){
+				rooms.remove(client.room.mapNumber);
+			}
+			client.room = null;
+		}
+		if (mapNumber < 0){
+			return;
+		}
+		MapRoom room = rooms.get(mapNumber);
+		if (room == null){
+			room = new MapRoom(mapNumber, maps.get(mapNumber));
+			rooms.put(mapNumber, room);
+		}
+		room.add(client);
+		client.room = room;
+	}
+
+	/**
+	 * Encode the position of every player once, and send it to every spectator.
+	 */
+	private void broadcastToSpectators(){
+		ByteBuffer spectatorFrame = spectators.newFrame(clients.size());
+		spectatorFrame.putInt(serverTick);
+		spectatorFrame.putInt(clients.size());
+		for (int i = 0; i < clients.size(); i++){
+			Client client = clients.get(i);
+			spectatorFrame.putInt(client.id);
+			spectatorFrame.putInt(client.game.getMapNumber());
+			spectatorFrame.putInt(client.game.getCharX());
+			spectatorFrame.putInt(client.game.getCharY());
+		}
+		spectators.broadcast(spectatorFrame);
+	}
+
+	/**
+	 * Send the message in the frame buffer to a client. Whatever the socket
+	 * can't take right now is kept and sent when the socket is ready.
+	 * If the connection fails, the client is marked as failed, and the
+	 * caller should disconnect it.
+	 * @param client the client to send to
+	 * @return boolean: false if the connection failed
+	 */
+	private boolean send(Client client){
+		frame.putShort(0, (short) (frame.position() - 2));
+		frame.flip();
+		try {
+			bytesSent += client.channel.write(frame);
+		} catch (IOException e) {
+			client.failed = true;
+			return false;
+		}
+		if (frame.hasRemaining()){
+			client.pending = ByteBuffer.allocate(frame.remaining());
+			client.pending.put(frame);
+			client.pending.flip();
+			client.key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+		}
+		return true;
+	}
+
+	/**
+	 * Handle every connection that the selector says is ready.
+	 * @throws IOException if accepting a connection fails
+	 */
+	private void handleSelected() throws IOException {
+		Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+		while (keys.hasNext()){
+			SelectionKey key = keys.next();
+			keys.remove();
+			if (!key.isValid()){
+				continue;
+			}
+			if (key.isAcceptable()){
+				if (key.channel() == spectatorChannel){
+					acceptSpectator();
+				} else {
+					accept();
+				}
+				continue;
+			}
+			if (key.attachment() instanceof SpectatorHub.Spectator){
+				spectators.handle((SpectatorHub.Spectator) key.attachment(), key);
+				continue;
+			}
+			Client client = (Client) key.attachment();
+			if (key.isReadable()){
+				read(client);
+			}
+			if (key.isValid() && key.isWritable()){
+				flush(client);
+			}
+		}
+	}
+
+	/**
+	 * Accept a new connection, and create a player for it.
+	 * @throws IOException if accepting fails
+	 */
+	private void accept() throws IOException {
+		SocketChannel channel = serverChannel.accept();
+		if (channel == null){
+			return;
+		}
+		channel.configureBlocking(false);
+		channel.socket().setTcpNoDelay(true);
+		Client client = new Client(nextId++, channel, new GameState(startMap, true, maps));
+		client.key = channel.register(selector, SelectionKey.OP_READ, client);
+		clients.add(client); //ids only go up, so the list stays in order of id
+		moveToRoom(client, client.game.getMapNumber());
+		client.game.getEvents().addListener(client);
+		frame.clear();
+		frame.putShort((short) 0);
+		frame.put((byte) MSG_WELCOME);
+		frame.putInt(client.id);
+		if (!send(client)){
+			disconnect(client);
+		}
+	}
+
+	/**
+	 * Accept a new spectator.
+	 * @throws IOException if accepting fails
+	 */
+	private void acceptSpectator() throws IOException {
+		SocketChannel channel = spectatorChannel.accept();
+		if (channel != null){
+			spectators.addSpectator(channel, selector);
+		}
+	}
+
+	/**
+	 * Read every complete message a client has sent.
+	 * @param client the client to read from
+	 */
+	private void read(Client client){
+		int read;
+		try {
+			read = client.channel.read(client.in);
+		} catch (IOException e) {
+			read = -1;
+		}
+		if (read < 0){
+			disconnect(client);
+			return;
+		}
+		client.in.flip();
+		while (client.in.remaining() >= INPUT_MESSAGE_SIZE){
+			int type = client.in.get();
+			int mask = client.in.getInt();
+			int ack = client.in.getInt();
+			if (type != MSG_INPUT){
+				System.out.println("GameServer: unknown message type " + type + " from player " + client.id);
+				disconnect(client);
+				return;
+			}
+			client.inputMask = mask; //only the newest keys matter
+			if (ack > client.ackedTick && ack <= serverTick){
+				client.ackedTick = ack;
+			}
+		}
+		client.in.compact();
+	}
+
+	/**
+	 * Send the rest of a message that didn't fit in the socket before.
+	 * @param client the client to send to
+	 */
+	private void flush(Client client){
+		try {
+			bytesSent += client.channel.write(client.pending);
+		} catch (IOException e) {
+			disconnect(client);
+			return;
+		}
+		if (!client.pending.hasRemaining()){
+			client.pending = null;
+			client.key.interestOps(SelectionKey.OP_READ);
+		}
+	}
+
+	/**
+	 * Close a client's connection and remove its player.
+	 * @param client the client to remove
+	 */
+	private void disconnect(Client client){
+		if (!clients.remove(client)){
+			return;
+		}
+		moveToRoom(client, -1);
+		client.game.getEvents().removeListener(client);
+		client.key.cancel();
+		try {
+			client.channel.close();
+		} catch (IOException e) {
+			//already closed
+		}
+	}
+
+	/**
+	 * Close every connection and stop listening.
+	 */
+	private void close(){
+		while (!clients.isEmpty()){
+			disconnect(clients.get(clients.size() - 1));
+		}
+		spectators.close();
+		try {
+			serverChannel.close();
+			if (spectatorChannel != null){
+				spectatorChannel.close();
+			}
+			selector.close();
+		} catch (IOException e) {
+			//already closed
+		}
+	}
+
+	/**
+	 * Print the number of players, the bandwidth used by each player, and
+	 * the server time spent on each player, since the last time stats were printed.
+	 */
+	private void printStats(){
+		int players = clients.size();
+		long seconds = STATS_INTERVAL / 1000000000L;
+		System.out.print("GameServer: " + players + " players on " + rooms.size() + " maps");
+		if (players > 0){
+			System.out.print(", " + (bytesSent / seconds / players) + " bytes/s per player");
+		}
+		if (playerBatches > 0){
+			System.out.print(", " + (batchTime / playerBatches) + " ns per player per batch");
+		}
+		System.out.print(", " + watchdog.getSkippedTicks() + " batches skipped");
+		if (spectators.getSpectatorCount() > 0){
+			System.out.print(", " + spectators.getSpectatorCount() + " spectators, " + spectators.getFramesEncoded() + " frames encoded, " + spectators.getFramesDropped() + " dropped");
+		}
+		System.out.println();
+		bytesSent = 0;
+		batchTime = 0;
+		playerBatches = 0;
+	}
+
+	/**
+	 * Turn printing of stats every few seconds on or off
+	 * @param printStats true to print stats
+	 */
+	public void setPrintStats(boolean printStats){
+		this.printStats = printStats;
+	}
+
+	/**
+	 * Return the port the server is listening on
+	 * @return int: the port
+	 */
+	public int getPort(){
+		return serverChannel.socket().getLocalPort();
+	}
+
+	/**
+	 * Return the port spectators connect to
+	 * @return int: the port, or -1 if spectators aren't allowed
+	 */
+	public int getSpectatorPort(){
+		return spectatorChannel == null ? -1 : spectatorChannel.socket().getLocalPort();
+	}
+
+	/**
+	 * Return the hub that sends the server's state to spectators
+	 * @return SpectatorHub: the hub
+	 */
+	public SpectatorHub getSpectators(){
+		return spectators;
+	}
+
+	/**
+	 * Return how many batches have run
+	 * @return int: the server tick
+	 */
+	public int getServerTick(){
+		return serverTick;
+	}
+
+	/**
+	 * Return how many maps have players on them
+	 * @return int: the number of rooms
+	 */
+	public int getRoomCount(){
+		return rooms.size();
+	}
+
+	/**
+	 * One connected client and its player. The client listens to its own
+	 * game's events, to move between rooms when the player changes maps.
+	 */
+	class Client implements GameEventListener {
+		private int id; //the player's id
+		private SocketChannel channel; //the connection to the client
+		private SelectionKey key; //the connection's key in the selector
+		private GameState game; //the player's game, which decides where the player is
+		private int inputMask; //the keys the client is holding down
+		private int ackedTick = NetSnapshot.NO_TICK; //the newest snapshot the client said it received
+		private ByteBuffer in = ByteBuffer.allocate(INPUT_MESSAGE_SIZE * 16); //input messages that have been read but not handled yet
+		private ByteBuffer pending; //the part of a message that hasn't been sent yet, or null
+		private NetSnapshot[] history = NetSnapshot.createHistory(); //the snapshots recently sent to this client
+		private MapRoom room; //the room for the map the player is on
+		private boolean failed; //did sending to this client fail? it is disconnected after the snapshots are sent
+
+		Client(int id, SocketChannel channel, GameState game){
+			this.id = id;
+			this.channel = channel;
+			this.game = game;
+		}
+
+		@Override
+		public void gameEvent(int type, long tick, int map, int x, int y, int arg) {
+			if (type == GameEventBus.EVENT_MAP_CHANGED){
+				moveToRoom(this, map);
+			}
+		}
+	}
+
+	/**
+	 * The players on one map, in order of id, and a grid of where they are
+	 * that is built once per batch and used to find the players near each of them.
+	 * The arrays only grow, so building the grid doesn't create any new objects.
+	 */
+	class MapRoom {
+		private int mapNumber; //the map this room is for
+		private ArrayList<Client> members = new ArrayList<Client>(); //the players on the map, in order of id
+		private int cellsAcross; //how many grid cells there are in each row
+		private int cellsDown; //how many rows of grid cells there are
+		private int[] cellStart; //where each cell's members start in byCell. cell c is byCell[cellStart[c]] to byCell[cellStart[c + 1] - 1]
+		private int[] cellFill; //where the next member of each cell goes in byCell, while the grid is built
+		private int[] xs = new int[16]; //the x position of each member this batch, in the same order as members
+		private int[] ys = new int[16]; //the y position of each member this batch
+		private int[] cells = new int[16]; //the grid cell of each member this batch
+		private int[] byCell = new int[16]; //the member indexes, sorted by grid cell
+		private long[] candidates = new long[16]; //the members near the client being sent to: distance in the high 32 bits, member index in the low 32
+		private int[] visible = new int[MAX_VISIBLE]; //the member indexes the client being sent to can see
+
+		MapRoom(int mapNumber, Map map){
+			this.mapNumber = mapNumber;
+			cellsAcross = Math.max(1, (map.getFrameWidth() + INTEREST_CELL - 1) / INTEREST_CELL);
+			cellsDown = Math.max(1, (map.getFrameHeight() + INTEREST_CELL - 1) / INTEREST_CELL);
+			cellStart = new int[cellsAcross * cellsDown + 1];
+			cellFill = new int[cellsAcross * cellsDown];
+		}
+
+		/**
+		 * Read every member's position, and sort the members into grid cells (a counting sort).
+		 * Positions off the map are put in the nearest cell.
+		 */
+		void buildGrid(){
+			int count = members.size();
+			if (xs.length < count){
+				int size = Math.max(count, xs.length * 2);
+				xs = new int[size];
+				ys = new int[size];
+				cells = new int[size];
+				byCell = new int[size];
+			}
+			Arrays.fill(cellStart, 0);
+			for (int i = 0; i < count; i++){
+				GameState game = members.get(i).game;
+				xs[i] = game.getCharX();
+				ys[i] = game.getCharY();
+				int column = Math.min(cellsAcross - 1, Math.max(0, Math.floorDiv(xs[i], INTEREST_CELL)));
+				int row = Math.min(cellsDown - 1, Math.max(0, Math.floorDiv(ys[i], INTEREST_CELL)));
+				cells[i] = row * cellsAcross + column;
+				cellStart[cells[i] + 1]++;
+			}
+			for (int c = 0; c < cellFill.length; c++){
+				cellStart[c + 1] += cellStart[c];
+			}
+			System.arraycopy(cellStart, 0, cellFill, 0, cellFill.length);
+			for (int i = 0; i < count; i++){
+				byCell[cellFill[cells[i]]++] = i;
+			}
+		}
+
+		/**
+		 * Fill in the snapshot of what one member can see: itself, and the members
+		 * nearest to it in its cell and the 8 cells around it, up to MAX_VISIBLE.
+		 * buildGrid() must have been called this batch.
+		 * @param self the member's index in members
+		 * @param tick the server tick of the snapshot
+		 * @param snapshot the snapshot to fill in
+		 */
+		void findVisible(int self, int tick, NetSnapshot snapshot){
+			int column = cells[self] % cellsAcross;
+			int row = cells[self] / cellsAcross;
+			int count = 0;
+			for (int r = Math.max(0, row - 1); r <= Math.min(cellsDown - 1, row + 1); r++){
+				for (int c = Math.max(0, column - 1); c <= Math.min(cellsAcross - 1, column + 1); c++){
+					int cell = r * cellsAcross + c;
+					for (int k = cellStart[cell]; k < cellStart[cell + 1]; k++){
+						int other = byCell[k];
+						long dx = xs[other] - xs[self];
+						long dy = ys[other] - ys[self];
+						//the member itself is distance 0 and everyone else is at least 1, so it is always seen
+						long distance = other == self ? 0 : Math.min(dx * dx + dy * dy + 1, Integer.MAX_VALUE);
+						if (count == candidates.length){
+							candidates = Arrays.copyOf(candidates, count * 2);
+						}
+						candidates[count++] = (distance << 32) | other;
+					}
+				}
+			}
+			int seen = count;
+			if (count > MAX_VISIBLE){
+				Arrays.sort(candidates, 0, count); //nearest first
+				seen = MAX_VISIBLE;
+			}
+			for (int i = 0; i < seen; i++){
+				visible[i] = (int) candidates[i];
+			}
+			Arrays.sort(visible, 0, seen); //members are in order of id, so this puts the snapshot in order of id
+			snapshot.clear(tick, mapNumber);
+			for (int i = 0; i < seen; i++){
+				int other = visible[i];
+				snapshot.add(members.get(other).id, xs[other], ys[other]);
+			}
+		}
+
+		/**
+		 * Add a player, keeping the members in order of id.
+		 * @param client the player to add
+		 */
+		void add(Client client){
+			int low = 0;
+			int high = members.size();
+			while (low < high){
+				int middle = (low + high) >>> 1;
+				if (members.get(middle).id < client.id){
+					low = middle + 1;
+				} else {
+					high = middle;
+				}
+			}
+			members.add(low, client);
+		}
+
+		/**
+		 * Remove a player.
+		 * @param client the player to remove
+		 */
+		void remove(Client client){
+			members.remove(client);
+		}
+	}
+
+	/**
+	 * Run a server.
+	 * @param args optional: the port (default DEFAULT_PORT), the starting map number (default 18), and the spectator port (default DEFAULT_SPECTATOR_PORT, -1 for no spectators)
+	 */
+	public static void main(String[] args){
+		int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+		int mapNumber = args.length > 1 ? Integer.parseInt(args[1]) : 18;
+		int spectatorPort = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_SPECTATOR_PORT;
+		try {
+			GameServer server = new GameServer(port, mapNumber, spectatorPort);
+			server.setPrintStats(true);
+			System.out.println("GameServer listening on port " + server.getPort() + ", spectators on port " + server.getSpectatorPort());
+			server.run();
+		} catch (IOException e) {
+			System.out.println("Unable to start the server: " + e);
+		}
+	}
+}
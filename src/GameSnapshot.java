@@ -0,0 +1,120 @@
+/**
+ * Holds a copy of everything in a GameState that changes while the game
+ * is running: the player, the jump and fall state, which keys are held
+ * down, the current map, and the state of every timer. The NPCs are not
+ * in a snapshot, so it is the same size no matter how many there are (QuickSave
+ * saves them separately, see GameState.restoreNpcs()).
+ *
+ * A snapshot is created once and then filled in again and again by
+ * GameState.saveSnapshot(), so taking a snapshot every tick does not
+ * create any new objects. GameState.restoreSnapshot() puts the game
+ * back exactly the way it was, without re-reading the map file and
+ * without creating any new objects (the snapshot keeps a reference to
+ * the game's own copy of the Map at the time, see Map.createView()).
+ * Both take the same amount of time no matter what is in the snapshot.
+ * A snapshot of a map streamed in chunks holds the game's own copy of
+ * that map, so only restore it into the game that took it.
+ * This is what rollback, quick retries and save states are built on.
+ *
+ * The fields are filled in and read directly by GameState.
+ *
+ * @version Version 1.4
+ */
+public class GameSnapshot {
+	public static final int TIMER_JUMP = 0; //index of the jumpTimer in the timer arrays
+	public static final int TIMER_FALL = 1; //index of the fallTimer in the timer arrays
+	public static final int TIMER_FAST_FALL = 2; //index of the fastFallTimer in the timer arrays
+	public static final int TIMER_MOVE = 3; //index of the moveTimer in the timer arrays
+	static final int TIMER_COUNT = 4; //how many timers a game has
+	boolean filled; //has this snapshot been filled in by saveSnapshot() yet?
+	long tickCount; //how many ticks the game had run
+	int mapNumber; //the current map number
+	Map map; //the game's copy of the current map (GameState.sMap). the same as loadedMap unless the map is streamed in chunks
+	Map loadedMap; //the current map as it came from the map source (GameState.loadedMap). never changed after it is loaded
+	int x; //the player's x position
+	int y; //the player's y position
+	int step; //which step of the walking animation the player was on
+	int jumpStep; //which step of the jump the player was on
+	double gravityStart; //the fallTimer's current fall speed
+	double fastGravityStart; //the fastFallTimer's current fall speed
+	boolean fastFalling; //was the fast fall timer running?
+	boolean moving; //was the moveTimer running because of held keys?
+	int[] pressedKeys = new int[5]; //which keys were held down, in the same order as GameState.pressedKeys
+	boolean initLeft; //see GameState.initLeft
+	boolean initUp; //see GameState.initUp
+	boolean initRight; //see GameState.initRight
+	boolean initDown; //see GameState.initDown
+	int inputMask; //the last input mask passed to GameState.setInputMask()
+	int lastClimb; //the climbability the last time GameState.checkClimb() was called
+	boolean[] timerRunning = new boolean[TIMER_COUNT]; //was each timer running?
+	int[] timerCountdown = new int[TIMER_COUNT]; //how many ticks until each timer would have fired next
+
+	/**
+	 * Copy another snapshot into this one, without creating any new objects.
+	 * @param other the snapshot to copy
+	 */
+	public void copyFrom(GameSnapshot other){
+		filled = other.filled;
+		tickCount = other.tickCount;
+		mapNumber = other.mapNumber;
+		map = other.map;
+		loadedMap = other.loadedMap;
+		x = other.x;
+		y = other.y;
+		step = other.step;
+		jumpStep = other.jumpStep;
+		gravityStart = other.gravityStart;
+		fastGravityStart = other.fastGravityStart;
+		fastFalling = other.fastFalling;
+		moving = other.moving;
+		System.arraycopy(other.pressedKeys, 0, pressedKeys, 0, pressedKeys.length);
+		initLeft = other.initLeft;
+		initUp = other.initUp;
+		initRight = other.initRight;
+		initDown = other.initDown;
+		inputMask = other.inputMask;
+		lastClimb = other.lastClimb;
+		System.arraycopy(other.timerRunning, 0, timerRunning, 0, TIMER_COUNT);
+		System.arraycopy(other.timerCountdown, 0, timerCountdown, 0, TIMER_COUNT);
+	}
+
+	/**
+	 * Has this snapshot been filled in yet? An empty snapshot cannot be restored.
+	 * @return boolean: true if the snapshot holds a saved game state
+	 */
+	public boolean isFilled(){
+		return filled;
+	}
+
+	/**
+	 * Return the tick count of the game when this snapshot was taken
+	 * @return long: the tick count
+	 */
+	public long getTickCount(){
+		return tickCount;
+	}
+
+	/**
+	 * Return the map number of the game when this snapshot was taken
+	 * @return int: the map number
+	 */
+	public int getMapNumber(){
+		return mapNumber;
+	}
+
+	/**
+	 * Return the player's x position when this snapshot was taken
+	 * @return int: the x position
+	 */
+	public int getX(){
+		return x;
+	}
+
+	/**
+	 * Return the player's y position when this snapshot was taken
+	 * @return int: the y position
+	 */
+	public int getY(){
+		return y;
+	}
+}
@@ -2,8 +2,10 @@ import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.event.KeyEvent;
 import java.awt.event.KeyListener;
-import java.util.Observable;
-import java.util.Observer;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.function.IntFunction;
 import javax.swing.Timer;
 
 /**
@@ -28,36 +30,39 @@ import javax.swing.Timer;
  * @author Adam Cogen
  *
  */
-public class GameState implements Observer {
+public class GameState {
 	private int map = 18; //current map number
-	private MapFileReader mapFileData; //the class that will read data stored in map files
+	private IntFunction<Map> mapSource; //where maps come from when the map changes. usually the shared MapCache, but a SessionHost or GameServer gives its games its own cache
 	private Map sMap; //the class that will store map data 
+	private Map loadedMap; //the current map as it came from the map source. the same as sMap, unless the map is streamed in chunks, then sMap is this game's own copy of it (see Map.createView())
 	private GameWindow gamePanel; //the class that will display the game and sense key presses
 	private Player player; //the class that will store information about the player / sprite
 	private int jumpStep; //keeps track of which step of the jump animation the player is on during jumps
-	private Timer jumpTimer; //the timer which will start during jumps, starting the jump animation 
-	private Timer fallTimer; //the timer that will start while falling short distances. at a certain speed, a the fast fall timer takes this timer's place
-	private Timer fastFallTimer; //the fast fall timer, which handles falling over longer distances and at higher speed (with acceleration)
+	private TickTimer jumpTimer; //the timer which will start during jumps, starting the jump animation 
+	private TickTimer fallTimer; //the timer that will start while falling short distances. at a certain speed, a the fast fall timer takes this timer's place
+	private TickTimer fastFallTimer; //the fast fall timer, which handles falling over longer distances and at higher speed (with acceleration)
 	boolean fastFalling = false; //is the fast fall timer running? 
-	private static final int PARTIAL_JUMP_HEIGHT = 1; // one third of the jump height, used to increment player Y on each step of jumpTimer, which has three steps.
-	private static final int PARTIAL_MOVE_SIZE = 1; //one third of total move size
-	private static final int MOVE_SIZE = 3 * PARTIAL_MOVE_SIZE; //used to check collision before moving to a new location that is distance moveSize away
-	private static final int LEFT_EDGE_WARP_OFFSET = 15; //used to calibrate the position of edge warp on the left side of the map
-	private static final int RIGHT_EDGE_WARP_OFFSET = 5; //used to calibrate the position of edge warp on the right side of the map
-	private static final int TOP_EDGE_WARP_OFFSET = 2; //used to calibrate the position of edge warp at the top of the map
-	private static final int BOTTOM_EDGE_WARP_OFFSET = 22; //used to calibrate the position of edge warp at the bottom of the map
-	private static final int LEFT_COLLISION_OFFSET = 1; //the difference between the player's x position and its left side, for collision purposes etc.
-	private static final int RIGHT_COLLISION_OFFSET = 8; //the difference between the player's x position and its right side, for collision purposes etc.
-	private static final int TOP_COLLISION_OFFSET = -22; //the difference between the player's y position and its top edge, for collision purposes etc.
-	private static final int DOWN_COLLISION_OFFSET = -1; //the difference between the player's y position and its bottom edge, for collision purposes etc.
+	//the movement and gravity constants are package-private so that NpcPool can move NPCs by exactly the same rules
+	static final int PARTIAL_JUMP_HEIGHT = 1; // one third of the jump height, used to increment player Y on each step of jumpTimer, which has three steps.
+	static final int PARTIAL_MOVE_SIZE = 1; //one third of total move size
+	static final int MOVE_SIZE = 3 * PARTIAL_MOVE_SIZE; //used to check collision before moving to a new location that is distance moveSize away
+	static final int LEFT_EDGE_WARP_OFFSET = 15; //used to calibrate the position of edge warp on the left side of the map
+	static final int RIGHT_EDGE_WARP_OFFSET = 5; //used to calibrate the position of edge warp on the right side of the map
+	static final int TOP_EDGE_WARP_OFFSET = 2; //used to calibrate the position of edge warp at the top of the map
+	static final int BOTTOM_EDGE_WARP_OFFSET = 22; //used to calibrate the position of edge warp at the bottom of the map
+	static final int LEFT_COLLISION_OFFSET = 1; //the difference between the player's x position and its left side, for collision purposes etc.
+	static final int RIGHT_COLLISION_OFFSET = 8; //the difference between the player's x position and its right side, for collision purposes etc.
+	static final int TOP_COLLISION_OFFSET = -22; //the difference between the player's y position and its top edge, for collision purposes etc.
+	static final int DOWN_COLLISION_OFFSET = -1; //the difference between the player's y position and its bottom edge, for collision purposes etc.
+	static final int CLIMB_TOP_OFFSET = -11; //the difference between the player's y position and the top of its climbability box (its arm height)
 	private boolean moving = false; //is the player moving? true when arrow key(s) are being pressed
-	private Timer moveTimer; //timer to move the player while arrow key(s) being pressed
+	private TickTimer moveTimer; //timer to move the player while arrow key(s) being pressed
 	private int[] pressedKeys; //an array that holds data about which arrow keys are currently being pressed
 	private boolean initLeft = false; //when left arrow is pressed, character moves left immediately one time without starting moveTimer, to prevent lag. if that move has already happened, this will be false. if it needs to happen still, this boolean will be true.
 	private boolean initUp = false; //when up arrow is pressed, character moves up immediately one time without starting moveTimer, to prevent lag. if that move has already happened, this will be false. if it needs to happen still, this boolean will be true.
 	private boolean initRight = false; //when right arrow is pressed, character moves right immediately one time without starting moveTimer, to prevent lag. if that move has already happened, this will be false. if it needs to happen still, this boolean will be true.
 	private boolean initDown = false; //when down arrow is pressed, character moves down immediately one time without starting moveTimer, to prevent lag. if that move has already happened, this will be false. if it needs to happen still, this boolean will be true.
-	private static final int MOVE_TIMER_FREQUENCY = 100; //how often does the moveTimer tick? determines how quickly the character will move when holding down an arrow key
+	static final int MOVE_TIMER_FREQUENCY = 100; //how often does the moveTimer tick? determines how quickly the character will move when holding down an arrow key
 	/*
 	 * 
 	 * there are two acceleration-due-to-gravity timers:
@@ -99,26 +104,67 @@ public class GameState implements Observer {
 	//normal fall timer stuff: you probably shouldn't change these values.
 	//if you want to experiment with acceleration due to gravity,
 	//see the fastFallTimer variables.
-	private static final double GRAVITY_INITIAL_SPEED = 4; //real initial speed is (int)(GRAVITY_INITIAL_SPEED / GRAVITY_DIVIDER)
+	static final double GRAVITY_INITIAL_SPEED = 4; //real initial speed is (int)(GRAVITY_INITIAL_SPEED / GRAVITY_DIVIDER)
 	private double gravityStart = GRAVITY_INITIAL_SPEED; //gravityStart will be incremented to increase fall speed over time
-	private static final double GRAVITY_DIVIDER = 2;  //actual initial speed will be (int)(GRAVITY_INITIAL_SPEED / GRAVITY_DIVIDER)
-	private static final double GRAVITY_ACCELERATION = .2; //gravityStart increments by this much with every clock tick, speeding up fall over time
-	private static final int FALL_TIMER_FREQUENCY = 120; //frequency of fallTimer in milliseconds
-	private static final int JUMP_TIMER_FREQUENCY = 120; //frequency of jumpTimer in milliseconds
+	static final double GRAVITY_DIVIDER = 2;  //actual initial speed will be (int)(GRAVITY_INITIAL_SPEED / GRAVITY_DIVIDER)
+	static final double GRAVITY_ACCELERATION = .2; //gravityStart increments by this much with every clock tick, speeding up fall over time
+	static final int FALL_TIMER_FREQUENCY = 120; //frequency of fallTimer in milliseconds
+	static final int JUMP_TIMER_FREQUENCY = 120; //frequency of jumpTimer in milliseconds
 
 	//some general gravity settings:
-	private static final boolean USE_GRAVITY_ACCELERATION = true; //should we use acceleration due to gravity?
+	static final boolean USE_GRAVITY_ACCELERATION = true; //should we use acceleration due to gravity?
 	private static final boolean IN_MAP_WARP_RESETS_FALL_SPEED = false; //does an in-map warp reset fall speed? 
 	private static final boolean EDGE_WARP_RESETS_FALL_SPEED = false; //does an edge warp reset fall speed?
 
 	//fastFallTimer stuff: if you want to experiment with acceleration due to gravity,
 	//change these values.
-	private static final int FAST_FALL_TIMER_FREQUENCY = 30; //frequency of the fastFallTimer, for faster fall speeds
-	private static final double FAST_GRAVITY_INITIAL_SPEED = 9; //real intitial speed is (int)(FAST_GRAVITY_INITIAL_SPEED / FAST_GRAVITY_DIVIDER)
+	static final int FAST_FALL_TIMER_FREQUENCY = 30; //frequency of the fastFallTimer, for faster fall speeds
+	static final double FAST_GRAVITY_INITIAL_SPEED = 9; //real intitial speed is (int)(FAST_GRAVITY_INITIAL_SPEED / FAST_GRAVITY_DIVIDER)
 	private double fastGravityStart = FAST_GRAVITY_INITIAL_SPEED; //fastGravityStart will be incremented to increase fall speed over time
-	private static final double FAST_GRAVITY_DIVIDER = 6;  //real intitial speed is (int)(FAST_GRAVITY_INITIAL_SPEED / FAST_GRAVITY_DIVIDER)
-	private static final double FAST_GRAVITY_ACCELERATION = .2; //fastGravityStart increments by this much with every clock tick, speeding upfall over time
-	private static final int TERMINAL_VELOCITY = 15; //terminal velocity (in pixels-per-fastFallTimer-clock-tick)
+	static final double FAST_GRAVITY_DIVIDER = 6;  //real intitial speed is (int)(FAST_GRAVITY_INITIAL_SPEED / FAST_GRAVITY_DIVIDER)
+	static final double FAST_GRAVITY_ACCELERATION = .2; //fastGravityStart increments by this much with every clock tick, speeding upfall over time
+	static final int TERMINAL_VELOCITY = 15; //terminal velocity (in pixels-per-fastFallTimer-clock-tick)
+
+	/*
+	 * all of the timers above are TickTimers, which only fire when tick() is called.
+	 * when the game is played in a window, the gameLoop timer calls tick() once every 
+	 * TickTimer.TICK_LENGTH milliseconds. when the game is headless (no window, for 
+	 * example when it is owned by a BatchEnvironment), whoever owns the game calls tick() 
+	 * themselves, as fast as they want.
+	 */
+	private boolean headless; //is this game running without a window?
+	private Timer gameLoop; //the swing timer that ticks the game when it is played in a window. null when headless.
+	private TickWatchdog watchdog = new TickWatchdog(); //decides how many ticks the game loop runs, and counts ticks that take too long
+	private int inputMask; //which keys are currently held down, as a bitmask. only used by setInputMask()
+	private boolean charDirty; //did the player's position or step change since the GameWindow was last updated?
+	private boolean mapDirty; //did the map change since the GameWindow was last updated?
+	public static final int KEY_LEFT = 0; //key code for the left arrow key. key codes are also indices into pressedKeys
+	public static final int KEY_UP = 1; //key code for the up arrow key
+	public static final int KEY_RIGHT = 2; //key code for the right arrow key
+	public static final int KEY_DOWN = 3; //key code for the down arrow key
+	public static final int KEY_SHIFT = 4; //key code for the shift key
+	private static final int KEY_COUNT = 5; //how many different keys can be held down (left, up, right, down and shift)
+	public static final int KEY_QUICK_SAVE = 5; //key code for the quick save key. it is not held down like the others, only pressing it matters
+	public static final int KEY_QUICK_LOAD = 6; //key code for the quick load key
+	private QuickSave quickSave; //saves and loads QuickSave.DEFAULT_PATH. created the first time it is used
+	private KeyEventRing keyEvents = new KeyEventRing(); //key events from the GameWindow, waiting to be processed by the next tick
+	private long lastInputTime; //the time of the most recent key event processed, in milliseconds
+	private long tickCount; //how many times tick() has been called
+	private GameEventBus events = new GameEventBus(); //gameplay events that happened during this tick, sent to listeners at the end of the tick
+	private MapCache reloadCache; //the map source, if it is a MapCache. checked every tick for a new version of the current map (see MapWatcher), or null
+	private long reloadGeneration; //reloadCache's generation the last time it was checked
+	private MapPrefetcher prefetcher; //loads the maps next to the current map in the background, or null. only games in a window that use the shared MapCache prefetch unless setPrefetcher() is called
+	private NpcPool npcs; //the non-player characters on the current map. a new, empty pool is created when the player moves to a different map
+	private boolean npcsDirty; //did any NPC move since the GameWindow was last updated?
+	private int lastClimb; //the climbability (0 to 3) the last time checkClimb() was called, used to notice when the player starts or stops climbing
+	private int[] regions = new int[0]; //the shape numbers of the regions (climbable, watery and in-map-warp shapes) the player is touching, in increasing order
+	private int[] newRegions = new int[0]; //the regions found by the latest updateRegions(), before they are compared with the old ones
+	private int regionCount; //how many of the numbers in regions are used
+	private Map regionMap; //the map that regions and regionPriority were found on, or null if they need to be found again
+	private int regionMapNumber = -1; //the map number regions were found on. a reload of the same map keeps the regions, so leaving them still sends events
+	private int regionX; //the player's x position when regions and regionPriority were found
+	private int regionY; //the player's y position when regions and regionPriority were found
+	private int regionPriority; //the climbability (see checkClimb()) at regionX, regionY
 
 
 	/**
@@ -127,16 +173,56 @@ public class GameState implements Observer {
 	 * It is basically the main control center of the game. 
 	 */
 	public GameState(int mapNumber) {
+		this(mapNumber, false);
+	}
+
+	/**
+	 * Create a game that is either played in a window, or headless.
+	 * Headless games have no GameWindow and no swing timers, so nothing
+	 * happens until tick() is called. Many headless games can exist at
+	 * once, and each one has its own player and timers.
+	 * @param mapNumber the map number to start on. windowed games ignore this and
+	 * use the map field instead (see the comment below), headless games always use it.
+	 * @param headless true to create a game with no window, false to play in a window
+	 */
+	public GameState(int mapNumber, boolean headless) {
+		this(mapNumber, headless, null);
+	}
+
+	/**
+	 * Create a game that gets its maps from the specified map source instead of
+	 * reading the map file every time the map changes. The maps it returns are
+	 * only ever read by the game, never changed, so many games can share them.
+	 * @param mapNumber the map number to start on (see GameState(int, boolean))
+	 * @param headless true to create a game with no window, false to play in a window
+	 * @param mapSource returns the Map for a map number, or null to use the shared MapCache
+	 */
+	public GameState(int mapNumber, boolean headless, IntFunction<Map> mapSource) {
 		//map = mapNumber; //comment this to use map number from fields, uncomment to use map number from main method
+		this.headless = headless;
+		this.mapSource = mapSource != null ? mapSource : MapCache.getShared();
+		if (headless){
+			map = mapNumber;
+		} else if (mapSource == null){
+			prefetcher = MapPrefetcher.getShared(); //so walking into the next map never waits for its file
+			MapWatcher.getShared(); //so a map that is saved in the MapMaker shows up right away
+		}
+		if (this.mapSource instanceof MapCache){
+			reloadCache = (MapCache) this.mapSource;
+			reloadGeneration = reloadCache.getGeneration();
+		}
 
 		jumpStep = 3;
-		gamePanel = new GameWindow(this);
+		if (!headless){
+			gamePanel = new GameWindow(this);
+		}
 		player = new Player();
 		changeMap(map); //initializes necessary classes and information to load a map, put into a method for use with both constructor and warps
-		setCharX(mapFileData.getSpawnX());
-		setCharY(mapFileData.getSpawnY());
+		setCharX(sMap.getSpawnX());
+		setCharY(sMap.getSpawnY());
+		streamChunks(); //a map streamed in chunks is ready to play once the chunks around the spawn point are loaded
 
-		pressedKeys = new int[5];
+		pressedKeys = new int[KEY_COUNT];
 
 		jumpTimer = getJumpTimer();
 		fastFallTimer = getFastFallTimer();
@@ -146,9 +232,138 @@ public class GameState implements Observer {
 
 		moveTimer = getMoveTimer();
 
+		publish();
+		if (!headless){
+			gameLoop = getGameLoop();
+			gameLoop.start();
+		}
 	}
 
-	private Timer getFallTimer() {
+	private Timer getGameLoop() {
+		/**
+		 * Ticks the game once every TickTimer.TICK_LENGTH milliseconds while
+		 * the game is being played in a window. 
+		 */
+		class GameLoopListener implements ActionListener{
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				/*
+				 * swing timers don't always fire exactly on time, and they merge events
+				 * together when the game falls behind, so the watchdog decides how many
+				 * ticks are really due, and times each one.
+				 */
+				int due = watchdog.ticksDue(System.nanoTime());
+				for (int i = 0; i < due; i++){
+					long start = System.nanoTime();
+					tick();
+					watchdog.recordTick(System.nanoTime() - start);
+				}
+			}
+		}
+		Timer loop = new Timer(TickTimer.TICK_LENGTH, new GameLoopListener());
+		loop.setCoalesce(true);
+		return loop;
+	}
+
+	/**
+	 * Return the watchdog that keeps the game loop on schedule and counts tick
+	 * overruns. Use it to change the overrun policy or read the overrun counters.
+	 * @return TickWatchdog: this game's watchdog
+	 */
+	public TickWatchdog getWatchdog(){
+		return watchdog;
+	}
+
+	/**
+	 * Advance the game by one tick (TickTimer.TICK_LENGTH milliseconds of game time).
+	 * Every running timer counts down, and any timer whose delay has passed fires.
+	 * The timers are always ticked in the same order, so two headless games that 
+	 * are given the same input will always end up in the same state.
+	 */
+	public void tick(){
+		tickCount++;
+		checkReload();
+		streamChunks();
+		drainKeyEvents();
+		jumpTimer.tick();
+		fallTimer.tick();
+		fastFallTimer.tick();
+		moveTimer.tick();
+		if (npcs.tick()){
+			npcsDirty = true;
+		}
+		publish();
+		events.dispatch();
+	}
+
+	/**
+	 * If a new version of the current map was put in the map cache (because its file
+	 * changed), switch to it. The player and the NPCs stay where they are, and fall if
+	 * the ground under them is gone. This is only called at the start of a tick,
+	 * so the map never changes part way through one.
+	 */
+	private void checkReload(){
+		if (reloadCache == null || reloadCache.getGeneration() == reloadGeneration){
+			return; //nothing has been reloaded. this is the only work done on most ticks
+		}
+		reloadGeneration = reloadCache.getGeneration();
+		Map latest = reloadCache.peek(map);
+		if (latest == null || latest == loadedMap){
+			return; //a different map was reloaded
+		}
+		loadedMap = latest;
+		sMap = latest.createView();
+		streamChunks();
+		npcs.setMap(sMap);
+		mapDirty = true;
+		charDirty = true;
+		npcsDirty = true;
+		if (!jumpTimer.isRunning()){
+			checkFall();
+		}
+	}
+
+	/**
+	 * If the map is streamed in chunks, load the chunks around the player. This is
+	 * done at the start of every tick, and right after the player is moved somewhere
+	 * new (spawning and warps). In one tick, the player can't move far enough to
+	 * leave the loaded chunks. Does nothing unless the player moved to a different chunk.
+	 */
+	private void streamChunks(){
+		if (sMap.streamChunks(player.getX(), player.getY())){
+			mapDirty = true;
+		}
+	}
+
+	/**
+	 * Record a gameplay event at the player's current position. 
+	 * See GameEventBus for the kinds of events and what arg means for each.
+	 * @param type the kind of event, one of the GameEventBus.EVENT_ constants
+	 * @param arg extra information about the event
+	 */
+	private void emit(int type, int arg){
+		events.emit(type, tickCount, map, player.getX(), player.getY(), arg);
+	}
+
+	/**
+	 * Return the non-player characters on the current map. Spawn NPCs with
+	 * NpcPool.spawn(). The pool is replaced (and the NPCs are gone) when the player moves to a different map.
+	 * @return NpcPool: the NPCs on the current map
+	 */
+	public NpcPool getNpcs(){
+		return npcs;
+	}
+
+	/**
+	 * Return the event bus for this game. Add a GameEventListener to it to
+	 * hear about jumps, landings, climbing, warps and map changes.
+	 * @return GameEventBus: this game's event bus
+	 */
+	public GameEventBus getEvents(){
+		return events;
+	}
+
+	private TickTimer getFallTimer() {
 
 		/**
 		 * Timer listener is involved with the 'down' direction of move().
@@ -172,7 +387,7 @@ public class GameState implements Observer {
 				for (int i = 0; i < ((int) (gravityStart / GRAVITY_DIVIDER)); i++){
 					if(!isOnGround(player.getX(), player.getY()) && checkClimb() == 0 && !fastFalling){
 						setCharY(player.getY() + PARTIAL_JUMP_HEIGHT);
-						if (player.getY() >= gamePanel.getFrameHeight() + BOTTOM_EDGE_WARP_OFFSET){
+						if (player.getY() >= sMap.getFrameHeight() + BOTTOM_EDGE_WARP_OFFSET){
 							//if the player is off the edge of the map, edgeWarp down.
 							edgeWarp('d');
 						}
@@ -204,7 +419,7 @@ public class GameState implements Observer {
 				 */
 				if (!isOnGround(player.getX(), player.getY()) && checkClimb() == 0 && !fastFalling){
 					setCharY(player.getY() + PARTIAL_JUMP_HEIGHT);
-					if (player.getY() >= gamePanel.getFrameHeight() + BOTTOM_EDGE_WARP_OFFSET){
+					if (player.getY() >= sMap.getFrameHeight() + BOTTOM_EDGE_WARP_OFFSET){
 						edgeWarp('d');
 					}
 				} else if (!isOnGround(player.getX(), player.getY()) && checkClimb() == 2){
@@ -215,7 +430,7 @@ public class GameState implements Observer {
 					 * in air. 
 					 */
 					setCharY(player.getY() + PARTIAL_JUMP_HEIGHT);
-					if (player.getY() >= gamePanel.getFrameHeight() + BOTTOM_EDGE_WARP_OFFSET){
+					if (player.getY() >= sMap.getFrameHeight() + BOTTOM_EDGE_WARP_OFFSET){
 						edgeWarp('d');
 					}
 					resetFallSpeed();
@@ -237,19 +452,17 @@ public class GameState implements Observer {
 					fastFallTimer.stop();
 					setStep(0);
 					resetFallSpeed();
-					checkClimb();
+					emit(GameEventBus.EVENT_LANDED, checkClimb());
 					checkFall();
 				}
-				refreshChar();
-				gamePanel.refreshImage();
 			}
 		}
 
-		return new Timer(FALL_TIMER_FREQUENCY, new TimerListenerDown());
+		return new TickTimer(FALL_TIMER_FREQUENCY, new TimerListenerDown());
 
 	}
 
-	private Timer getFastFallTimer() {
+	private TickTimer getFastFallTimer() {
 		/**
 		 * Timer that during a fall after a certain velocity is reached.
 		 * Handles fast falling and has a higher rate of occurrence so that
@@ -262,58 +475,110 @@ public class GameState implements Observer {
 			@Override
 			public void actionPerformed(ActionEvent e) {
 				/*
-				 * If the player is not on the ground, move down. Try this twice. 
-				 * Repeating this step is better than moving down all at once because 
-				 * it checks the ground below the player more often, preventing the 
-				 * player from falling too far into the ground. 
+				 * The player falls (fastGravityStart / FAST_GRAVITY_DIVIDER) pixels, plus one 
+				 * more, every tick. Instead of moving down one pixel at a time and checking the 
+				 * ground and climbability after every pixel, the hitbox is swept down the whole
+				 * distance at once (see sweepFall()), and it stops exactly where it first touches 
+				 * the ground, something climbable, or an in-map-warp. This way, falling faster
+				 * does not make each tick any slower.
+				 * 
+				 * The loop below only runs more than once if the player falls off the bottom
+				 * of the map or into an in-map-warp partway through the fall, in which case 
+				 * the rest of the fall continues from wherever the player was warped to.
 				 */
-				for (int i = 0; i < ((int) (fastGravityStart / FAST_GRAVITY_DIVIDER)); i++){
-					if(!isOnGround(player.getX(), player.getY()) && checkClimb() == 0){
-						setCharY(player.getY() + PARTIAL_JUMP_HEIGHT);
-						if (player.getY() >= gamePanel.getFrameHeight() + BOTTOM_EDGE_WARP_OFFSET){
+				int loopSteps = (int) (fastGravityStart / FAST_GRAVITY_DIVIDER); //pixels that accelerate the fall
+				int remaining = loopSteps + 1; //total pixels left to fall this tick
+				boolean landed = false;
+				while (remaining > 0 && !landed){
+					int distance = sweepFall(remaining);
+					if (distance > 0){
+						setCharY(player.getY() + distance);
+						accelerateFastFall(Math.min(distance, loopSteps));
+						loopSteps = Math.max(0, loopSteps - distance);
+						remaining -= distance;
+						if (player.getY() >= sMap.getFrameHeight() + BOTTOM_EDGE_WARP_OFFSET){
 							//if the player is off the edge of the map, edgeWarp down.
 							edgeWarp('d');
 						}
-
-						/*
-						 * If the player has not reached terminal velocity, increase the fall speed.
-						 */
-						if (fastGravityStart <= TERMINAL_VELOCITY * FAST_GRAVITY_DIVIDER){
-							fastGravityStart += FAST_GRAVITY_ACCELERATION;
-						}
-					}
-				}
-				/*
-				 * Perform the same step one more time. If the player was in "water" or on 
-				 * something climbable this whole time, none of these steps were
-				 * performed, but this is addressed next.
-				 */
-				if (!isOnGround(player.getX(), player.getY()) && checkClimb() == 0){
-					setCharY(player.getY() + PARTIAL_JUMP_HEIGHT);
-					if (player.getY() >= gamePanel.getFrameHeight() + BOTTOM_EDGE_WARP_OFFSET){
-						edgeWarp('d');
+					} else if (checkClimb() >= 10){
+						//the player fell into an in-map-warp, and checkClimb() warped them. keep falling from there.
+						loopSteps = Math.max(0, loopSteps - 1);
+						remaining--;
+					} else {
+						landed = true; //touching the ground or something climbable
 					}
 				}
-				/*
-				 * if the fastFallTimer gets to the else statement, it just means player isn't freefalling anymore,
-				 * so stop the timer.
-				 */
-				else {
+				if (landed){
+					/*
+					 * if the player landed, it just means player isn't freefalling anymore,
+					 * so stop the timer.
+					 */
 					fallTimer.stop();
 					fastFallTimer.stop();
 					setStep(0);
 					resetFallSpeed();
-					checkClimb();
+					emit(GameEventBus.EVENT_LANDED, checkClimb());
 					checkFall();
 				}
-				refreshChar();
-				gamePanel.refreshImage();
 			}
 		}
-		return new Timer(FAST_FALL_TIMER_FREQUENCY, new TimerListenerDownFast());
+		return new TickTimer(FAST_FALL_TIMER_FREQUENCY, new TimerListenerDownFast());
+	}
+
+	/**
+	 * Find how far the player can fall, up to maxDistance pixels, before its feet
+	 * touch the ground or its climbability box touches anything climbable or 
+	 * an in-map-warp. This is the same as checking isOnGround() and checkClimb()
+	 * after every pixel, but it is done with one query per shape, no matter 
+	 * how far the player is falling. The distance also stops at the bottom 
+	 * edge-warp line, so that edge warps happen at exactly the same place.
+	 * @param maxDistance the farthest the player could fall
+	 * @return int: how many pixels the player can fall, 0 if it is already touching something
+	 */
+	private int sweepFall(int maxDistance){
+		return sweepFall(sMap, player.getX(), player.getY(), maxDistance);
 	}
 
-	private Timer getJumpTimer() {
+	/**
+	 * Find how far a hitbox at (x, y) can fall on the specified map. See sweepFall(int).
+	 * @param map the map to fall through
+	 * @param x the x position of the hitbox
+	 * @param y the y position of the hitbox
+	 * @param maxDistance the farthest the hitbox could fall
+	 * @return int: how many pixels the hitbox can fall, 0 if it is already touching something
+	 */
+	static int sweepFall(Map map, int x, int y, int maxDistance){
+		int distance = map.distanceToGround(x + LEFT_COLLISION_OFFSET + 1, x + RIGHT_COLLISION_OFFSET - 1, y + DOWN_COLLISION_OFFSET + 1, maxDistance);
+		distance = map.distanceToClimb(x + LEFT_COLLISION_OFFSET, x + RIGHT_COLLISION_OFFSET, y + CLIMB_TOP_OFFSET, y + DOWN_COLLISION_OFFSET, distance);
+		int edgeDistance = Math.max(1, map.getFrameHeight() + BOTTOM_EDGE_WARP_OFFSET - y);
+		return Math.min(distance, edgeDistance);
+	}
+
+	/**
+	 * Speed up the fast fall by FAST_GRAVITY_ACCELERATION once for every pixel fallen,
+	 * until terminal velocity is reached. Gives the same result as adding the 
+	 * acceleration after each pixel, without looping over every pixel.
+	 * @param pixels how many pixels the player fell
+	 */
+	private void accelerateFastFall(int pixels){
+		fastGravityStart = accelerateFastFall(fastGravityStart, pixels);
+	}
+
+	/**
+	 * Speed up a fast fall speed once for every pixel fallen. See accelerateFastFall(int).
+	 * @param speed the fast fall speed (like fastGravityStart)
+	 * @param pixels how many pixels were fallen
+	 * @return double: the new fast fall speed
+	 */
+	static double accelerateFastFall(double speed, int pixels){
+		if (pixels <= 0 || speed > TERMINAL_VELOCITY * FAST_GRAVITY_DIVIDER){
+			return speed;
+		}
+		int stepsLeft = (int) ((TERMINAL_VELOCITY * FAST_GRAVITY_DIVIDER - speed) / FAST_GRAVITY_ACCELERATION) + 1;
+		return speed + Math.min(pixels, stepsLeft) * FAST_GRAVITY_ACCELERATION;
+	}
+
+	private TickTimer getJumpTimer() {
 		/**
 		 * Timer listener is involved with the 'up' direction of moveChar.
 		 * Reads and increments the jumpStep variable, which keeps track of 
@@ -361,14 +626,12 @@ public class GameState implements Observer {
 					break;
 				}
 				jumpStep++;
-				refreshChar();
-				gamePanel.refreshImage();
 			}
 		}
-		return new Timer(JUMP_TIMER_FREQUENCY, new TimerListenerUp());
+		return new TickTimer(JUMP_TIMER_FREQUENCY, new TimerListenerUp());
 	}
 
-	private Timer getMoveTimer() {
+	private TickTimer getMoveTimer() {
 		/**
 		 * 
 		 * MoveTimerListener is the ActionListener for the moveTimer, which calls
@@ -393,12 +656,14 @@ public class GameState implements Observer {
 						move2 = move('l');
 						if((move1 && move2 && (checkClimb() == 1 || checkClimb() == 3))){ //if both moves didn't happen, no need to increment step
 							player.incStep();	
+							charDirty = true;
 						}
 					} else if (pressedKeys[3] == 1){ //left and down
 						move1 = move('d');
 						move2 = move('l');
 						if((move1 && move2 && (checkClimb() == 1 || checkClimb() == 2 || checkClimb() == 3))){
 							player.incStep();	
+							charDirty = true;
 						}
 					}  else { //left only 
 						move('l');
@@ -409,12 +674,14 @@ public class GameState implements Observer {
 						move2 = move('r');
 						if((move1 && move2 && (checkClimb() == 1 || checkClimb() == 3))){
 							player.incStep();	
+							charDirty = true;
 						}
 					} else if (pressedKeys[3] == 1){ //right and down
 						move1 = move('d');
 						move2 = move('r');
 						if((move1 && move2 && (checkClimb() == 1 ||checkClimb() == 2 || checkClimb() == 3))){
 							player.incStep();	
+							charDirty = true;
 						}
 					} else { //right only
 						move('r');
@@ -426,7 +693,7 @@ public class GameState implements Observer {
 				}
 			}
 		}
-		return new Timer(MOVE_TIMER_FREQUENCY, new MoveTimerListener());
+		return new TickTimer(MOVE_TIMER_FREQUENCY, new MoveTimerListener());
 	}
 
 	/**
@@ -473,7 +740,7 @@ public class GameState implements Observer {
 					setCharX(player.getX() + PARTIAL_MOVE_SIZE);
 				}
 				//check if the player is off the map and needs to be edge-warped
-				if (player.getX() >= gamePanel.getFrameWidth() + RIGHT_EDGE_WARP_OFFSET){
+				if (player.getX() >= sMap.getFrameWidth() + RIGHT_EDGE_WARP_OFFSET){
 					edgeWarp(dir);
 				}
 			}
@@ -504,6 +771,7 @@ public class GameState implements Observer {
 				setStep(0);
 				jumpStep = 0;
 				jumpTimer.start();
+				emit(GameEventBus.EVENT_JUMP_STARTED, 0);
 			} 
 			/*
 			 * up option 2: you are not necessarily on the ground, but there is room 
@@ -534,7 +802,7 @@ public class GameState implements Observer {
 					moved = true;
 					setCharY(player.getY() + PARTIAL_MOVE_SIZE);
 					//check if the player is off the map and needs to be edge-warped
-					if (player.getY() >= gamePanel.getFrameHeight() + BOTTOM_EDGE_WARP_OFFSET){ 
+					if (player.getY() >= sMap.getFrameHeight() + BOTTOM_EDGE_WARP_OFFSET){ 
 						edgeWarp(dir);
 					}
 				}
@@ -544,9 +812,8 @@ public class GameState implements Observer {
 		}
 		if (moved){
 			player.incStep();
+			charDirty = true;
 		}
-		refreshChar();
-		gamePanel.refreshImage();
 		checkClimb();
 
 		//check if the character is on stable ground after moving
@@ -573,8 +840,24 @@ public class GameState implements Observer {
 	}
 
 	/**
-	 * This observer is notified by the GamePanel whenever an
-	 * arrow key is pressed or released. The moveTimer is then 
+	 * Process every key event that the GameWindow has put in the keyEvents
+	 * ring since the last tick. This is called once at the start of every tick,
+	 * on the same thread that ticks the game, so key presses never have to
+	 * be synchronized with the rest of the game.
+	 */
+	private void drainKeyEvents(){
+		int code = keyEvents.poll();
+		while (code != -1){
+			lastInputTime = keyEvents.getLastPolledTime();
+			processKey(code & ~KeyEventRing.KEY_PRESSED, (code & KeyEventRing.KEY_PRESSED) != 0);
+			code = keyEvents.poll();
+		}
+	}
+
+	/**
+	 * This is called whenever an arrow key is pressed or released
+	 * (from drainKeyEvents() for windowed games, or from setInputMask()
+	 * for headless games). The moveTimer is then 
 	 * started or stopped based on which arrow key was pressed
 	 * or released.
 	 * Also note that after an arrow key is pressed, this method
@@ -585,117 +868,210 @@ public class GameState implements Observer {
 	 * The move() method is called once by this method for each
 	 * arrow key press. This resets every time that arrow key is
 	 * released. 
+	 * @param key which key: KEY_LEFT, KEY_UP, KEY_RIGHT, KEY_DOWN, KEY_SHIFT, KEY_QUICK_SAVE or KEY_QUICK_LOAD
+	 * @param pressed true if the key was pressed, false if it was released
 	 */
-	@Override
-	public void update(Observable o, Object arg) {
-
-		if ((char) arg == 'l'){ //left arrow was pressed
-			if(pressedKeys[2] == 0){ //right not being pressed
-				if(!initLeft){ //if the initial left movement hasn't happened, do it
-					move('l');
-					initLeft = true; //the initial left movement has now happened.
-				}
-				pressedKeys[0] = 1;
-				//moveExecuted = false;
-				if(moving == false){
-					moveTimer.start();
-					moving = true;
-				}
-			}
-		} else if ((char) arg == 'r'){ //right arrow was pressed
-			if(pressedKeys[0] == 0){ //left not being pressed
-				if(!initRight){ //if the initial right movement hasn't happened, do it
-					move('r');
-					initRight = true; //the initial right movement has now happened.
-				}
-				pressedKeys[2] = 1;
-				//moveExecuted = false;
-				if(moving == false){
-					moveTimer.start();
-					moving = true;
-				}
-			}
-		} else if ((char) arg == 'u'){ //up arrow was pressed
-			if(pressedKeys[3] == 0){ //down not being pressed
-				if(!initUp){ //if the initial up movement hasn't happened, do it
-					move('u');
-					initUp = true; //the initial up movement has now happened.
+	public void processKey(int key, boolean pressed) {
+		if (pressed){
+			switch (key){
+			case KEY_LEFT: //left arrow was pressed
+				if(pressedKeys[2] == 0){ //right not being pressed
+					if(!initLeft){ //if the initial left movement hasn't happened, do it
+						move('l');
+						initLeft = true; //the initial left movement has now happened.
+					}
+					pressedKeys[0] = 1;
+					startMoving();
 				}
-				pressedKeys[1] = 1;
-				//moveExecuted = false;
-				if(moving == false){
-					moveTimer.start();
-					moving = true;
+				break;
+			case KEY_RIGHT: //right arrow was pressed
+				if(pressedKeys[0] == 0){ //left not being pressed
+					if(!initRight){ //if the initial right movement hasn't happened, do it
+						move('r');
+						initRight = true; //the initial right movement has now happened.
+					}
+					pressedKeys[2] = 1;
+					startMoving();
 				}
-			}
-		} else if ((char) arg == 'd'){ //down arrow was pressed
-			if(pressedKeys[1] == 0){ //up not being pressed
-				if(!initDown){ //if the initial down movement hasn't happened, do it
-					move('d');
-					initDown = true; //the initial down movement has now happened.
+				break;
+			case KEY_UP: //up arrow was pressed
+				if(pressedKeys[3] == 0){ //down not being pressed
+					if(!initUp){ //if the initial up movement hasn't happened, do it
+						move('u');
+						initUp = true; //the initial up movement has now happened.
+					}
+					pressedKeys[1] = 1;
+					startMoving();
 				}
-				pressedKeys[3] = 1;
-				//moveExecuted = false;
-				if(moving == false){
-					moveTimer.start();
-					moving = true;
+				break;
+			case KEY_DOWN: //down arrow was pressed
+				if(pressedKeys[1] == 0){ //up not being pressed
+					if(!initDown){ //if the initial down movement hasn't happened, do it
+						move('d');
+						initDown = true; //the initial down movement has now happened.
+					}
+					pressedKeys[3] = 1;
+					startMoving();
 				}
+				break;
+			case KEY_SHIFT: //shift key was pressed
+				move('s'); //this can by implemented for various debug functions if needed
+				break;
+			case KEY_QUICK_SAVE:
+				quickSave();
+				break;
+			case KEY_QUICK_LOAD:
+				quickLoad();
+				break;
 			}
-		} else if ((char) arg == 's'){ //shift key was pressed
-			move('s'); //this can by implemented for various debug functions if needed
-		} else if ((char) arg == 'n'){ //key was released, NOT CURRENTLY IMPLEMENTED
-			//no use for this yet
-		} else if ((char) arg == '0'){ //left arrow released
-			//if(moveExecuted == true){
-			pressedKeys[0] = 0;
-			initLeft = false; //the initial left movement is reset. next time left is pressed, the initial movement will happen.
-			if(keyArrayTotal() == 0){
-				moveTimer.stop();
-				moving = false;
-			}
-			//}
-		} else if ((char) arg == '1'){ //up arrow released
-			//if(moveExecuted == true){
-			pressedKeys[1] = 0;
-			initUp = false; //the initial up movement is reset. next time up is pressed, the initial movement will happen.
-			if(keyArrayTotal() == 0){
-				moveTimer.stop();
-				moving = false;
+		} else {
+			switch (key){
+			case KEY_LEFT: //left arrow released
+				pressedKeys[0] = 0;
+				initLeft = false; //the initial left movement is reset. next time left is pressed, the initial movement will happen.
+				stopMovingIfNoKeys();
+				break;
+			case KEY_UP: //up arrow released
+				pressedKeys[1] = 0;
+				initUp = false; //the initial up movement is reset. next time up is pressed, the initial movement will happen.
+				stopMovingIfNoKeys();
+				break;
+			case KEY_RIGHT: //right arrow released
+				pressedKeys[2] = 0;
+				initRight = false; //the initial right movement is reset. next time right is pressed, the initial movement will happen.
+				stopMovingIfNoKeys();
+				break;
+			case KEY_DOWN: //down arrow released
+				pressedKeys[3] = 0;
+				initDown = false; //the initial down movement is reset. next time down is pressed, the initial movement will happen.
+				stopMovingIfNoKeys();
+				break;
+			case KEY_SHIFT: //shift key released, NOT CURRENTLY IMPLEMENTED
+				break;
 			}
-			//}
-		} else if ((char) arg == '2'){ //right arrow released
-			//if(moveExecuted == true){
-			pressedKeys[2] = 0;
-			initRight = false; //the initial right movement is reset. next time right is pressed, the initial movement will happen.
-			if(keyArrayTotal() == 0){
-				moveTimer.stop();
-				moving = false;
-			}
-			//}
-		} else if ((char) arg == '3'){ //down arrow released
-			//if(moveExecuted == true){
-			pressedKeys[3] = 0;
-			initDown = false; //the initial down movement is reset. next time down is pressed, the initial movement will happen.
-			if(keyArrayTotal() == 0){
-				moveTimer.stop();
-				moving = false;
+		}
+	}
+
+	/**
+	 * Save the player's state to QuickSave.DEFAULT_PATH.
+	 * @return boolean: true if the game was saved
+	 */
+	public boolean quickSave(){
+		if (quickSave == null){
+			quickSave = new QuickSave();
+		}
+		try {
+			quickSave.save(this, QuickSave.DEFAULT_PATH);
+			return true;
+		} catch (IOException e) {
+			System.out.println("Unable to quick save: " + e);
+			return false;
+		}
+	}
+
+	/**
+	 * Load the player's state from QuickSave.DEFAULT_PATH, if it has been saved.
+	 * @return boolean: true if the game was loaded
+	 */
+	public boolean quickLoad(){
+		if (quickSave == null){
+			quickSave = new QuickSave();
+		}
+		try {
+			if (!quickSave.load(this, QuickSave.DEFAULT_PATH)){
+				System.out.println("No quick save to load at " + QuickSave.DEFAULT_PATH);
+				return false;
 			}
-			//}
-		} else if ((char) arg == '4'){ //shift key released, NOT CURRENTLY IMPLEMENTED
+			return true;
+		} catch (IOException e) {
+			System.out.println("Unable to quick load: " + e);
+			return false;
+		}
+	}
+
+	/**
+	 * Start the moveTimer after an arrow key is pressed, if it isn't already running.
+	 */
+	private void startMoving(){
+		if(moving == false){
+			moveTimer.start();
+			moving = true;
+		}
+	}
 
+	/**
+	 * Stop the moveTimer after an arrow key is released, if no arrow keys are still held down.
+	 */
+	private void stopMovingIfNoKeys(){
+		if(keyArrayTotal() == 0){
+			moveTimer.stop();
+			moving = false;
 		}
 	}
 
+	/**
+	 * Return the ring that the GameWindow puts key events into.
+	 * @return KeyEventRing: the key event ring for this game
+	 */
+	public KeyEventRing getKeyEvents(){
+		return keyEvents;
+	}
+
+	/**
+	 * Return the time of the most recent key event processed by this game
+	 * @return long: the key event time, in milliseconds
+	 */
+	public long getLastInputTime(){
+		return lastInputTime;
+	}
+
 	/**
 	 * Consolidate all char data; update the x, y, and step fields within the sPanel.
-	 * This is called whenever a change is made to the player's x position or y position
-	 * ( it is called within setCharX(), setCharY() ) so that other classes that rely on 
-	 * this information (sPanel) will know that it has changed. 
+	 * This is called by publish() at the end of a tick, if the player's x position,
+	 * y position or step changed at any point during the tick, so that other classes 
+	 * that rely on this information (sPanel) will know that it has changed. 
 	 */
 	public void refreshChar(){
+		if (gamePanel == null){
+			return; //headless, nothing to update
+		}
 		gamePanel.setStep(player.getStep());
-		gamePanel.setCharX(player.getX());
-		gamePanel.setCharY(player.getY());
+		gamePanel.setCharPosition(player.getX(), player.getY());
+	}
+
+	/**
+	 * Send everything that changed during this tick to the GameWindow, all at once.
+	 * setCharX(), setCharY(), setStep() and changeMap() only mark what has changed,
+	 * so no matter how many pixels the player moved or how many times the map changed 
+	 * during a tick, the window is updated (and repainted) at most once per tick.
+	 * This is called at the end of tick().
+	 */
+	public void publish(){
+		if (!charDirty && !mapDirty && !npcsDirty){
+			return; //nothing changed
+		}
+		if (gamePanel != null){
+			if (mapDirty || npcsDirty){
+				gamePanel.setNpcs(npcs); //the pool is replaced when the map changes or a snapshot is restored
+			}
+			if (mapDirty){
+				//shape data
+				gamePanel.setShapeData(sMap.getShapeData());
+				gamePanel.setShapeCount(sMap.getShapeCount());
+				//game size
+				gamePanel.setFrameHeight(sMap.getFrameHeight());
+				gamePanel.setFrameWidth(sMap.getFrameWidth());
+				gamePanel.refreshSize();
+			}
+			refreshChar();
+			if (mapDirty){
+				gamePanel.snapChar(); //don't slide the sprite across a map change
+			}
+			refreshImage();
+		}
+		charDirty = false;
+		mapDirty = false;
+		npcsDirty = false;
 	}
 
 	/**
@@ -704,39 +1080,135 @@ public class GameState implements Observer {
 	 * This is called for in-map-warps, edge-warps,
 	 * and within the constructor (in this case, 
 	 * the initial game map is the parameter). 
+	 * The player isn't moved here, so EVENT_MAP_CHANGED is emitted
+	 * by the warps once the player has been placed on the new map.
 	 * @param newMap the map to change to
 	 */
 	public void changeMap(int newMap){
-		mapFileData = new MapFileReader(newMap);
-		sMap = new Map(newMap);
+		int previousMap = map;
+		map = newMap;
+		Map loaded = mapSource.apply(newMap); //a map that was visited recently (or prefetched) is already loaded
+		if (loaded != loadedMap){
+			loadedMap = loaded;
+			sMap = loaded.createView(); //only a map streamed in chunks needs its own copy. it is streamed once the player is placed on it
+		}
+		if (prefetcher != null){
+			prefetcher.prefetchNeighbors(newMap, sMap);
+		}
+		if (npcs == null || newMap != previousMap){
+			npcs = new NpcPool(sMap); //NPCs belong to their map
+		} else if (npcs.getMap() != sMap){
+			npcs.setMap(sMap); //the same map (an edge warp that wraps around), so the NPCs stay
+		}
 
-		//initialize sMap with sFile data
+		//the GameWindow is given the new map in publish()
+		mapDirty = true;
+		charDirty = true;
+	}
+
+	/**
+	 * Emit EVENT_MAP_CHANGED if the map changed. Called by the warps once the player
+	 * has been placed on the new map, so the event has the player's new position.
+	 * @param previousMap the map number before the warp
+	 */
+	private void emitMapChanged(int previousMap){
+		if (map != previousMap){
+			emit(GameEventBus.EVENT_MAP_CHANGED, previousMap);
+		}
+	}
+
+	/**
+	 * Set what loads the maps next to the current map in the background. It should
+	 * load into the same cache this game's map source uses. The current map's
+	 * neighbors start loading right away.
+	 * @param prefetcher the prefetcher, or null to stop prefetching
+	 */
+	public void setPrefetcher(MapPrefetcher prefetcher){
+		if (this.prefetcher != null){
+			this.prefetcher.cancel();
+		}
+		this.prefetcher = prefetcher;
+		if (prefetcher != null){
+			prefetcher.prefetchNeighbors(map, sMap);
+		}
+	}
+
+	/**
+	 * Fill in a snapshot's map for a map number, so it can be restored: the current map
+	 * if the game is already on it, otherwise it comes from the map source (and this game
+	 * gets its own copy if it is streamed in chunks). Used by QuickSave.
+	 * @param snapshot the snapshot to fill in
+	 * @param mapNumber the map number
+	 */
+	void findMap(GameSnapshot snapshot, int mapNumber){
+		if (sMap != null && mapNumber == map){
+			snapshot.map = sMap;
+			snapshot.loadedMap = loadedMap;
+		} else {
+			snapshot.loadedMap = mapSource.apply(mapNumber);
+			snapshot.map = snapshot.loadedMap.createView();
+		}
+	}
+
+	/**
+	 * Read a map file and put all of its data into a new Map.
+	 * @param mapNumber the map number to load
+	 * @return Map: the loaded map
+	 */
+	public static Map loadMap(int mapNumber){
+		//a huge map can be split into chunks (see MapChunks). its chunk file is used if it is newer than the map file.
+		//a map in the map pack with no loose files (see MapPack.isOverridden()) has no chunk file, so it isn't looked for
+		Path chunkFile = MapChunks.getPath(mapNumber);
+		MapPack pack = MapPack.getShared();
+		if ((pack == null || pack.isOverridden(mapNumber))
+				&& MapFileReader.getModifiedTime(chunkFile) > MapFileReader.getModifiedTime(MapFileReader.getTextPath(mapNumber))){
+			try {
+				Map streamed = new Map(mapNumber);
+				streamed.setChunks(new MapChunks(chunkFile));
+				return streamed;
+			} catch (IOException e) {
+				System.out.println("Chunk file " + chunkFile + " could not be read, reading the map file instead: " + e);
+			}
+		}
+		return createMap(mapNumber, new MapFileReader(mapNumber));
+	}
+
+	/**
+	 * Put all of the data read from a map file into a new Map.
+	 * @param mapNumber the map number
+	 * @param mapFileData the map file, already read
+	 * @return Map: the new map
+	 */
+	static Map createMap(int mapNumber, MapFileReader mapFileData){
+		Map loaded = new Map(mapNumber);
+
+		//initialize the map with the file data
 		//shape data
-		sMap.setShapeData(mapFileData.getRectangleData());
-		sMap.setShapeCount(mapFileData.getShapeCount());
+		loaded.setShapeData(mapFileData.getRectangleData());
+		loaded.setShapeCount(mapFileData.getShapeCount());
 		//edgewarps
-		sMap.setEdgeWarpDown(mapFileData.getEdgeWarpDown());
-		sMap.setEdgeWarpLeft(mapFileData.getEdgeWarpLeft());
-		sMap.setEdgeWarpRight(mapFileData.getEdgeWarpRight());
-		sMap.setEdgeWarpUp(mapFileData.getEdgeWarpUp());
+		loaded.setEdgeWarpDown(mapFileData.getEdgeWarpDown());
+		loaded.setEdgeWarpLeft(mapFileData.getEdgeWarpLeft());
+		loaded.setEdgeWarpRight(mapFileData.getEdgeWarpRight());
+		loaded.setEdgeWarpUp(mapFileData.getEdgeWarpUp());
 		//normWarps
-		sMap.setWarpCount(mapFileData.getWarpCount());
-		sMap.setWarpList(mapFileData.getWarpList());
-
-		//initialize GamePanel with information from MapFileData
-		//shape data
-		gamePanel.setShapeData(mapFileData.getRectangleData());
-		gamePanel.setShapeCount(mapFileData.getShapeCount());
-		//game size
-		gamePanel.setFrameHeight(mapFileData.getFrameHeight());
-		gamePanel.setFrameWidth(mapFileData.getFrameWidth());
-		//player animation current step
-		gamePanel.setStep(player.getStep());
-		//initialize and refresh panel
-		refreshChar();
-		gamePanel.refreshImage();
-		gamePanel.refreshSize();
+		loaded.setWarpCount(mapFileData.getWarpCount());
+		loaded.setWarpList(mapFileData.getWarpList());
+		//game size, used for edge warps
+		loaded.setFrameHeight(mapFileData.getFrameHeight());
+		loaded.setFrameWidth(mapFileData.getFrameWidth());
+		//spawn point, used when a game starts on this map
+		loaded.setSpawn(mapFileData.getSpawnX(), mapFileData.getSpawnY());
+		return loaded;
+	}
 
+	/**
+	 * Repaint the game window, if there is one.
+	 */
+	public void refreshImage(){
+		if (gamePanel != null){
+			gamePanel.refreshImage();
+		}
 	}
 
 	/**
@@ -747,24 +1219,23 @@ public class GameState implements Observer {
 	 * 		  is down.
 	 */
 	public void edgeWarp(char direction){
+		int previousMap = map;
 		if (direction == 'l'){ //left
-			map = sMap.getEdgeWarpLeft();
-			changeMap(map);
-			setCharX(gamePanel.getFrameWidth() + RIGHT_EDGE_WARP_OFFSET);
+			changeMap(sMap.getEdgeWarpLeft());
+			setCharX(sMap.getFrameWidth() + RIGHT_EDGE_WARP_OFFSET);
 		} else if (direction == 'r'){ //right
-			map = sMap.getEdgeWarpRight();
-			changeMap(map);
+			changeMap(sMap.getEdgeWarpRight());
 			setCharX(0 - LEFT_EDGE_WARP_OFFSET);
 		} else if (direction == 'u'){ //up
-			map = sMap.getEdgeWarpUp();
-			changeMap(map);
-			setCharY(gamePanel.getFrameHeight() + BOTTOM_EDGE_WARP_OFFSET);
+			changeMap(sMap.getEdgeWarpUp());
+			setCharY(sMap.getFrameHeight() + BOTTOM_EDGE_WARP_OFFSET);
 		} else if (direction == 'd'){ //down
-			map = sMap.getEdgeWarpDown();
-			changeMap(map);
+			changeMap(sMap.getEdgeWarpDown());
 			setCharY(0 - TOP_EDGE_WARP_OFFSET);
 		}
-		refreshChar();
+		streamChunks();
+		emitMapChanged(previousMap);
+		emit(GameEventBus.EVENT_EDGE_WARP, direction);
 		if(EDGE_WARP_RESETS_FALL_SPEED){
 			resetFallSpeed();
 		}
@@ -788,6 +1259,119 @@ public class GameState implements Observer {
 	 * 
 	 */
 	public int checkClimb(){
+		updateRegions(true);
+		int priority = regionPriority;
+
+		if (priority >= 10){
+			normWarp(priority - 10);
+		} else if (priority != lastClimb){
+			if (lastClimb != 0){
+				emit(GameEventBus.EVENT_CLIMB_LEFT, lastClimb);
+			}
+			if (priority != 0){
+				emit(GameEventBus.EVENT_CLIMB_ENTERED, priority);
+			}
+			lastClimb = priority;
+		}
+
+		return priority;
+	}
+
+	/**
+	 * checks the climbability of the current position, the same way as checkClimb(),
+	 * but never performs an in-map-warp. this is safe to call when you just want to 
+	 * know what the player is touching (for example when observing a headless game).
+	 * @return the climbability of current spot or the normWarp value at that spot. 
+	 * see checkClimb() for the meaning of each value.
+	 */
+	public int getClimbPriority(){
+		if (regionMap == sMap && regionX == player.getX() && regionY == player.getY()){
+			return regionPriority;
+		}
+		return getClimbPriority(sMap, player.getX(), player.getY());
+	}
+
+	/**
+	 * Find the regions (climbable, watery and in-map-warp shapes) the player is touching,
+	 * and the climbability, but only if the player moved or the map changed since
+	 * the last time. checkClimb() is called many times at the same position (every
+	 * fall and move timer, every arrow key), so this keeps all of those calls from
+	 * checking the map again. If the regions changed and events is true, 
+	 * EVENT_REGION_ENTERED and EVENT_REGION_LEFT are emitted for the regions that
+	 * were entered and left. When the map is reloaded from its file (the same map
+	 * number), the old regions are compared with the new ones like any other move.
+	 * @param events should events be emitted?
+	 */
+	private void updateRegions(boolean events){
+		int x = player.getX();
+		int y = player.getY();
+		if (regionMap == sMap && regionX == x && regionY == y){
+			return;
+		}
+		if (regions.length < sMap.getShapeCount()){
+			//a bigger map, or more chunks of a streamed map were loaded
+			regions = Arrays.copyOf(regions, sMap.getShapeCount());
+			newRegions = new int[sMap.getShapeCount()];
+		}
+		if (regionMapNumber != map){
+			//a different map. the player has left all of the old map's regions (the map change event says so)
+			regionCount = 0;
+		}
+		regionMap = sMap;
+		regionMapNumber = map;
+		regionX = x;
+		regionY = y;
+		regionPriority = getClimbPriority(sMap, x, y);
+		int count = sMap.getRegions(x + LEFT_COLLISION_OFFSET, x + RIGHT_COLLISION_OFFSET, y + CLIMB_TOP_OFFSET, y + DOWN_COLLISION_OFFSET, newRegions);
+		if (events){
+			//both lists are in increasing order, so walk them together
+			int i = 0;
+			int j = 0;
+			while (i < regionCount || j < count){
+				if (j == count || (i < regionCount && regions[i] < newRegions[j])){
+					emit(GameEventBus.EVENT_REGION_LEFT, regions[i++]);
+				} else if (i == regionCount || newRegions[j] < regions[i]){
+					emit(GameEventBus.EVENT_REGION_ENTERED, newRegions[j++]);
+				} else {
+					i++;
+					j++;
+				}
+			}
+		}
+		int[] swap = regions;
+		regions = newRegions;
+		newRegions = swap;
+		regionCount = count;
+	}
+
+	/**
+	 * Return how many regions (climbable, watery and in-map-warp shapes) the player was touching
+	 * the last time checkClimb() was called
+	 * @return int: the number of regions
+	 */
+	public int getRegionCount(){
+		return regionCount;
+	}
+
+	/**
+	 * Return one of the regions the player was touching the last time checkClimb() was called
+	 * @param index which region, from 0 to getRegionCount() - 1
+	 * @return int: the region's shape number in the map
+	 */
+	public int getRegion(int index){
+		return regions[index];
+	}
+
+	/**
+	 * checks the climbability of a hitbox at (x, y) on the specified map, the same 
+	 * way as getClimbPriority(). Also used by NpcPool.
+	 * @param map the map to check
+	 * @param x the x position of the hitbox
+	 * @param y the y position of the hitbox
+	 * @return the climbability of the spot or the normWarp value at that spot.
+	 * see checkClimb() for the meaning of each value.
+	 */
+	static int getClimbPriority(Map map, int x, int y){
 		/*
 		 * 
 		 * These work by checking the climbability in lines forming a box
@@ -816,7 +1400,7 @@ public class GameState implements Observer {
 		//left
 		i = DOWN_COLLISION_OFFSET;
 		while(i >= -11){ //upCollisionOffset){ 
-			climb = sMap.getClimb(player.getX() + LEFT_COLLISION_OFFSET, player.getY() + i);
+			climb = map.getClimb(x + LEFT_COLLISION_OFFSET, y + i);
 			if (climb >= 10) {
 				priority = climb;
 			} else if(climb == 3 && (priority == 0 || priority == 2 || priority == 1)){
@@ -831,7 +1415,7 @@ public class GameState implements Observer {
 		//right
 		i = DOWN_COLLISION_OFFSET;
 		while(i >= -11){ //upCollisionOffset){
-			climb = sMap.getClimb(player.getX() + RIGHT_COLLISION_OFFSET, player.getY() + i);
+			climb = map.getClimb(x + RIGHT_COLLISION_OFFSET, y + i);
 			if (climb >= 10) {
 				priority = climb;
 			} else if(climb == 3 && (priority == 0 || priority == 2 || priority == 1)){
@@ -846,7 +1430,7 @@ public class GameState implements Observer {
 		//up
 		i = LEFT_COLLISION_OFFSET;
 		while(i <= RIGHT_COLLISION_OFFSET){
-			climb = sMap.getClimb(player.getX() + i, player.getY() + -11); //upCollisionOffset);
+			climb = map.getClimb(x + i, y + -11); //upCollisionOffset);
 			if (climb >= 10) {
 				priority = climb;
 			} else if(climb == 3 && (priority == 0 || priority == 2 || priority == 1)){
@@ -861,7 +1445,7 @@ public class GameState implements Observer {
 		//down
 		i = LEFT_COLLISION_OFFSET;
 		while(i <= RIGHT_COLLISION_OFFSET){
-			climb = sMap.getClimb(player.getX() + i, player.getY() + DOWN_COLLISION_OFFSET);
+			climb = map.getClimb(x + i, y + DOWN_COLLISION_OFFSET);
 			//climb = sMap.getClimb(sChar.getX() + i, sChar.getY() + downCollisionOffset + 1); //check the spot below player. this makes you unable to jump on ladder climbable and water
 			if (climb >= 10) {
 				priority = climb;
@@ -875,42 +1459,200 @@ public class GameState implements Observer {
 			i++;
 		}
 
-		if (priority >= 10){
-			normWarp(priority - 10);
-		}
-
 		return priority;
 	}
 
 
 	/**
-	 * change the player's x position, then update it 
-	 * in all classes that need to know it has changed.
+	 * change the player's x position, then mark it as changed
+	 * so that publish() updates all classes that need to know.
 	 * @param newX the new x position for the player, as an int
 	 */
 	public void setCharX(int newX){
 		player.setX(newX);
-		refreshChar();
+		charDirty = true;
 	}
 
 	/**
-	 * change the player's x position, then update it 
-	 * in all classes that need to know it has changed.
+	 * change the player's y position, then mark it as changed
+	 * so that publish() updates all classes that need to know.
 	 * @param newY the new y position for the player, as an int
 	 */
 	public void setCharY(int newY){
 		player.setY(newY);
-		refreshChar();
+		charDirty = true;
 	}
 
 	/**
-	 * change the player's step variable, then update it 
-	 * in all classes that need to know it has changed.
+	 * change the player's step variable, then mark it as changed
+	 * so that publish() updates all classes that need to know.
 	 * @param newStep the new step value, as an int
 	 */
 	public void setStep(int newStep){
 		player.setStep(newStep);
-		refreshChar();
+		charDirty = true;
+	}
+
+	/**
+	 * Hold down exactly the keys in the specified bitmask, pressing and releasing
+	 * keys as needed (only keys that changed since the last call are pressed or
+	 * released). This is how headless games are controlled.
+	 * Bit 0 is left, bit 1 is up, bit 2 is right, bit 3 is down, bit 4 is shift.
+	 * @param mask the bitmask of keys that should be held down
+	 */
+	public void setInputMask(int mask){
+		int changed = mask ^ inputMask;
+		inputMask = mask;
+		for (int i = 0; i < KEY_COUNT; i++){
+			if ((changed & (1 << i)) != 0){
+				processKey(i, (mask & (1 << i)) != 0);
+			}
+		}
+	}
+
+	/**
+	 * Copy the whole state of the game into a snapshot. The snapshot is 
+	 * overwritten, and no new objects are created, so this is cheap enough
+	 * to call every tick.
+	 * @param snapshot the snapshot to fill in
+	 */
+	public void saveSnapshot(GameSnapshot snapshot){
+		snapshot.filled = true;
+		snapshot.tickCount = tickCount;
+		snapshot.mapNumber = map;
+		snapshot.map = sMap;
+		snapshot.loadedMap = loadedMap;
+		snapshot.x = player.getX();
+		snapshot.y = player.getY();
+		snapshot.step = player.getStep();
+		snapshot.jumpStep = jumpStep;
+		snapshot.gravityStart = gravityStart;
+		snapshot.fastGravityStart = fastGravityStart;
+		snapshot.fastFalling = fastFalling;
+		snapshot.moving = moving;
+		System.arraycopy(pressedKeys, 0, snapshot.pressedKeys, 0, KEY_COUNT);
+		snapshot.initLeft = initLeft;
+		snapshot.initUp = initUp;
+		snapshot.initRight = initRight;
+		snapshot.initDown = initDown;
+		snapshot.inputMask = inputMask;
+		snapshot.lastClimb = lastClimb;
+		saveTimer(snapshot, GameSnapshot.TIMER_JUMP, jumpTimer);
+		saveTimer(snapshot, GameSnapshot.TIMER_FALL, fallTimer);
+		saveTimer(snapshot, GameSnapshot.TIMER_FAST_FALL, fastFallTimer);
+		saveTimer(snapshot, GameSnapshot.TIMER_MOVE, moveTimer);
+	}
+
+	/**
+	 * Put the game back exactly the way it was when the snapshot was taken.
+	 * This takes the same amount of time no matter what is in the snapshot,
+	 * and doesn't create any new objects: if the snapshot is on a different map,
+	 * the Map it saved (this game's copy, with its chunks still loaded) is
+	 * used again instead of reading the map file or making a new copy. Moving to a different map this
+	 * way sends EVENT_MAP_CHANGED and prefetches the new map's neighbors,
+	 * just like a warp does. The NPCs aren't in a snapshot, so they keep going
+	 * (or the new map starts without any); use restoreNpcs() to put them back.
+	 * @param snapshot the snapshot to restore
+	 */
+	public void restoreSnapshot(GameSnapshot snapshot){
+		if (!snapshot.filled){
+			throw new IllegalArgumentException("cannot restore a snapshot that was never saved");
+		}
+		events.clear(); //events from after the snapshot was taken never happened now
+		tickCount = snapshot.tickCount;
+		if (sMap != snapshot.map){
+			loadedMap = snapshot.loadedMap;
+			sMap = snapshot.map;
+			mapDirty = true;
+		}
+		if (npcs.getMap() != sMap){
+			//the NPCs belong to the map that was left. the pool is emptied and used again
+			npcs.clear();
+			npcs.setMap(sMap);
+			npcsDirty = true;
+		}
+		int previousMap = map;
+		map = snapshot.mapNumber;
+		player.setXY(snapshot.x, snapshot.y);
+		streamChunks();
+		player.setStep(snapshot.step);
+		charDirty = true;
+		jumpStep = snapshot.jumpStep;
+		gravityStart = snapshot.gravityStart;
+		fastGravityStart = snapshot.fastGravityStart;
+		fastFalling = snapshot.fastFalling;
+		moving = snapshot.moving;
+		System.arraycopy(snapshot.pressedKeys, 0, pressedKeys, 0, KEY_COUNT);
+		initLeft = snapshot.initLeft;
+		initUp = snapshot.initUp;
+		initRight = snapshot.initRight;
+		initDown = snapshot.initDown;
+		inputMask = snapshot.inputMask;
+		lastClimb = snapshot.lastClimb;
+		updateRegions(false); //the regions come from the position, so they are found again instead of being saved
+		restoreTimer(snapshot, GameSnapshot.TIMER_JUMP, jumpTimer);
+		restoreTimer(snapshot, GameSnapshot.TIMER_FALL, fallTimer);
+		restoreTimer(snapshot, GameSnapshot.TIMER_FAST_FALL, fastFallTimer);
+		restoreTimer(snapshot, GameSnapshot.TIMER_MOVE, moveTimer);
+		if (map != previousMap){
+			if (prefetcher != null){
+				prefetcher.prefetchNeighbors(map, sMap);
+			}
+			emitMapChanged(previousMap);
+		}
+	}
+
+	/**
+	 * Replace the NPCs on the current map with copies of the NPCs in a pool. The NPCs
+	 * aren't part of a GameSnapshot (so a snapshot stays the same size every tick),
+	 * so this is how QuickSave puts back the NPCs it saved, right after restoreSnapshot().
+	 * It takes time for each NPC.
+	 * @param saved the NPCs to copy. its map is ignored
+	 */
+	public void restoreNpcs(NpcPool saved){
+		npcs.copyFrom(saved);
+		npcsDirty = true;
+	}
+
+	private void saveTimer(GameSnapshot snapshot, int index, TickTimer timer){
+		snapshot.timerRunning[index] = timer.isRunning();
+		snapshot.timerCountdown[index] = timer.getCountdown();
+	}
+
+	private void restoreTimer(GameSnapshot snapshot, int index, TickTimer timer){
+		timer.restore(snapshot.timerRunning[index], snapshot.timerCountdown[index]);
+	}
+
+	/**
+	 * Return how many times the game has been ticked
+	 * @return long: the tick count
+	 */
+	public long getTickCount(){
+		return tickCount;
+	}
+
+	/**
+	 * Get the player's current x position
+	 * @return int: the player's x position
+	 */
+	public int getCharX(){
+		return player.getX();
+	}
+
+	/**
+	 * Get the player's current y position
+	 * @return int: the player's y position
+	 */
+	public int getCharY(){
+		return player.getY();
+	}
+
+	/**
+	 * Get the number of the map the player is currently on
+	 * @return int: the current map number
+	 */
+	public int getMapNumber(){
+		return map;
 	}
 
 	/**
@@ -926,9 +1668,13 @@ public class GameState implements Observer {
 		int newMap = sMap.getInMapWarpValue(warpNumber, 0);
 		int newX = sMap.getInMapWarpValue(warpNumber, 1);
 		int newY = sMap.getInMapWarpValue(warpNumber, 2);
+		int previousMap = map;
 		changeMap(newMap);
 		setCharX(newX);
 		setCharY(newY);
+		streamChunks();
+		emitMapChanged(previousMap);
+		emit(GameEventBus.EVENT_IN_MAP_WARP, warpNumber);
 		if(IN_MAP_WARP_RESETS_FALL_SPEED){
 			resetFallSpeed();
 		}
@@ -949,12 +1695,44 @@ public class GameState implements Observer {
 	 * @return boolean: true if the player can go there, false if they can't
 	 */
 	public boolean checkCollision(char side, int x, int y){
+		return checkCollision(sMap, side, x, y);
+	}
+
+	/**
+	 * Is any part of a hitbox at (x, y) inside a solid shape? Used by MapCompiler
+	 * to check that a spawn point is somewhere the player can stand.
+	 * @param map the map to check
+	 * @param x the x position of the hitbox
+	 * @param y the y position of the hitbox
+	 * @return boolean: true if the hitbox overlaps something solid
+	 */
+	static boolean isInsideSolid(Map map, int x, int y){
+		for (int i = LEFT_COLLISION_OFFSET + 1; i <= RIGHT_COLLISION_OFFSET - 1; i++){
+			for (int j = TOP_COLLISION_OFFSET; j <= DOWN_COLLISION_OFFSET; j++){
+				if (!map.getCollision(x + i, y + j)){
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Check collision for a hitbox on the specified map, the same way as
+	 * checkCollision(char, int, int). Also used by NpcPool.
+	 * @param map the map to check
+	 * @param side: char representing which side to check ('l' left, 'r' right, 'u' up, 'd' down)
+	 * @param x: the x value to check
+	 * @param y: the y value to check
+	 * @return boolean: true if the hitbox can go there, false if it can't
+	 */
+	static boolean checkCollision(Map map, char side, int x, int y){
 		int i = 0;
 		if(side == 'l'){
 			//System.out.println("left");
 			i = DOWN_COLLISION_OFFSET;
 			while(i >= TOP_COLLISION_OFFSET){
-				if (!sMap.getCollision(x + LEFT_COLLISION_OFFSET + 1, y + i)){
+				if (!map.getCollision(x + LEFT_COLLISION_OFFSET + 1, y + i)){
 					return false;
 				}
 				i--;
@@ -963,7 +1741,7 @@ public class GameState implements Observer {
 			//System.out.println("right");
 			i = DOWN_COLLISION_OFFSET;
 			while(i >= TOP_COLLISION_OFFSET){
-				if (!sMap.getCollision(x + RIGHT_COLLISION_OFFSET - 1, y + i)){
+				if (!map.getCollision(x + RIGHT_COLLISION_OFFSET - 1, y + i)){
 					return false;
 				}
 				i--;
@@ -972,7 +1750,7 @@ public class GameState implements Observer {
 			//System.out.println("up");
 			i = LEFT_COLLISION_OFFSET + 1;
 			while(i <= RIGHT_COLLISION_OFFSET - 1){
-				if (!(sMap.getCollision(x + i, y + TOP_COLLISION_OFFSET - 1))){
+				if (!(map.getCollision(x + i, y + TOP_COLLISION_OFFSET - 1))){
 					return false;
 				}
 				i++;
@@ -981,7 +1759,7 @@ public class GameState implements Observer {
 			//System.out.println("down");
 			i = LEFT_COLLISION_OFFSET + 1;
 			while(i <= RIGHT_COLLISION_OFFSET - 1){
-				if (!(sMap.getCollision(x + i, y + DOWN_COLLISION_OFFSET + 1))){
+				if (!(map.getCollision(x + i, y + DOWN_COLLISION_OFFSET + 1))){
 					return false;
 				}
 				i++;
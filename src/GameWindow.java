@@ -1,11 +1,14 @@
 import java.awt.Color;
 import java.awt.Dimension;
 import java.awt.Graphics;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
 import java.awt.event.KeyEvent;
 import java.awt.event.KeyListener;
-import java.util.Observable;
+import java.util.HashMap;
 import javax.swing.JFrame;
 import javax.swing.JPanel;
+import javax.swing.Timer;
 
 /**
  * The window that displays all visual aspects of the game.
@@ -14,7 +17,7 @@ import javax.swing.JPanel;
  * 
  * Instantiated within the GameState class.
  * 
- * @version Version 1.3
+ * @version Version 1.4
  * @author Adam Cogen
  *
  */
@@ -23,6 +26,8 @@ public class GameWindow extends JFrame {
 	private int frameHeight; //the current height of the game window
 	private DrawPanel panel; //DrawPanel is an internal class that extends JPanel. The game is drawn here. It is near the bottom of this class.
 	private int[][] shapeData; //contains the shape data that will be used to draw the map
+	private Color[] shapeColors = new Color[0]; //the color of each shape in shapeData, so a Color isn't created for every shape on every repaint
+	private HashMap<Integer, Color> palette = new HashMap<Integer, Color>(); //every color used so far, by its packed RGB value. maps share most of their colors, so this stays small
 	private int charX; //the current x position of the player sprite, for drawing purposes
 	private int charY; //the current y position of the player sprite, for drawing purposes
 	private int shapeCount; //the shape count, used to initialize the shapeData array
@@ -38,18 +43,36 @@ public class GameWindow extends JFrame {
 	private static final int RIGHT_COLLISION_OFFSET = 8; //used to calibrate where the right side of the player is located
 	private static final int TOP_COLLISION_OFFSET = -22; //used to calibrate where the top of the player is located
 	private static final int BOTTOM_COLLISION_OFFSET = -1; //used to calibrate where the bottom of the player is located
-	private KeyPressNotifier pressNotifier; 
+	/*
+	 * the game only moves the player on timer ticks (every 100 milliseconds while walking),
+	 * so drawing the player exactly where it is makes movement look choppy. with interpolation
+	 * on, every time the player moves, the sprite slides from where it was drawn to its new 
+	 * position over the same amount of time that passed between the last two moves. while
+	 * it is sliding, renderTimer repaints the window at about 60 frames per second. 
+	 */
+	private static final boolean INTERPOLATE = true; //turn sprite interpolation on or off
+	private static final int RENDER_FREQUENCY = 16; //how often (in milliseconds) to repaint while the sprite is sliding
+	private static final long MAX_SLIDE_TIME = 150000000L; //the longest a slide can take, in nanoseconds. used after the player has been standing still
+	private static final int SNAP_DISTANCE = 40; //moves farther than this many pixels (warps) jump straight to the new position instead of sliding
+	private int prevCharX; //the x position the sprite is sliding from
+	private int prevCharY; //the y position the sprite is sliding from
+	private long stateTime; //when the player was last moved (System.nanoTime())
+	private long slideTime; //how long the current slide takes, in nanoseconds
+	private Timer renderTimer; //repaints the window while the sprite is sliding
+	private transient NpcPool npcs; //the non-player characters on the current map, drawn next to the player
+	private KeyEventRing keyEvents; //key presses and releases are put here, and the GameState takes them out once per tick
 
 	/**
 	 * 
 	 * Instantiates the GameWindow class and initializes necessary fields.
 	 * 
 	 * @param game The GameState object which this GameWindow is instantiated by.
-	 * This will be passed to the internal observable KeyPressNotifier class, 
-	 * where it will be added as an observer.
+	 * Key presses and releases detected by this window are put in that game's
+	 * key event ring, where the game will process them on its next tick.
 	 */
 	public GameWindow(GameState game){
 		panel = new DrawPanel();
+		renderTimer = getRenderTimer();
 		frameHeight = 0;
 		frameWidth = 0;
 		shapeCount = 0;
@@ -59,22 +82,12 @@ public class GameWindow extends JFrame {
 		this.setDefaultCloseOperation(EXIT_ON_CLOSE);
 
 		/*
-		 * Instantiate the KeyPressNotifier internal class, 
-		 * which will be observable by the SGame, which this 
-		 * GameWindow object is instantiated by. 
-		 * The KeyPressNotifier will be used to notify the game
-		 * when a key has been pressed, since only the GameWindow
-		 * class has the ability to detect key presses (since it extends 
-		 * JFrame).
-		 */
-		pressNotifier = new KeyPressNotifier();
-
-		/*
-		 * Pass in the GameState that this GameWindow is instantiated by,
-		 * and has as a field.
-		 * This will act as an observer (i.e. observer-observable pattern). 
+		 * Only the GameWindow class has the ability to detect key presses 
+		 * (since it extends JFrame), so key presses are passed to the game
+		 * through its KeyEventRing. Key presses happen on the AWT event thread,
+		 * and the ring lets the game read them without any locking.
 		 */
-		pressNotifier.setGame(game);
+		keyEvents = game.getKeyEvents();
 		
 		this.addKeyListener(getKeyPressListener());
 	}
@@ -96,72 +109,73 @@ public class GameWindow extends JFrame {
 				//nothin	
 			}
 			/**
-			 * Handles all key presses, and calls a method within
-			 * the KeyPressNotifier class (internal class within the 
-			 * GameWindow) that will then notify the SGame that a key
-			 * has been pressed. From there, the SGame will perform 
-			 * the appropriate functions.
+			 * Handles all key presses, and puts them in the game's 
+			 * KeyEventRing along with the time they happened. On its 
+			 * next tick, the game will perform the appropriate functions.
 			 * @param e the key that was pressed (usually one of the arrow keys, except for a possible debug function on the shift key)
 			 */
 			@Override
 			public void keyPressed(KeyEvent e) {
-				switch (e.getKeyCode()) {
-				case KeyEvent.VK_LEFT: //left key pressed
-					//moveChar("left");
-					pressNotifier.keyPressChange('l');
-					break;
-				case KeyEvent.VK_UP: //up key pressed
-					//moveChar("up");
-					pressNotifier.keyPressChange('u');
-					break;
-				case KeyEvent.VK_RIGHT: //right key pressed
-					//moveChar("right");
-					pressNotifier.keyPressChange('r');
-					break;
-				case KeyEvent.VK_DOWN: // down key pressed
-					//moveChar("down");
-					pressNotifier.keyPressChange('d');
-					break;
-				case KeyEvent.VK_SHIFT: // shift key pressed
-					//moveChar("shift");
-					pressNotifier.keyPressChange('s');
-					break;
+				int key = getGameKey(e.getKeyCode());
+				if (key != -1){
+					keyEvents.offer(key + KeyEventRing.KEY_PRESSED, e.getWhen());
 				}
 			}
 			/**
-			 * This is not used for anything yet, but just in case
-			 * it is eventually useful, the KeyPressNotifier class 
-			 * also notifies the SGame about key releases. 
+			 * Handles all key releases, and puts them in the game's 
+			 * KeyEventRing, the same way as key presses.
 			 */
 			@Override
 			public void keyReleased(KeyEvent e) {
-				switch (e.getKeyCode()) {
-				case KeyEvent.VK_LEFT: //left key pressed
-					//moveChar("left");
-					pressNotifier.keyPressChange('0');
-					break;
-				case KeyEvent.VK_UP: //up key pressed
-					//moveChar("up");
-					pressNotifier.keyPressChange('1');
-					break;
-				case KeyEvent.VK_RIGHT: //right key pressed
-					//moveChar("right");
-					pressNotifier.keyPressChange('2');
-					break;
-				case KeyEvent.VK_DOWN: // down key pressed
-					//moveChar("down");
-					pressNotifier.keyPressChange('3');
-					break;
-				case KeyEvent.VK_SHIFT: // shift key pressed
-					//moveChar("shift");
-					pressNotifier.keyPressChange('4');
-					break;
+				int key = getGameKey(e.getKeyCode());
+				if (key != -1){
+					keyEvents.offer(key, e.getWhen());
 				}
 			}
 		}
 		return new KeyPress();
 	}
 
+	private Timer getRenderTimer() {
+		/**
+		 * Repaints the window while the sprite is sliding between positions.
+		 * The DrawPanel stops this timer once the sprite has arrived.
+		 */
+		class RenderTimerListener implements ActionListener{
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				panel.repaint();
+			}
+		}
+		return new Timer(RENDER_FREQUENCY, new RenderTimerListener());
+	}
+
+	/**
+	 * Convert a java key code into one of the game's key codes.
+	 * @param keyCode the key code from a KeyEvent
+	 * @return int: GameState.KEY_LEFT, KEY_UP, KEY_RIGHT, KEY_DOWN, KEY_SHIFT, KEY_QUICK_SAVE or KEY_QUICK_LOAD,
+	 * or -1 if the game doesn't use that key
+	 */
+	private int getGameKey(int keyCode){
+		switch (keyCode) {
+		case KeyEvent.VK_LEFT: //left key
+			return GameState.KEY_LEFT;
+		case KeyEvent.VK_UP: //up key
+			return GameState.KEY_UP;
+		case KeyEvent.VK_RIGHT: //right key
+			return GameState.KEY_RIGHT;
+		case KeyEvent.VK_DOWN: // down key
+			return GameState.KEY_DOWN;
+		case KeyEvent.VK_SHIFT: // shift key
+			return GameState.KEY_SHIFT;
+		case KeyEvent.VK_F5: // quick save
+			return GameState.KEY_QUICK_SAVE;
+		case KeyEvent.VK_F9: // quick load
+			return GameState.KEY_QUICK_LOAD;
+		}
+		return -1;
+	}
+
 	/**
 	 * read a number from the shape array.
 	 * @param rectangle the number of the shape to read
@@ -185,82 +199,83 @@ public class GameWindow extends JFrame {
 	 */
 	class DrawPanel extends JPanel{
 		public void paintComponent(Graphics g){
-			int red = 0;
-			int green = 0;
-			int blue = 0;
-
 			//draw all rectangles that go behind player, and no-collision ovals that go behind player
 			for (int i = 0; i < shapeCount; i++){
 
-				/*
-				 * read each color from the file, and call a method that 
-				 * corrects any colors that are outside of the range 0 to 255
-				 */
-				red = fixColorRange(readNum(i, 6));
-				green = fixColorRange(green = readNum(i, 7));
-				blue = fixColorRange(readNum(i, 8));
-
 				//all behind rectangles
 				if(readNum(i, 4) != 2 && readNum(i, 4) != 3 && readNum(i, 4) != 4 && readNum(i, 4) != 5){
-					g.setColor(new Color(red, green, blue));
+					g.setColor(shapeColors[i]); //colors outside of the range 0 to 255 were already corrected by setShapeData()
 					g.fillRect(readNum(i, 0), readNum(i, 1), readNum(i, 2), readNum(i, 3));
 				}
 				//draw no-collision behind ovals
 				if(readNum(i,4) == 3){
-					g.setColor(new Color(red, green, blue));
+					g.setColor(shapeColors[i]);
 					g.fillOval(readNum(i, 0), readNum(i, 1), readNum(i, 2), readNum(i, 3));
 				}
 			}
 
-			//draw the character
+			//draw the character, partway between its last two positions if interpolation is on
+			long now = System.nanoTime();
+			int drawX = getDrawX(now);
+			int drawY = getDrawY(now);
+			if (getSlideProgress(now) >= 1){
+				renderTimer.stop(); //the sprite has arrived, no need to keep repainting
+			}
 			g.setColor(Color.black);
 			if (step == 0){
-				g.drawString("H", charX, charY);
-				g.drawString("- -", charX - 5, charY - 6);
+				g.drawString("H", drawX, drawY);
+				g.drawString("- -", drawX - 5, drawY - 6);
 			} else {
-				g.drawString("X", charX, charY);
-				g.drawString("~ ~", charX - 5, charY - 6);
+				g.drawString("X", drawX, drawY);
+				g.drawString("~ ~", drawX - 5, drawY - 6);
+			}
+			g.drawString("O", drawX, drawY - 5);
+			g.drawString("o", drawX + 2, drawY - 15);
+
+			//draw the NPCs the same way as the player, in gray, without interpolation
+			if (npcs != null){
+				g.setColor(Color.gray);
+				for (int i = 0; i < npcs.getCount(); i++){
+					int npcX = npcs.getX(i);
+					int npcY = npcs.getY(i);
+					if (npcs.getStep(i) == 0){
+						g.drawString("H", npcX, npcY);
+						g.drawString("- -", npcX - 5, npcY - 6);
+					} else {
+						g.drawString("X", npcX, npcY);
+						g.drawString("~ ~", npcX - 5, npcY - 6);
+					}
+					g.drawString("O", npcX, npcY - 5);
+					g.drawString("o", npcX + 2, npcY - 15);
+				}
 			}
-			g.drawString("O", charX, charY - 5);
-			g.drawString("o", charX + 2, charY - 15);
 
 			//draw the hitbox if it is turned on
 			if (SHOW_HIT_BOX){
 				g.setColor(Color.red);
 				//left
-				g.drawLine(charX + LEFT_COLLISION_OFFSET, charY + BOTTOM_COLLISION_OFFSET, charX +LEFT_COLLISION_OFFSET, charY + TOP_COLLISION_OFFSET);
+				g.drawLine(drawX + LEFT_COLLISION_OFFSET, drawY + BOTTOM_COLLISION_OFFSET, drawX +LEFT_COLLISION_OFFSET, drawY + TOP_COLLISION_OFFSET);
 				//right
-				g.drawLine(charX + RIGHT_COLLISION_OFFSET, charY + BOTTOM_COLLISION_OFFSET, charX + RIGHT_COLLISION_OFFSET, charY + TOP_COLLISION_OFFSET);
+				g.drawLine(drawX + RIGHT_COLLISION_OFFSET, drawY + BOTTOM_COLLISION_OFFSET, drawX + RIGHT_COLLISION_OFFSET, drawY + TOP_COLLISION_OFFSET);
 				//up
-				g.drawLine(charX + LEFT_COLLISION_OFFSET, charY + TOP_COLLISION_OFFSET, charX + RIGHT_COLLISION_OFFSET, charY + TOP_COLLISION_OFFSET);
+				g.drawLine(drawX + LEFT_COLLISION_OFFSET, drawY + TOP_COLLISION_OFFSET, drawX + RIGHT_COLLISION_OFFSET, drawY + TOP_COLLISION_OFFSET);
 				//down
-				g.drawLine(charX + LEFT_COLLISION_OFFSET, charY + BOTTOM_COLLISION_OFFSET, charX + RIGHT_COLLISION_OFFSET, charY + BOTTOM_COLLISION_OFFSET);
+				g.drawLine(drawX + LEFT_COLLISION_OFFSET, drawY + BOTTOM_COLLISION_OFFSET, drawX + RIGHT_COLLISION_OFFSET, drawY + BOTTOM_COLLISION_OFFSET);
 				//center dot (at arm line)
-				g.drawLine(charX + 4, charY + -10, charX + 5, charY + -10);
+				g.drawLine(drawX + 4, drawY + -10, drawX + 5, drawY + -10);
 			}
 
 			//draw no-collision rectangles and ovals that go in front of the character
 			for (int i = 0; i < shapeCount; i++){
 
-				/*
-				 * read each color from the file, and call a method that 
-				 * corrects any colors that are outside of the range 0 to 255
-				 * (no colors should be outside of that range, but if for some
-				 * reason they are, the game will correct them and will still 
-				 * run).
-				 */
-				red = fixColorRange(readNum(i, 6));
-				green = fixColorRange(green = readNum(i, 7));
-				blue = fixColorRange(readNum(i, 8));
-
 				//draw no-collision, in-front-of-character rectangles
 				if(readNum(i, 4) == 2){
-					g.setColor(new Color(red, green, blue));
+					g.setColor(shapeColors[i]);
 					g.fillRect(readNum(i, 0), readNum(i, 1), readNum(i, 2), readNum(i, 3));
 				}
 				//draw no-collision, in-front-of-character ovals
 				if(readNum(i,4) == 4){
-					g.setColor(new Color(red, green, blue));
+					g.setColor(shapeColors[i]);
 					g.fillOval(readNum(i, 0), readNum(i, 1), readNum(i, 2), readNum(i, 3));
 				}
 			}
@@ -305,6 +320,20 @@ public class GameWindow extends JFrame {
 	 */
 	public void setShapeData(int[][] data){
 		shapeData = data;
+		//look up each shape's color once here, instead of on every repaint
+		shapeColors = new Color[data.length];
+		for (int i = 0; i < data.length; i++){
+			if (data[i] == null){
+				continue; //past the shape count
+			}
+			int rgb = (panel.fixColorRange(data[i][6]) << 16) | (panel.fixColorRange(data[i][7]) << 8) | panel.fixColorRange(data[i][8]);
+			Color color = palette.get(rgb);
+			if (color == null){
+				color = new Color(rgb);
+				palette.put(rgb, color);
+			}
+			shapeColors[i] = color;
+		}
 	}
 	
 	/**
@@ -340,19 +369,90 @@ public class GameWindow extends JFrame {
 	}
 	
 	/**
-	 * Set the x position of the character, as it is to be drawn
+	 * Set the x position of the character, as it is to be drawn.
+	 * The sprite jumps straight there, without sliding.
 	 * @param val int: the character's x position, as it is to be drawn
 	 */
 	public void setCharX(int val){
 		charX = val;
+		prevCharX = val;
 	}
 	
 	/**
-	 * Set the y position of the character, as it is to be drawn
+	 * Set the y position of the character, as it is to be drawn.
+	 * The sprite jumps straight there, without sliding.
 	 * @param val int: the character's y position, as it is to be drawn
 	 */
 	public void setCharY(int val){
 		charY = val;
+		prevCharY = val;
+	}
+
+	/**
+	 * Move the character to a new position. If interpolation is on, the sprite
+	 * slides there from wherever it is currently drawn, taking as long as the 
+	 * time that passed since the last move (so that it arrives right around when 
+	 * the next move happens).
+	 * @param x int: the character's new x position
+	 * @param y int: the character's new y position
+	 */
+	public void setCharPosition(int x, int y){
+		long now = System.nanoTime();
+		int fromX = getDrawX(now);
+		int fromY = getDrawY(now);
+		slideTime = Math.min(now - stateTime, MAX_SLIDE_TIME);
+		stateTime = now;
+		charX = x;
+		charY = y;
+		if (!INTERPOLATE || Math.abs(x - fromX) > SNAP_DISTANCE || Math.abs(y - fromY) > SNAP_DISTANCE){
+			prevCharX = x;
+			prevCharY = y;
+		} else {
+			prevCharX = fromX;
+			prevCharY = fromY;
+			renderTimer.start();
+		}
+	}
+
+	/**
+	 * Stop any slide in progress, so the sprite is drawn exactly where the
+	 * character is. Used after warps and map changes.
+	 */
+	public void snapChar(){
+		prevCharX = charX;
+		prevCharY = charY;
+	}
+
+	/**
+	 * How far along the current slide is the sprite?
+	 * @param now the current time, from System.nanoTime()
+	 * @return double: 0 at the start of the slide, 1 (or more) once the sprite has arrived
+	 */
+	private double getSlideProgress(long now){
+		if (slideTime <= 0){
+			return 1;
+		}
+		return (double) (now - stateTime) / slideTime;
+	}
+
+	/**
+	 * Get the x position to draw the sprite at, partway through the current slide
+	 * @param now the current time, from System.nanoTime()
+	 * @return int: the x position to draw at
+	 */
+	private int getDrawX(long now){
+		double progress = Math.min(1, getSlideProgress(now));
+		return prevCharX + (int) Math.round((charX - prevCharX) * progress);
+	}
+
+	/**
+	 * Get the y position to draw the sprite at, partway through the current slide
+	 * @param now the current time, from System.nanoTime()
+	 * @return int: the y position to draw at
+	 */
+	private int getDrawY(long now){
+		double progress = Math.min(1, getSlideProgress(now));
+		return prevCharY + (int) Math.round((charY - prevCharY) * progress);
 	}
 	
 	/**
@@ -363,6 +463,14 @@ public class GameWindow extends JFrame {
 		shapeCount = val;
 	}
 	
+	/**
+	 * Set the NPCs to draw
+	 * @param npcs the NPCs on the current map
+	 */
+	public void setNpcs(NpcPool npcs){
+		this.npcs = npcs;
+	}
+
 	/**
 	 * Set which step of the walk animation the player is currently on, for drawing purposes
 	 * @param val int: which step of the walking animation the character is on
@@ -385,70 +493,4 @@ public class GameWindow extends JFrame {
 	public int getFrameWidth(){
 		return frameWidth;
 	}
-	
-	/**
-	 * Since Java does not support double inheritance and the GameWindow already extends 
-	 * JFrame, this class extends Observable and notifies the main GameState class whenever a
-	 * key is pressed or released.  The direction 'n' represents no direction being pressed,
-	 * u represents up, d represents down, l represents left, and r represents right.
-	 * @author adamcogen
-	 *
-	 */
-	public class KeyPressNotifier extends Observable {
-		
-		private char currentDirection; //what was the most recent key event sent to the KeyPressNotifier?
-		
-		/**
-		 * Initialize the KeyPressNotifier. 'n' represents a key release, so this is an appropriate value
-		 * to initialize the currentDirection field with.
-		 */
-		public KeyPressNotifier(){
-			currentDirection = 'n';
-		}
-		
-		/**
-		 * This is the method that is called when a key press or release happens within the GameWindow.
-		 * This is where observers of the KeyPressNotifier are notified. This method passes
-		 * information about which key was pressed or released as a parameter to the observer (the SGame
-		 * class), where it can be processed.
-		 * @param char: the direction that was pressed within the GameWindow. 
-		 */
-		public void keyPressChange(char dir){
-			if (dir == 'l'){ //left arrow pressed
-				currentDirection = 'l';
-			} else if (dir == 'r'){ //right arrow pressed
-				currentDirection = 'r';
-			} else if (dir == 'u'){ //up arrow pressed
-				currentDirection = 'u';
-			} else if (dir == 'd'){ //down arrow pressed
-				currentDirection = 'd';
-			} else if (dir == 's'){ //shift key pressed
-				currentDirection = 's';
-			} else if (dir == 'n'){ //no key pressed, or key released (NOT CURRENTLY IMPLEMENTED)
-				currentDirection = 'n';
-			} else if (dir == '0'){ //left arrow released
-				currentDirection = '0';
-			} else if (dir == '1'){ //up arrow released
-				currentDirection = '1';
-			} else if (dir == '2'){ //right arrow released 
-				currentDirection = '2';
-			} else if (dir == '3'){ //down arrow released
-				currentDirection = '3';
-			} else if (dir == '4'){ //shift key released
-				currentDirection = '4';
-			}
-			setChanged();
-			notifyObservers(currentDirection);
-			//System.out.println("ya");
-		}
-		
-		/**
-		 * Pass in an SGame, which will act as the observer for the KeyPressNotifier.
-		 * @param game The SGame that will act as an observer and will process and act on key presses.
-		 */
-		public void setGame(GameState game){
-			addObserver(game);
-		}
-
-	}
 }
@@ -0,0 +1,138 @@
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A fixed-size ring buffer of key events, passed from the GameWindow
+ * (which detects key presses on the AWT event thread) to the GameState
+ * (which processes them once per tick, on whatever thread ticks the game).
+ *
+ * Each event is just two numbers: a key code (see GameState.KEY_LEFT etc.,
+ * plus KEY_PRESSED for presses) and the time the key event happened.
+ * There must only ever be one thread calling offer() and one thread
+ * calling poll(). With that rule, no locks are needed, and offering or
+ * polling an event never creates any new objects.
+ *
+ * If the ring is full, a key press is dropped, but a key release never is:
+ * it is remembered in a bitmask instead, and handed out once the events
+ * already in the ring have been polled, so a key can't get stuck held down.
+ *
+ * @version Version 1.4
+ */
+public class KeyEventRing {
+	public static final int KEY_PRESSED = 0x100; //added to a key code to mean the key was pressed. key codes without it mean the key was released
+	private static final int DEFAULT_CAPACITY = 64; //how many events fit in the ring by default. nobody can press 64 keys in one tick
+	private int[] codes; //the key code of each event
+	private long[] times; //the time (in milliseconds, from KeyEvent.getWhen()) of each event
+	private int mask; //capacity - 1, used to wrap indices around the ring (capacity is always a power of two)
+	private AtomicLong head = new AtomicLong(); //how many events have been polled so far. only changed by the consumer
+	private AtomicLong tail = new AtomicLong(); //how many events have been offered so far. only changed by the producer
+	private long cachedHead; //the producer's last known value of head, so it doesn't need to read the atomic on every offer
+	private long lastPolledTime; //the time of the event that was most recently polled
+	private long dropped; //how many events were thrown away because the ring was full
+	private AtomicInteger pendingReleases = new AtomicInteger(); //one bit for each key (bit 0 is key code 0) whose release didn't fit in the ring
+	private volatile long pendingReleaseTime; //the time of the most recent release that didn't fit in the ring
+	private int releasing; //pending releases the consumer has taken, and is handing out one at a time. only used by the consumer
+
+	/**
+	 * Create a ring with the default capacity.
+	 */
+	public KeyEventRing(){
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Create a ring that can hold the specified number of events.
+	 * @param capacity the number of events the ring can hold. rounded up to a power of two.
+	 */
+	public KeyEventRing(int capacity){
+		int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+		codes = new int[size];
+		times = new long[size];
+		mask = size - 1;
+	}
+
+	/**
+	 * Add an event to the ring. Only call this from the producer thread.
+	 * If the ring is full, a key press is dropped, and a key release is kept as a pending release.
+	 * @param code the key code, plus KEY_PRESSED if the key was pressed
+	 * @param time when the key event happened, in milliseconds
+	 * @return true if the event was added, false if the ring was full
+	 */
+	public boolean offer(int code, long time){
+		long t = tail.get();
+		if (t - cachedHead > mask){
+			cachedHead = head.get();
+			if (t - cachedHead > mask){
+				dropped++;
+				if ((code & KEY_PRESSED) == 0 && code >= 0 && code < 32){
+					pendingReleaseTime = time;
+					int bit = 1 << code;
+					int bits;
+					do {
+						bits = pendingReleases.get();
+					} while ((bits & bit) == 0 && !pendingReleases.compareAndSet(bits, bits | bit));
+				}
+				return false;
+			}
+		}
+		if ((code & KEY_PRESSED) != 0 && code - KEY_PRESSED < 32){
+			//the key was pressed again after its release was kept, so the release is out of date.
+			//this happens before the press is published, so the release can't be handed out after the press
+			//a plain read first, so a press only pays for an atomic update when a release is pending
+			int bit = 1 << (code - KEY_PRESSED);
+			int bits;
+			do {
+				bits = pendingReleases.get();
+			} while ((bits & bit) != 0 && !pendingReleases.compareAndSet(bits, bits & ~bit));
+		}
+		int index = (int) (t & mask);
+		codes[index] = code;
+		times[index] = time;
+		tail.lazySet(t + 1); //publishes the event to the consumer
+		return true;
+	}
+
+	/**
+	 * Take the oldest event out of the ring. Only call this from the consumer thread.
+	 * The time of the event can then be read with getLastPolledTime().
+	 * Once the ring is empty, any pending releases are handed out, one key at a time.
+	 * @return the key code of the event, or -1 if the ring is empty
+	 */
+	public int poll(){
+		long h = head.get();
+		if (h >= tail.get()){
+			if (releasing == 0){
+				releasing = pendingReleases.getAndSet(0);
+				if (releasing == 0){
+					return -1;
+				}
+			}
+			int code = Integer.numberOfTrailingZeros(releasing);
+			releasing &= releasing - 1; //clear the lowest bit
+			lastPolledTime = pendingReleaseTime;
+			return code;
+		}
+		int index = (int) (h & mask);
+		int code = codes[index];
+		lastPolledTime = times[index];
+		head.lazySet(h + 1); //gives the slot back to the producer
+		return code;
+	}
+
+	/**
+	 * Return the time of the event that was most recently polled.
+	 * @return long: the event time in milliseconds
+	 */
+	public long getLastPolledTime(){
+		return lastPolledTime;
+	}
+
+	/**
+	 * Return how many events didn't fit in the ring (releases among them were kept as pending releases).
+	 * Only meaningful on the producer thread.
+	 * @return long: the number of dropped events
+	 */
+	public long getDropped(){
+		return dropped;
+	}
+}
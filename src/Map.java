@@ -1,3 +1,5 @@
+import java.util.Arrays;
+
 
 /**
  * 
@@ -25,6 +27,19 @@ public class Map {
 	//private String mapFile; //the map number converted into a file name, e.g. 1 turns into 001.txt, 20 turns into 020.txt
 	private int warpCount; //how many warps are there within the map?
 	private int[][] warpList; //a list storing in-map-warps. each warp has a map number, an x value, and a  y value,
+	private int frameWidth; //the width of the map, used to check when the player has walked off the edge
+	private int frameHeight; //the height of the map, used to check when the player has walked off the edge
+	public static final int CHUNK_RADIUS = 1; //for a map streamed in chunks, how many chunks in each direction around the player's chunk are kept loaded
+	public static final int MAX_LOADED_CHUNKS = 16; //for a map streamed in chunks, the most chunks loaded at once. at least (CHUNK_RADIUS * 2 + 1) squared
+	private MapChunks chunks; //the chunk file, if this map is streamed in chunks (see streamChunks()), or null if every shape is loaded
+	private int[] shapeNumbers; //for a map streamed in chunks, each loaded shape's number in the whole map
+	private int centerChunk = -1; //for a map streamed in chunks, the chunk the player was in the last time streamChunks() was called
+	private int[] slotChunk; //for a map streamed in chunks, the chunk loaded in each slot, or -1 for an empty slot
+	private int[][] slotNumbers; //for a map streamed in chunks, the shape numbers of the chunk in each slot
+	private int[][][] slotShapes; //for a map streamed in chunks, the shapes of the chunk in each slot
+	private long[] slotUsed; //for a map streamed in chunks, when the chunk in each slot was last needed (see chunkMoves)
+	private long chunkMoves; //for a map streamed in chunks, how many times the player has moved into a different chunk
+	private long chunksRead; //for a map streamed in chunks, how many chunks have been read from the file
 
 	/**
 	 * Create a new sMap class by initializing the map number.
@@ -33,6 +48,191 @@ public class Map {
 	public Map(int mapNumber){
 		map = mapNumber;
 	}
+	/**
+	 * Return the map number of the loaded map.
+	 * @return int: the map number
+	 */
+	public int getMapNumber(){
+		return map;
+	}
+	/**
+	 * Make this map be streamed from a chunk file: only the chunks around the player
+	 * are loaded, by streamChunks(). Everything but the shapes is read from the chunk file.
+	 * A map streamed in chunks follows one player, so each game uses its own copy (see createView()).
+	 * @param chunks the opened chunk file
+	 */
+	public void setChunks(MapChunks chunks){
+		this.chunks = chunks;
+		frameWidth = chunks.getFrameWidth();
+		frameHeight = chunks.getFrameHeight();
+		spawnX = chunks.getSpawnX();
+		spawnY = chunks.getSpawnY();
+		edgeWarpLeft = chunks.getEdgeWarp(0);
+		edgeWarpRight = chunks.getEdgeWarp(1);
+		edgeWarpUp = chunks.getEdgeWarp(2);
+		edgeWarpDown = chunks.getEdgeWarp(3);
+		warpList = chunks.getWarpList();
+		warpCount = warpList.length;
+		shapeData = new int[0][];
+		shapeCount = 0;
+		shapeNumbers = new int[0];
+		centerChunk = -1;
+		slotChunk = new int[MAX_LOADED_CHUNKS];
+		Arrays.fill(slotChunk, -1);
+		slotNumbers = new int[MAX_LOADED_CHUNKS][];
+		slotShapes = new int[MAX_LOADED_CHUNKS][][];
+		slotUsed = new long[MAX_LOADED_CHUNKS];
+	}
+
+	/**
+	 * Return a copy of this map for one game to use. A map streamed in chunks
+	 * loads the chunks around one player, so every game needs its own copy (which
+	 * shares the chunk file). Any other map is never changed, so it is returned as is.
+	 * @return Map: a copy with no chunks loaded yet, or this map if it isn't streamed in chunks
+	 */
+	public Map createView(){
+		if (chunks == null){
+			return this;
+		}
+		Map view = new Map(map);
+		view.setChunks(chunks);
+		return view;
+	}
+
+	/**
+	 * Is this map streamed in chunks?
+	 * @return boolean: true if only the chunks around the player are loaded
+	 */
+	public boolean isChunked(){
+		return chunks != null;
+	}
+
+	/**
+	 * For a map streamed in chunks, make sure the chunks around a position are loaded.
+	 * Nothing is done unless the position is in a different chunk than last time, so
+	 * this is cheap to call every tick. When too many chunks are loaded, the ones that
+	 * were needed least recently are forgotten.
+	 * @param x the player's x position
+	 * @param y the player's y position
+	 * @return boolean: true if the loaded shapes changed (the map needs to be drawn again)
+	 */
+	public boolean streamChunks(int x, int y){
+		if (chunks == null){
+			return false;
+		}
+		int center = chunks.getChunk(x, y);
+		if (center == centerChunk){
+			return false;
+		}
+		centerChunk = center;
+		chunkMoves++;
+		int column = chunks.getColumn(x);
+		int row = chunks.getRow(y);
+		boolean changed = false;
+		for (int r = Math.max(0, row - CHUNK_RADIUS); r <= Math.min(chunks.getChunksDown() - 1, row + CHUNK_RADIUS); r++){
+			for (int c = Math.max(0, column - CHUNK_RADIUS); c <= Math.min(chunks.getChunksAcross() - 1, column + CHUNK_RADIUS); c++){
+				changed |= loadChunk(r * chunks.getChunksAcross() + c);
+			}
+		}
+		if (changed){
+			mergeChunks();
+		}
+		return changed;
+	}
+
+	/**
+	 * Load a chunk into a slot, unless it is already loaded. If every slot is full,
+	 * the chunk needed least recently is replaced (never one needed for this move).
+	 * @return boolean: true if the chunk had to be read
+	 */
+	private boolean loadChunk(int chunk){
+		int slot = -1;
+		for (int i = 0; i < MAX_LOADED_CHUNKS; i++){
+			if (slotChunk[i] == chunk){
+				slotUsed[i] = chunkMoves;
+				return false;
+			}
+			if (slot == -1 || slotChunk[i] == -1 || (slotChunk[slot] != -1 && slotUsed[i] < slotUsed[slot])){
+				slot = i;
+			}
+		}
+		int count = chunks.getShapeCount(chunk);
+		slotChunk[slot] = chunk;
+		slotUsed[slot] = chunkMoves;
+		slotNumbers[slot] = new int[count];
+		slotShapes[slot] = new int[count][9];
+		chunks.readChunk(chunk, slotNumbers[slot], slotShapes[slot]);
+		chunksRead++;
+		return true;
+	}
+
+	/**
+	 * Put the shapes of every loaded chunk into shapeData, in the same order as in the
+	 * whole map, leaving out the copies of shapes that are in more than one chunk.
+	 */
+	private void mergeChunks(){
+		int total = 0;
+		for (int i = 0; i < MAX_LOADED_CHUNKS; i++){
+			if (slotChunk[i] != -1){
+				total += slotNumbers[i].length;
+			}
+		}
+		int[][] merged = new int[total][];
+		int[] numbers = new int[total];
+		int[] next = new int[MAX_LOADED_CHUNKS]; //the next shape to take from each slot
+		int count = 0;
+		while (true){
+			//every slot's shapes are in increasing order, so take the smallest next shape each time
+			int best = -1;
+			for (int i = 0; i < MAX_LOADED_CHUNKS; i++){
+				if (slotChunk[i] != -1 && next[i] < slotNumbers[i].length
+						&& (best == -1 || slotNumbers[i][next[i]] < slotNumbers[best][next[best]])){
+					best = i;
+				}
+			}
+			if (best == -1){
+				break;
+			}
+			int number = slotNumbers[best][next[best]];
+			if (count == 0 || numbers[count - 1] != number){
+				numbers[count] = number;
+				merged[count] = slotShapes[best][next[best]];
+				count++;
+			}
+			next[best]++;
+		}
+		shapeNumbers = numbers;
+		shapeData = merged;
+		shapeCount = count;
+	}
+
+	/**
+	 * Is a position in a loaded part of the map? Always true unless the map is streamed in chunks.
+	 * @param x the x position
+	 * @param y the y position
+	 * @return boolean: true if the shapes around the position are loaded
+	 */
+	public boolean isLoaded(int x, int y){
+		if (chunks == null){
+			return true;
+		}
+		int chunk = chunks.getChunk(x, y);
+		for (int i = 0; i < MAX_LOADED_CHUNKS; i++){
+			if (slotChunk[i] == chunk){
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Return how many chunks have been read from the chunk file
+	 * @return long: the number of chunks read, or 0 if the map isn't streamed in chunks
+	 */
+	public long getChunksRead(){
+		return chunksRead;
+	}
+
 	/**
 	 * Set the shapeData array, which holds information about all shapes to be drawn.
 	 * @param data The 2-dimensional int array containing the shape info
@@ -40,6 +240,20 @@ public class Map {
 	public void setShapeData(int[][] data){
 		shapeData = data;
 	}
+	/**
+	 * Return the shapeData array, which holds information about all shapes to be drawn.
+	 * @return int[][]: the shape data
+	 */
+	public int[][] getShapeData(){
+		return shapeData;
+	}
+	/**
+	 * Return the shape count, the number of shapes in the shapeData array.
+	 * @return int: the shape count
+	 */
+	public int getShapeCount(){
+		return shapeCount;
+	}
 	/**
 	 * Set the shape count. Shape count is stored within the map file, 
 	 * and is used to read through the shape data properly.
@@ -56,6 +270,13 @@ public class Map {
 	public void setWarpCount(int val){
 		warpCount = val;
 	}
+	/**
+	 * Return the warp count, the number of in-map-warps in the warpList.
+	 * @return int: the warp count
+	 */
+	public int getWarpCount(){
+		return warpCount;
+	}
 	/**
 	 * Set the warpList array, which holds information about destinations of in-map-warps.
 	 * @param list The 2-dimensional int array containing the warp data
@@ -151,6 +372,133 @@ public class Map {
 		return true;
 	}
 
+	/**
+	 * Sweep a horizontal line of points (the bottom of the player) straight down, and
+	 * find how far it can move before the first point is inside a shape with collision.
+	 * This gives the same answer as calling getCollision() on every point, one pixel
+	 * further down at a time, but it only looks at each shape once, so the cost does not 
+	 * depend on how far the line is moving.
+	 * @param left the x value of the leftmost point on the line
+	 * @param right the x value of the rightmost point on the line
+	 * @param y the y value of the line before it moves
+	 * @param maxDistance the farthest the line will move
+	 * @return int: how many pixels the line can move down before touching a shape with
+	 * collision (0 if it is already touching one), or maxDistance if it never touches one
+	 */
+	public int distanceToGround(int left, int right, int y, int maxDistance){
+		int distance = maxDistance;
+		for (int i = 0; i < shapeCount && distance > 0; i++){
+			if (readNum(i, 4) == 1){
+				int xMin = readNum(i, 0);
+				int yMin = readNum(i, 1);
+				int xMax = xMin + readNum(i, 2);
+				int yMax = yMin + readNum(i, 3);
+				if (xMin <= xMax && yMin <= yMax && xMin <= right && xMax >= left && yMax >= y){
+					distance = Math.min(distance, Math.max(0, yMin - y));
+				}
+			}
+		}
+		return distance;
+	}
+
+	/**
+	 * Sweep the outline of a box (the player's climbability box) straight down, and find
+	 * how far it can move before any point on the outline is somewhere that getClimb() 
+	 * would return something other than 0 (anything climbable, watery, or an in-map-warp).
+	 * Like distanceToGround(), this looks at each shape once instead of checking every
+	 * point on the outline after every pixel of movement.
+	 * @param left the x value of the left side of the box
+	 * @param right the x value of the right side of the box
+	 * @param top the y value of the top of the box before it moves
+	 * @param bottom the y value of the bottom of the box before it moves
+	 * @param maxDistance the farthest the box will move
+	 * @return int: how many pixels the box can move down before touching something
+	 * climbable (0 if it is already touching something), or maxDistance if it never does
+	 */
+	public int distanceToClimb(int left, int right, int top, int bottom, int maxDistance){
+		int distance = maxDistance;
+		for (int i = 0; i < shapeCount && distance > 0; i++){
+			if (readNum(i, 5) == 0){
+				continue; //not climbable, and not a warp
+			}
+			int rectLeft = readNum(i, 0);
+			int rectRight = rectLeft + readNum(i, 2);
+			int rectTop = readNum(i, 1);
+			int rectBottom = rectTop + readNum(i, 3);
+			if (rectBottom < rectTop){
+				continue; //getClimb() can never match a shape with a negative height
+			}
+			//which parts of the outline are in the shape's climbable x range? (see getClimb())
+			boolean leftSide = isInClimbRangeX(left, rectLeft, rectRight);
+			boolean rightSide = isInClimbRangeX(right, rectLeft, rectRight);
+			boolean rows = leftSide || rightSide || (left <= rectRight && right >= rectLeft - 3) 
+					|| (rectLeft >= left && rectLeft <= right) || (rectRight >= left && rectRight <= right);
+			if (leftSide || rightSide){
+				//a side of the box is a vertical line, so it touches as soon as its bottom reaches the shape
+				if (bottom >= rectTop && top <= rectBottom){
+					distance = 0;
+				} else if (bottom < rectTop){
+					distance = Math.min(distance, rectTop - bottom);
+				}
+			} else if (rows){
+				//only the top and bottom lines of the box cross the shape, so either of them can touch first
+				distance = Math.min(distance, distanceToRange(bottom, rectTop, rectBottom));
+				distance = Math.min(distance, distanceToRange(top, rectTop, rectBottom));
+			}
+		}
+		return distance;
+	}
+
+	/**
+	 * Find every climbable, watery or in-map-warp shape (every region) that the outline
+	 * of a box (the player's climbability box) is touching, using the same rules as getClimb().
+	 * Unlike getClimb(), which only returns the first shape at a point, this finds all of them.
+	 * @param left the x value of the left side of the box
+	 * @param right the x value of the right side of the box
+	 * @param top the y value of the top of the box
+	 * @param bottom the y value of the bottom of the box
+	 * @param regions filled in with the shape numbers of the regions, in increasing order.
+	 * if there are more regions than fit, the rest are left out
+	 * @return int: how many regions were put in the array
+	 */
+	public int getRegions(int left, int right, int top, int bottom, int[] regions){
+		int count = 0;
+		for (int i = 0; i < shapeCount && count < regions.length; i++){
+			if (readNum(i, 5) == 0){
+				continue; //not a region
+			}
+			int rectLeft = readNum(i, 0);
+			int rectRight = rectLeft + readNum(i, 2);
+			int rectTop = readNum(i, 1);
+			int rectBottom = rectTop + readNum(i, 3);
+			boolean sides = isInClimbRangeX(left, rectLeft, rectRight) || isInClimbRangeX(right, rectLeft, rectRight);
+			boolean rows = left <= rectRight && right >= rectLeft - 3;
+			if ((sides && bottom >= rectTop && top <= rectBottom) 
+					|| (rows && ((top >= rectTop && top <= rectBottom) || (bottom >= rectTop && bottom <= rectBottom)))){
+				regions[count++] = shapeNumbers == null ? i : shapeNumbers[i]; //a streamed map uses the number in the whole map, which doesn't change when chunks load
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Does getClimb() consider the specified x value to be within the specified shape's x range?
+	 */
+	private boolean isInClimbRangeX(int x, int rectLeft, int rectRight){
+		return x == rectLeft || x == rectRight || (x >= rectLeft - 3 && x <= rectRight);
+	}
+
+	/**
+	 * How far does y have to move down to be between min and max (inclusive)?
+	 * @return int: the distance, or Integer.MAX_VALUE if moving down never gets there
+	 */
+	private int distanceToRange(int y, int min, int max){
+		if (y > max){
+			return Integer.MAX_VALUE;
+		}
+		return Math.max(0, min - y);
+	}
+
 	/**
 	 * Return the map number of the edge warp on the left side of the map.
 	 * @return int: map number of left edge warp
@@ -219,6 +567,64 @@ public class Map {
 		edgeWarpDown = edgeWarpD;
 	}
 	
+	/**
+	 * Set the width of the map, as read from the map file.
+	 * @param width int: the width of the map
+	 */
+	public void setFrameWidth(int width){
+		frameWidth = width;
+	}
+
+	/**
+	 * Set the height of the map, as read from the map file.
+	 * @param height int: the height of the map
+	 */
+	public void setFrameHeight(int height){
+		frameHeight = height;
+	}
+
+	/**
+	 * Return the width of the map, for edge-warp detection purposes
+	 * @return int: the width of the map
+	 */
+	public int getFrameWidth(){
+		return frameWidth;
+	}
+
+	/**
+	 * Return the height of the map, for edge-warp detection purposes
+	 * @return int: the height of the map
+	 */
+	public int getFrameHeight(){
+		return frameHeight;
+	}
+
+	/**
+	 * Set the spawn point of the map, as read from the map file.
+	 * @param x int: the x value of the spawn point
+	 * @param y int: the y value of the spawn point
+	 */
+	public void setSpawn(int x, int y){
+		spawnX = x;
+		spawnY = y;
+	}
+
+	/**
+	 * Return the x value of the spawn point
+	 * @return int: the x value of the spawn point
+	 */
+	public int getSpawnX(){
+		return spawnX;
+	}
+
+	/**
+	 * Return the y value of the spawn point
+	 * @return int: the y value of the spawn point
+	 */
+	public int getSpawnY(){
+		return spawnY;
+	}
+
 	/**
 	 * Return the specified value at the specified warp number within the
 	 * warpList. This will be called to perform in-map-warps. 
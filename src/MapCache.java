@@ -0,0 +1,218 @@
+import java.util.LinkedHashMap;
+import java.util.function.IntFunction;
+
+/**
+ * Keeps the most recently used maps loaded, so going back to a map that was
+ * just visited (for example walking back and forth across an edge warp) finds
+ * the already loaded Map with one hash lookup, instead of reading the map file again.
+ *
+ * The cache holds up to a fixed number of maps. When it is full, the map that
+ * was used least recently is forgotten. A loaded Map is never changed by a game,
+ * so every game can be given the same copy. Games keep their own reference to
+ * the map they are on, so forgetting a map never takes it away from a game.
+ *
+ * The cache can be used from any thread. Maps are loaded outside of the lock, so a
+ * slow load doesn't hold up other threads. If two threads load the same map at
+ * once, the first one to finish is kept, and both get that copy.
+ *
+ * When a map file changes, replace() puts the new version in the cache. Games
+ * using the cache notice (see getGeneration()) and switch to the new version
+ * at the start of their next tick.
+ *
+ * GameState uses the shared cache (getShared()) unless it is given its own map source.
+ *
+ * @version Version 1.4
+ */
+public class MapCache implements IntFunction<Map> {
+	public static final int DEFAULT_CAPACITY = 16; //how many maps the shared cache holds
+	public static final int UNLIMITED = Integer.MAX_VALUE; //a capacity that never forgets a map, for when every game on a map must share one copy
+	private static final MapCache SHARED = new MapCache(DEFAULT_CAPACITY); //the cache used by every GameState that doesn't have its own map source
+	private LinkedHashMap<Integer, Map> maps; //the loaded maps by map number, least recently used first. only used while holding the lock on this cache
+	private int capacity; //the most maps the cache holds
+	private long hits; //how many times a map was already loaded
+	private long misses; //how many times a map had to be loaded
+	private long evictions; //how many maps were forgotten to make room
+	private volatile long generation; //goes up by one every time replace() changes a map, so games can notice without taking the lock
+
+	/**
+	 * Create an empty cache.
+	 * @param capacity the most maps the cache holds at once (at least 1), or UNLIMITED
+	 */
+	public MapCache(int capacity){
+		if (capacity < 1){
+			throw new IllegalArgumentException("a map cache must hold at least one map");
+		}
+		this.capacity = capacity;
+		maps = new LinkedHashMap<Integer, Map>(Math.min(capacity, DEFAULT_CAPACITY) * 2, 0.75f, true);
+	}
+
+	/**
+	 * Return the cache used by every GameState that doesn't have its own map source
+	 * @return MapCache: the shared cache
+	 */
+	public static MapCache getShared(){
+		return SHARED;
+	}
+
+	/**
+	 * Return a map, loading it with GameState.loadMap() if it isn't in the cache.
+	 * @param mapNumber the map number
+	 * @return Map: the loaded map
+	 */
+	public Map get(int mapNumber){
+		synchronized (this){
+			Map loaded = maps.get(mapNumber);
+			if (loaded != null){
+				hits++;
+				return loaded;
+			}
+			misses++;
+		}
+		return put(mapNumber, GameState.loadMap(mapNumber));
+	}
+
+	/**
+	 * Same as get(), so a cache can be used as a GameState's map source.
+	 */
+	@Override
+	public Map apply(int mapNumber){
+		return get(mapNumber);
+	}
+
+	/**
+	 * Return a map only if it is already in the cache. This doesn't count as a hit or a miss.
+	 * @param mapNumber the map number
+	 * @return Map: the loaded map, or null if it isn't in the cache
+	 */
+	public synchronized Map peek(int mapNumber){
+		return maps.get(mapNumber);
+	}
+
+	/**
+	 * Add a loaded map to the cache, unless another thread already added it.
+	 * @param mapNumber the map number
+	 * @param loaded the loaded map
+	 * @return Map: the map that is in the cache now (loaded, or the one that was already there)
+	 */
+	public synchronized Map put(int mapNumber, Map loaded){
+		Map existing = maps.get(mapNumber);
+		if (existing != null){
+			return existing;
+		}
+		maps.put(mapNumber, loaded);
+		evictIfFull();
+		return loaded;
+	}
+
+	/**
+	 * Put a new version of a map in the cache, in place of the old one, and tell the games using the cache.
+	 * @param loaded the new version of the map
+	 */
+	public synchronized void replace(Map loaded){
+		maps.put(loaded.getMapNumber(), loaded);
+		evictIfFull();
+		generation++;
+	}
+
+	/**
+	 * Read a map again and replace() it, but only if it is in the cache. Maps that
+	 * aren't in the cache will be read fresh anyway the next time they are needed.
+	 * @param mapNumber the map number
+	 * @return boolean: true if the map was in the cache and was read again
+	 */
+	public boolean reload(int mapNumber){
+		if (peek(mapNumber) == null){
+			return false;
+		}
+		replace(GameState.loadMap(mapNumber));
+		return true;
+	}
+
+	/**
+	 * If there are more maps than the cache holds, forget the least recently used one. Only called while holding the lock.
+	 */
+	private void evictIfFull(){
+		if (maps.size() > capacity){
+			Integer eldest = maps.keySet().iterator().next();
+			maps.remove(eldest);
+			evictions++;
+		}
+	}
+
+	/**
+	 * Return how many times replace() has been called. Games check this once per tick,
+	 * and only look for a new version of their map when it changes.
+	 * @return long: the generation
+	 */
+	public long getGeneration(){
+		return generation;
+	}
+
+	/**
+	 * Return the numbers of every map in the cache
+	 * @return int[]: the map numbers, least recently used first
+	 */
+	public synchronized int[] getMapNumbers(){
+		int[] numbers = new int[maps.size()];
+		int i = 0;
+		for (Integer number : maps.keySet()){
+			numbers[i++] = number;
+		}
+		return numbers;
+	}
+
+	/**
+	 * Forget a map, so it is read again the next time it is asked for.
+	 * @param mapNumber the map number
+	 */
+	public synchronized void remove(int mapNumber){
+		maps.remove(mapNumber);
+	}
+
+	/**
+	 * Forget every map.
+	 */
+	public synchronized void clear(){
+		maps.clear();
+	}
+
+	/**
+	 * Return how many maps are in the cache
+	 * @return int: the number of maps
+	 */
+	public synchronized int size(){
+		return maps.size();
+	}
+
+	/**
+	 * Return the most maps the cache holds
+	 * @return int: the capacity
+	 */
+	public int getCapacity(){
+		return capacity;
+	}
+
+	/**
+	 * Return how many times get() found the map already loaded
+	 * @return long: the number of hits
+	 */
+	public synchronized long getHits(){
+		return hits;
+	}
+
+	/**
+	 * Return how many times get() had to load the map
+	 * @return long: the number of misses
+	 */
+	public synchronized long getMisses(){
+		return misses;
+	}
+
+	/**
+	 * Return how many maps were forgotten to make room for other maps
+	 * @return long: the number of evictions
+	 */
+	public synchronized long getEvictions(){
+		return evictions;
+	}
+}
@@ -0,0 +1,345 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A huge map split into square chunks, so it can be played without loading
+ * every shape. Only the chunks around the player are loaded (see
+ * Map.streamChunks()), so the game can start as soon as the chunks around the
+ * spawn point are read, and memory use stays the same no matter how big the map is.
+ *
+ * The chunk file is memory mapped when it is opened, and nothing else is read
+ * until a chunk is asked for. A chunk holds every shape that touches it, so a
+ * shape that crosses a chunk border is stored in every chunk it touches. Each
+ * shape is stored with its number in the whole map, so shapes from different
+ * chunks can be put back in the same order as in the map file (the order
+ * matters for which shape is checked first, and which is drawn on top).
+ *
+ * Chunk files are made from a map with write(), which is what
+ * "java MapCompiler -chunks size" does for every map (DEFAULT_CHUNK_SIZE is
+ * a good size), and used instead of the map file when they are newer
+ * (see GameState.loadMap()). Opened chunk files are
+ * never changed, so they can be shared by every game on the map.
+ *
+ * Chunk file format (little-endian): int CHUNK_MAGIC, int CHUNK_VERSION, int width,
+ * int height, int spawn x, int spawn y, int left, right, up and down edge warps,
+ * int shape count, int warp count, int chunk size, int chunks across, int chunks down,
+ * then 3 ints for each warp, then for each chunk (row by row): int offset of the
+ * chunk's shapes (in ints, from the start of the file), int number of shapes in the chunk.
+ * Then the chunks' shapes, each one as int shape number then its 9 ints.
+ *
+ * @version Version 1.4
+ */
+public class MapChunks {
+	public static final int CHUNK_MAGIC = 0x48434D4C; //"LMCH" (little-endian), the first four bytes of every chunk file
+	public static final int CHUNK_VERSION = 1; //the version of the chunk file format
+	public static final int DEFAULT_CHUNK_SIZE = 256; //how wide and tall each chunk is, in pixels
+	private static final int HEADER_INTS = 15; //how many ints come before the warps
+	private static final int SHAPE_INTS = 10; //how many ints each shape takes in a chunk: its number, then its 9 values
+	private static final int CLIMB_REACH = 3; //how far left of a shape getClimb() still finds it, so the shape must be in the chunk there too
+	private Path path; //where the chunk file is
+	private IntBuffer data; //the whole file, memory mapped. only ever read with absolute gets, so games can share it
+	private int frameWidth; //the width of the map
+	private int frameHeight; //the height of the map
+	private int spawnX; //the x position of the spawn point
+	private int spawnY; //the y position of the spawn point
+	private int[] edgeWarps = new int[4]; //the left, right, up and down edge warps
+	private int shapeCount; //how many shapes are in the whole map
+	private int[][] warpList; //the in-map-warps, which are small enough to always be loaded
+	private int chunkSize; //how wide and tall each chunk is
+	private int chunksAcross; //how many chunks there are in each row
+	private int chunksDown; //how many rows of chunks there are
+	private int indexStart; //where the chunk index starts in the file, in ints
+
+	/**
+	 * Open a chunk file, and read everything but the chunks.
+	 * @param path the chunk file
+	 * @throws IOException if the file can't be read, or isn't a chunk file
+	 */
+	public MapChunks(Path path) throws IOException {
+		this.path = path;
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)){
+			long size = channel.size();
+			if (size < HEADER_INTS * 4 || size % 4 != 0 || size > Integer.MAX_VALUE){
+				throw new IOException(path + " is not a chunk file");
+			}
+			data = channel.map(FileChannel.MapMode.READ_ONLY, 0, size).order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+		}
+		if (data.get(0) != CHUNK_MAGIC){
+			throw new IOException(path + " is not a chunk file");
+		}
+		if (data.get(1) != CHUNK_VERSION){
+			throw new IOException(path + " is version " + data.get(1) + ", but only version " + CHUNK_VERSION + " can be read");
+		}
+		frameWidth = data.get(2);
+		frameHeight = data.get(3);
+		spawnX = data.get(4);
+		spawnY = data.get(5);
+		for (int i = 0; i < 4; i++){
+			edgeWarps[i] = data.get(6 + i);
+		}
+		shapeCount = data.get(10);
+		int warpCount = data.get(11);
+		chunkSize = data.get(12);
+		chunksAcross = data.get(13);
+		chunksDown = data.get(14);
+		indexStart = HEADER_INTS + warpCount * 3;
+		if (warpCount < 0 || shapeCount < 0 || chunkSize < 1 || chunksAcross < 1 || chunksDown < 1
+				|| indexStart + 2L * chunksAcross * chunksDown > data.capacity()){
+			throw new IOException(path + " has a broken header");
+		}
+		warpList = new int[warpCount][3];
+		for (int i = 0; i < warpCount; i++){
+			for (int j = 0; j < 3; j++){
+				warpList[i][j] = data.get(HEADER_INTS + i * 3 + j);
+			}
+		}
+		for (int chunk = 0; chunk < getChunkCount(); chunk++){
+			long end = (long) getOffset(chunk) + (long) getShapeCount(chunk) * SHAPE_INTS;
+			if (getOffset(chunk) < 0 || getShapeCount(chunk) < 0 || end > data.capacity()){
+				throw new IOException(path + " has a broken index entry for chunk " + chunk);
+			}
+		}
+	}
+
+	/**
+	 * Return where the chunk file for a map is
+	 * @param mapNumber the map number
+	 * @return Path: maps/(map number).chunks
+	 */
+	public static Path getPath(int mapNumber){
+		return Paths.get("maps", mapNumber + ".chunks");
+	}
+
+	/**
+	 * Return which chunk a point is in. Points off the map are put in the nearest chunk.
+	 * @param x the x position
+	 * @param y the y position
+	 * @return int: the chunk number (row * chunks across + column)
+	 */
+	public int getChunk(int x, int y){
+		return getRow(y) * chunksAcross + getColumn(x);
+	}
+
+	/**
+	 * Return which column of chunks an x position is in, or the nearest one if it is off the map.
+	 * @param x the x position
+	 * @return int: the column
+	 */
+	public int getColumn(int x){
+		return Math.max(0, Math.min(chunksAcross - 1, Math.floorDiv(x, chunkSize)));
+	}
+
+	/**
+	 * Return which row of chunks a y position is in, or the nearest one if it is off the map.
+	 * @param y the y position
+	 * @return int: the row
+	 */
+	public int getRow(int y){
+		return Math.max(0, Math.min(chunksDown - 1, Math.floorDiv(y, chunkSize)));
+	}
+
+	/**
+	 * Return how many shapes are in a chunk
+	 * @param chunk the chunk number
+	 * @return int: the number of shapes
+	 */
+	public int getShapeCount(int chunk){
+		return data.get(indexStart + chunk * 2 + 1);
+	}
+
+	private int getOffset(int chunk){
+		return data.get(indexStart + chunk * 2);
+	}
+
+	/**
+	 * Read a chunk's shapes.
+	 * @param chunk the chunk number
+	 * @param numbers filled in with each shape's number in the whole map, in increasing order. must hold getShapeCount(chunk) numbers
+	 * @param shapes filled in with each shape's 9 values. must hold getShapeCount(chunk) shapes
+	 */
+	public void readChunk(int chunk, int[] numbers, int[][] shapes){
+		int offset = getOffset(chunk);
+		int count = getShapeCount(chunk);
+		for (int i = 0; i < count; i++){
+			numbers[i] = data.get(offset);
+			data.get(offset + 1, shapes[i]);
+			offset += SHAPE_INTS;
+		}
+	}
+
+	/**
+	 * Split a map into chunks, and write the chunk file.
+	 * It is written to a temporary file first, then moved into place.
+	 * @param path where to write the chunk file (usually getPath())
+	 * @param map the map, as read by MapFileReader
+	 * @param chunkSize how wide and tall each chunk is, in pixels
+	 * @throws IOException if the file can't be written
+	 */
+	public static void write(Path path, MapFileReader map, int chunkSize) throws IOException {
+		int across = Math.max(1, (map.getFrameWidth() + chunkSize - 1) / chunkSize);
+		int down = Math.max(1, (map.getFrameHeight() + chunkSize - 1) / chunkSize);
+		int[][] shapes = map.getKeptShapeData(); //numbered the same as in the binary format, whichever way the map was read
+		int shapeCount = shapes.length;
+		//count the shapes in each chunk, then put each shape in every chunk it touches
+		int[] counts = new int[across * down];
+		long total = 0;
+		for (int i = 0; i < shapeCount; i++){
+			int[] s = shapes[i];
+			for (int row = clamp(Math.floorDiv(s[1], chunkSize), down); row <= clamp(Math.floorDiv(s[1] + s[3], chunkSize), down); row++){
+				for (int column = clamp(Math.floorDiv(s[0] - CLIMB_REACH, chunkSize), across); column <= clamp(Math.floorDiv(s[0] + s[2], chunkSize), across); column++){
+					counts[row * across + column]++;
+					total++;
+				}
+			}
+		}
+		int warpCount = map.getWarpCount();
+		long ints = HEADER_INTS + warpCount * 3L + counts.length * 2L + total * SHAPE_INTS;
+		if (ints * 4 > Integer.MAX_VALUE){
+			throw new IOException("the map is too big for one chunk file. try bigger chunks");
+		}
+		ByteBuffer bytes = ByteBuffer.allocate((int) ints * 4).order(ByteOrder.LITTLE_ENDIAN);
+		IntBuffer out = bytes.asIntBuffer();
+		out.put(CHUNK_MAGIC).put(CHUNK_VERSION).put(map.getFrameWidth()).put(map.getFrameHeight());
+		out.put(map.getSpawnX()).put(map.getSpawnY());
+		out.put(map.getEdgeWarpLeft()).put(map.getEdgeWarpRight()).put(map.getEdgeWarpUp()).put(map.getEdgeWarpDown());
+		out.put(shapeCount).put(warpCount).put(chunkSize).put(across).put(down);
+		for (int i = 0; i < warpCount; i++){
+			out.put(map.getWarpList()[i]);
+		}
+		int[] next = new int[counts.length]; //where the next shape goes in each chunk
+		int offset = out.position() + counts.length * 2;
+		for (int chunk = 0; chunk < counts.length; chunk++){
+			out.put(offset).put(counts[chunk]);
+			next[chunk] = offset;
+			offset += counts[chunk] * SHAPE_INTS;
+		}
+		//shapes go in in map order, so every chunk's shapes are in increasing order
+		for (int i = 0; i < shapeCount; i++){
+			int[] s = shapes[i];
+			for (int row = clamp(Math.floorDiv(s[1], chunkSize), down); row <= clamp(Math.floorDiv(s[1] + s[3], chunkSize), down); row++){
+				for (int column = clamp(Math.floorDiv(s[0] - CLIMB_REACH, chunkSize), across); column <= clamp(Math.floorDiv(s[0] + s[2], chunkSize), across); column++){
+					int chunk = row * across + column;
+					out.put(next[chunk], i);
+					out.put(next[chunk] + 1, s);
+					next[chunk] += SHAPE_INTS;
+				}
+			}
+		}
+		Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+		try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)){
+			while (bytes.hasRemaining()){
+				channel.write(bytes);
+			}
+		}
+		Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	private static int clamp(int value, int count){
+		return Math.max(0, Math.min(count - 1, value));
+	}
+
+	/**
+	 * Return the number of chunks
+	 * @return int: chunks across times chunks down
+	 */
+	public int getChunkCount(){
+		return chunksAcross * chunksDown;
+	}
+
+	/**
+	 * Return how wide and tall each chunk is
+	 * @return int: the chunk size, in pixels
+	 */
+	public int getChunkSize(){
+		return chunkSize;
+	}
+
+	/**
+	 * Return how many chunks there are in each row
+	 * @return int: the number of columns
+	 */
+	public int getChunksAcross(){
+		return chunksAcross;
+	}
+
+	/**
+	 * Return how many rows of chunks there are
+	 * @return int: the number of rows
+	 */
+	public int getChunksDown(){
+		return chunksDown;
+	}
+
+	/**
+	 * Return how many shapes are in the whole map
+	 * @return int: the number of shapes
+	 */
+	public int getShapeCount(){
+		return shapeCount;
+	}
+
+	/**
+	 * Return the width of the map
+	 * @return int: the width
+	 */
+	public int getFrameWidth(){
+		return frameWidth;
+	}
+
+	/**
+	 * Return the height of the map
+	 * @return int: the height
+	 */
+	public int getFrameHeight(){
+		return frameHeight;
+	}
+
+	/**
+	 * Return the X position of the spawn point
+	 * @return int: X position of spawn point
+	 */
+	public int getSpawnX(){
+		return spawnX;
+	}
+
+	/**
+	 * Return the Y position of the spawn point
+	 * @return int: Y position of spawn point
+	 */
+	public int getSpawnY(){
+		return spawnY;
+	}
+
+	/**
+	 * Return an edge warp
+	 * @param side 0 = left, 1 = right, 2 = up, 3 = down
+	 * @return int: the map number the edge warp leads to
+	 */
+	public int getEdgeWarp(int side){
+		return edgeWarps[side];
+	}
+
+	/**
+	 * Return the in-map-warps. The array must not be changed.
+	 * @return int[][]: each warp's map number, x and y
+	 */
+	public int[][] getWarpList(){
+		return warpList;
+	}
+
+	/**
+	 * Return where the chunk file is
+	 * @return Path: the chunk file
+	 */
+	public Path getFile(){
+		return path;
+	}
+}
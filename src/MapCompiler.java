@@ -0,0 +1,339 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * A command line tool that checks every map in the maps folder, and compiles
+ * each one into the binary map format (see MapFileReader.writeBinary()).
+ * The maps are checked in parallel, one per processor.
+ *
+ * Each map's text file is read (never an older compiled copy), then checked:
+ * the shape and warp counts must match the data in the file, every shape's
+ * collision type and climbability must be known, every in-map-warp shape must
+ * use a warp that exists, every edge warp and in-map-warp must lead to a map
+ * that exists, and the spawn point must not be inside a solid shape. The map
+ * is also compiled in memory and read back, and the compiled copy must have the
+ * same collision, climbability and colors as the text file everywhere.
+ *
+ * The time taken for each map is printed, along with every problem found.
+ * The program exits with 1 if any map has a problem, so it can be used to stop
+ * a release with broken maps, or 0 if every map is fine.
+ *
+ * Usage: java MapCompiler [-check] [-pack] [-chunks size] [-threads n]
+ * ~   -check: only check the maps, don't write the compiled files
+ * ~   -pack: also build the map pack (see MapPack) if every map is fine
+ * ~   -chunks size: also split every map that is fine into chunks this many pixels
+ * ~       wide and tall, and write its chunk file (see MapChunks). the game streams
+ * ~       a map from its chunk file while it is newer than the map, so this is for
+ * ~       huge maps. delete the .chunks file to go back to loading the whole map
+ * ~   -threads n: how many maps to work on at once (default: the number of processors)
+ *
+ * @version Version 1.4
+ */
+public class MapCompiler {
+	private static final int MAX_COLLISION_TYPE = 5; //collision types go from 0 to this (see the notes at the end of each map file)
+	private static final int MAX_CLIMB_TYPE = 3; //climbability types go from 0 to this. 10 and above are in-map-warps
+	private int[] mapNumbers; //every map in the maps folder, in increasing order
+	private boolean write; //should the compiled files be written?
+	private int chunkSize; //how big the chunks are when maps are split into chunk files, or 0 to not write chunk files
+
+	/**
+	 * Create a compiler for every map in the maps folder.
+	 * @param write true to write the compiled files, false to only check the maps
+	 */
+	public MapCompiler(boolean write){
+		this.write = write;
+		mapNumbers = MapFileReader.listMapNumbers();
+	}
+
+	/**
+	 * Check and compile every map, using the specified number of threads.
+	 * @param threads how many maps to work on at once
+	 * @return MapReport[]: what happened to each map, in map number order
+	 * @throws InterruptedException if the thread is interrupted while waiting
+	 */
+	public MapReport[] compileAll(int threads) throws InterruptedException {
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			ArrayList<Future<MapReport>> results = new ArrayList<Future<MapReport>>();
+			for (final int mapNumber : mapNumbers){
+				results.add(executor.submit(new Callable<MapReport>(){
+					@Override
+					public MapReport call() {
+						return compile(mapNumber);
+					}
+				}));
+			}
+			MapReport[] reports = new MapReport[mapNumbers.length];
+			for (int i = 0; i < reports.length; i++){
+				try {
+					reports[i] = results.get(i).get();
+				} catch (ExecutionException e) {
+					reports[i] = new MapReport(mapNumbers[i]);
+					reports[i].problems.add("the compiler failed: " + e.getCause());
+				}
+			}
+			return reports;
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * Check and compile one map.
+	 * @param mapNumber the map number
+	 * @return MapReport: the problems found, and how long it took
+	 */
+	public MapReport compile(int mapNumber){
+		long start = System.nanoTime();
+		MapReport report = new MapReport(mapNumber);
+		MapFileReader reader = new MapFileReader(mapNumber, true);
+		if (reader.getError() != null){
+			report.problems.add(reader.getError());
+		} else {
+			check(reader, report);
+			report.shapes = reader.getShapeCount();
+			report.warps = reader.getWarpCount();
+			report.duplicates = reader.getDuplicateShapeCount();
+			if (write && report.problems.isEmpty()){
+				try {
+					reader.writeBinary(MapFileReader.getBinaryPath(mapNumber));
+				} catch (IOException ioe) {
+					report.problems.add("the compiled file could not be written: " + ioe);
+				}
+				if (chunkSize > 0){
+					try {
+						MapChunks.write(MapChunks.getPath(mapNumber), reader, chunkSize);
+					} catch (IOException ioe) {
+						report.problems.add("the chunk file could not be written: " + ioe);
+					}
+				}
+			}
+		}
+		report.nanos = System.nanoTime() - start;
+		return report;
+	}
+
+	/**
+	 * Check everything about a map that was read, and add every problem found to the report.
+	 */
+	private void check(MapFileReader reader, MapReport report){
+		if (reader.hasExtraData()){
+			report.problems.add("there is more data after the last warp. the shape count (" + reader.getShapeCount() + ") or warp count (" + reader.getWarpCount() + ") is wrong");
+		}
+		if (reader.getFrameWidth() <= 0 || reader.getFrameHeight() <= 0){
+			report.problems.add("the map size " + reader.getFrameWidth() + "x" + reader.getFrameHeight() + " is not positive");
+		}
+		int[][] shapes = reader.getRectangleData();
+		for (int i = 0; i < reader.getShapeCount(); i++){
+			int collision = shapes[i][4];
+			int climb = shapes[i][5];
+			if (collision < 0 || collision > MAX_COLLISION_TYPE){
+				report.problems.add("shape " + i + " has unknown collision type " + collision);
+			}
+			if (climb >= 10){
+				if (climb - 10 >= reader.getWarpCount()){
+					report.problems.add("shape " + i + " uses warp " + (climb - 10) + ", but the map only has " + reader.getWarpCount() + " warps");
+				}
+			} else if (climb < 0 || climb > MAX_CLIMB_TYPE){
+				report.problems.add("shape " + i + " has unknown climbability " + climb);
+			}
+		}
+		checkDestination(report, "the left edge warp", reader.getEdgeWarpLeft());
+		checkDestination(report, "the right edge warp", reader.getEdgeWarpRight());
+		checkDestination(report, "the up edge warp", reader.getEdgeWarpUp());
+		checkDestination(report, "the down edge warp", reader.getEdgeWarpDown());
+		for (int i = 0; i < reader.getWarpCount(); i++){
+			checkDestination(report, "warp " + i, reader.getWarpList()[i][0]);
+		}
+		Map map = GameState.createMap(report.mapNumber, reader);
+		if (GameState.isInsideSolid(map, reader.getSpawnX(), reader.getSpawnY())){
+			report.problems.add("the spawn point " + reader.getSpawnX() + "," + reader.getSpawnY() + " is inside a solid shape");
+		}
+		checkBinary(reader, map, report);
+	}
+
+	/**
+	 * Compile a map in memory and read it back, and add a problem to the report if
+	 * the compiled copy doesn't play or look exactly the same as the text file.
+	 * Leaving out duplicate shapes (see MapFileReader.toBinary()) must never change anything.
+	 */
+	private void checkBinary(MapFileReader reader, Map text, MapReport report){
+		MapFileReader compiled;
+		try {
+			compiled = new MapFileReader(report.mapNumber, reader.toBinary());
+		} catch (IOException ioe) {
+			report.problems.add("the compiled map could not be read back: " + ioe.getMessage());
+			return;
+		}
+		if (compiled.getFrameWidth() != reader.getFrameWidth() || compiled.getFrameHeight() != reader.getFrameHeight()
+				|| compiled.getSpawnX() != reader.getSpawnX() || compiled.getSpawnY() != reader.getSpawnY()
+				|| compiled.getEdgeWarpLeft() != reader.getEdgeWarpLeft() || compiled.getEdgeWarpRight() != reader.getEdgeWarpRight()
+				|| compiled.getEdgeWarpUp() != reader.getEdgeWarpUp() || compiled.getEdgeWarpDown() != reader.getEdgeWarpDown()
+				|| !Arrays.deepEquals(Arrays.copyOf(compiled.getWarpList(), compiled.getWarpCount()), Arrays.copyOf(reader.getWarpList(), reader.getWarpCount()))){
+			report.problems.add("the compiled map has a different size, spawn point or warps than the text file");
+			return;
+		}
+		int[][] shapes = reader.getRectangleData();
+		int[][] compiledShapes = compiled.getRectangleData();
+		if (Arrays.deepEquals(Arrays.copyOf(shapes, reader.getShapeCount()), Arrays.copyOf(compiledShapes, compiled.getShapeCount()))){
+			return; //every shape was kept
+		}
+		//collision, climbability and color only change at the edges of shapes, so checking
+		//every combination of edges checks every area of the map
+		int[] xs = new int[reader.getShapeCount() * 4];
+		int[] ys = new int[reader.getShapeCount() * 3];
+		for (int i = 0; i < reader.getShapeCount(); i++){
+			int[] s = shapes[i];
+			xs[i * 4] = s[0] - 3; //getClimb() reaches 3 pixels left of a shape
+			xs[i * 4 + 1] = s[0];
+			xs[i * 4 + 2] = s[0] + s[2]; //the right edge is climbable and solid, but not drawn
+			xs[i * 4 + 3] = s[0] + s[2] + 1;
+			ys[i * 3] = s[1];
+			ys[i * 3 + 1] = s[1] + s[3];
+			ys[i * 3 + 2] = s[1] + s[3] + 1;
+		}
+		Map binary = GameState.createMap(report.mapNumber, compiled);
+		for (int x : xs){
+			for (int y : ys){
+				int climb = text.getClimb(x, y);
+				int compiledClimb = binary.getClimb(x, y);
+				boolean open = text.getCollision(x, y);
+				boolean compiledOpen = binary.getCollision(x, y);
+				int color = getColor(shapes, reader.getShapeCount(), x, y);
+				int compiledColor = getColor(compiledShapes, compiled.getShapeCount(), x, y);
+				if (climb != compiledClimb || open != compiledOpen || color != compiledColor){
+					report.problems.add("the compiled map is different from the text file at " + x + "," + y + ": climbability " + climb + " becomes " + compiledClimb
+							+ ", solid " + !open + " becomes " + !compiledOpen + ", color " + Integer.toHexString(color) + " becomes " + Integer.toHexString(compiledColor));
+					return;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Return the color drawn at a point: the color of the last shape that covers it
+	 * @return int: the color as 0xRRGGBB, or -1 if no shape covers the point
+	 */
+	private static int getColor(int[][] shapes, int shapeCount, int x, int y){
+		for (int i = shapeCount - 1; i >= 0; i--){
+			int[] s = shapes[i];
+			if (x >= s[0] && x < s[0] + s[2] && y >= s[1] && y < s[1] + s[3]){
+				return (s[6] << 16) | (s[7] << 8) | s[8];
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Add a problem to the report if a warp leads to a map that doesn't exist.
+	 */
+	private void checkDestination(MapReport report, String warp, int destination){
+		if (destination != report.mapNumber && !MapFileReader.exists(destination)){
+			report.problems.add(warp + " leads to map " + destination + ", which doesn't exist");
+		}
+	}
+
+	/**
+	 * Split every map that is fine into chunks when it is compiled, and write its
+	 * chunk file (see MapChunks.write()). Chunk files are only written when the
+	 * compiled files are.
+	 * @param chunkSize how wide and tall each chunk is, in pixels, or 0 to not write chunk files
+	 */
+	public void setChunkSize(int chunkSize){
+		this.chunkSize = chunkSize;
+	}
+
+	/**
+	 * Return the numbers of the maps this compiler works on
+	 * @return int[]: the map numbers, in increasing order
+	 */
+	public int[] getMapNumbers(){
+		return mapNumbers.clone();
+	}
+
+	/**
+	 * What happened when one map was checked and compiled.
+	 */
+	public static class MapReport {
+		public final int mapNumber; //the map number
+		public final ArrayList<String> problems = new ArrayList<String>(); //every problem found. empty if the map is fine
+		public int shapes; //how many shapes the map has
+		public int warps; //how many in-map-warps the map has
+		public int duplicates; //how many shapes are exactly the same as an earlier shape, and are left out of the compiled file and when the game reads the text file
+		public long nanos; //how long checking and compiling the map took, in nanoseconds
+
+		MapReport(int mapNumber){
+			this.mapNumber = mapNumber;
+		}
+	}
+
+	/**
+	 * Check and compile every map, and print what happened.
+	 * @param args see the class comment
+	 */
+	public static void main(String[] args){
+		boolean write = true;
+		boolean pack = false;
+		int chunkSize = 0;
+		int threads = Runtime.getRuntime().availableProcessors();
+		for (int i = 0; i < args.length; i++){
+			if (args[i].equals("-check")){
+				write = false;
+			} else if (args[i].equals("-pack")){
+				pack = true;
+			} else if (args[i].equals("-chunks") && i + 1 < args.length){
+				chunkSize = Math.max(1, Integer.parseInt(args[++i]));
+			} else if (args[i].equals("-threads") && i + 1 < args.length){
+				threads = Math.max(1, Integer.parseInt(args[++i]));
+			} else {
+				System.out.println("Usage: java MapCompiler [-check] [-pack] [-chunks size] [-threads n]");
+				System.exit(2);
+			}
+		}
+		MapCompiler compiler = new MapCompiler(write);
+		compiler.setChunkSize(chunkSize);
+		long start = System.nanoTime();
+		MapReport[] reports;
+		try {
+			reports = compiler.compileAll(threads);
+		} catch (InterruptedException e) {
+			System.out.println("Interrupted");
+			System.exit(2);
+			return;
+		}
+		long wall = System.nanoTime() - start;
+		int broken = 0;
+		long total = 0;
+		for (MapReport report : reports){
+			total += report.nanos;
+			String time = String.format("%.2f ms", report.nanos / 1000000.0);
+			if (report.problems.isEmpty()){
+				System.out.println("map " + report.mapNumber + ": ok, " + report.shapes + " shapes (" + report.duplicates + " duplicates), " + report.warps + " warps, " + time);
+			} else {
+				broken++;
+				System.out.println("map " + report.mapNumber + ": " + report.problems.size() + " problem(s), " + time);
+				for (String problem : report.problems){
+					System.out.println("    " + problem);
+				}
+			}
+		}
+		System.out.println(String.format("%d maps, %d with problems, %.2f ms on %d threads (%.2f ms of work)",
+				reports.length, broken, wall / 1000000.0, threads, total / 1000000.0));
+		if (pack && broken == 0){
+			try {
+				MapPack.write(MapPack.DEFAULT_PATH, compiler.getMapNumbers());
+				System.out.println("Packed " + reports.length + " maps into " + MapPack.DEFAULT_PATH);
+			} catch (IOException ioe) {
+				System.out.println("Map pack could not be written: " + ioe);
+				System.exit(1);
+			}
+		}
+		System.exit(broken == 0 ? 0 : 1);
+	}
+}
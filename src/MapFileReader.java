@@ -1,19 +1,61 @@
-import java.io.FileNotFoundException;
-import java.io.FileReader;
-import java.util.Scanner;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.NoSuchElementException;
 /**
  * 
  * Reads all necessary information from a map file, including the spawn position, 
  * the shape data, and the warp data. 
- * @version Version 1.3
+ * 
+ * The whole file is read into memory at once (which closes the file right away),
+ * then the numbers are read out of it in one pass, in the order they are stored.
+ * 
+ * A map can also be compiled into a binary file (see writeBinary()), which is
+ * memory mapped and copied straight into the arrays instead of being parsed.
+ * Compiled maps can also be stored together in one map pack (see MapPack).
+ * Whichever of the text file, the binary file and the map pack was changed last is read.
+ * Binary map file format (little-endian): int BINARY_MAGIC, int BINARY_VERSION,
+ * int width, int height, int spawn x, int spawn y, int left, right, up and down
+ * edge warps, int edge warp flags (bit 0 to 3 set if the left, right, up and down
+ * edge warps exist), int shape count, int warp count, int style count, then
+ * 5 ints for each style (collision, climbable, r, g, b), 5 ints for each shape
+ * (x, y, width, height, style number) and 3 ints for each warp.
+ * Most shapes in a map share a handful of colors and attributes, so each style
+ * is only stored once. A shape that is exactly the same as an earlier shape is left
+ * out, as long as no shape between the two overlaps it: the earlier copy is already
+ * found first by every collision and climbability check, and nothing was drawn over
+ * it that the later copy would have covered again. Otherwise the shapes and warps
+ * are in the same order as the text file. The game leaves the same shapes out when
+ * it reads the text file, so every shape has the same number (which region events
+ * and the map registry use) whichever copy of the map was read. Only MapCompiler
+ * reads the text file with every shape (the compiling constructor), to check that
+ * leaving them out changes nothing.
+ * Version 1 files (no styles, 9 ints for each shape) can still be read.
+ * @version Version 1.4
  * @author Adam Cogen
  *
  */
 public class MapFileReader {
+	public static final int BINARY_MAGIC = 0x50414D4C; //"LMAP" (little-endian), the first four bytes of every binary map file
+	public static final int BINARY_VERSION = 2; //the version of the binary map file format
+	private static final int BINARY_HEADER_INTS = 16; //how many ints come before the styles in a binary map file
+	private static final int OLD_BINARY_HEADER_INTS = 15; //how many ints come before the shapes in a version 1 binary map file
+	private static final int STYLE_INTS = 5; //how many ints each style takes: collision, climbable, r, g, b
 	private int map; //the map number
 	private int spawnX; //the x value of the spawn point, as read from the file
 	private int spawnY; //the x value of the spawn point, as read from the file
-	private int[][] fileShapeData; //stores all of the shape data from the file. first value is the shape number, second value is the specific piece of data from that shape
+	private int[][] fileShapeData = new int[0][9]; //stores all of the shape data from the file. first value is the shape number, second value is the specific piece of data from that shape
 	private boolean hasEdgeWarpLeft; //does this map have a left edge warp?
 	private boolean hasEdgeWarpRight; //does this map have a right edge warp?
 	private boolean hasEdgeWarpUp; //does this map have a up edge warp?
@@ -24,10 +66,15 @@ public class MapFileReader {
 	private int edgeWarpDown; //if there is a down edge warp, what is it? if there is not, it is the letter "n." 
 	private int shapeCount; //how many shapes are in the file?
 	private int warpCount; //how many warps are there within the map?
-	private int[][] warpList; //the list of in-map-warps
+	private int[][] warpList = new int[0][3]; //the list of in-map-warps
 	private int frameWidth; //the width of the frame
 	private int frameHeight; //the height of the frame
 	private String fileName; //the name of the file to read from
+	private byte[] data; //the contents of the file, only kept while it is being read
+	private int position; //the index in data of the next character to read
+	private String error; //why the map couldn't be read, or null if it was read
+	private boolean extraData; //was there more data after the last warp (other than the notes at the end of the file)? usually means the shape or warp count is wrong
+	private int droppedShapes; //how many duplicate shapes were left out when the text file was read (see dropDuplicateShapes())
 
 	/**
 	 * reads all of the values from a map file at once. 
@@ -35,158 +82,494 @@ public class MapFileReader {
 	 * @param mapNumber the map number to read
 	 */
 	public MapFileReader(int mapNumber){
-			map = mapNumber;
-			fileName = "maps/" + map + ".txt";
-			setShapeCount();
-			fillMapArray();
-			getEdgeWarps();
-			getSpawn();
-			gameDimensions();
+			this(mapNumber, false);
 	}
+
 	/**
-	 * read all shapes from the map file and store them in an array, fileRectangleData[shape number][specific data value index].
-	 * this method also checks warp count, and fills the warp array.
+	 * reads all of the values from a map file at once. 
+	 * these values can then be accessed by the other classes.
+	 * @param mapNumber the map number to read
+	 * @param compiling true to only read the text file (the map's source) with every shape in it,
+	 * and to report problems through getError() instead of printing them. used by MapCompiler
 	 */
-	public void fillMapArray(){
-		fileShapeData = new int[shapeCount][9];
-		Scanner scan1;
-		try {
-			/*
-			 * skip over values that are not needed for the rectangle data array, which only holds shape data
-			 */
-			scan1 = new Scanner(new FileReader(fileName));
-			scan1.nextLine();
-			scan1.nextLine();
-			scan1.nextLine();
-			scan1.nextLine();
-			//fill the rectangle data array
-			for (int i = 0; i < shapeCount; i++){
-				for(int j = 0; j < 9; j++){
-					fileShapeData[i][j] = scan1.nextInt();	
+	public MapFileReader(int mapNumber, boolean compiling){
+			map = mapNumber;
+			fileName = getTextPath(map).toString();
+			if (!compiling){
+				//read whichever copy of the map was changed last: the text file, the binary file, or the map pack.
+				//a map in the pack with no loose files that could be newer is read without checking them again
+				MapPack pack = MapPack.getShared();
+				boolean packOnly = pack != null && !pack.isOverridden(map);
+				Path binary = getBinaryPath(map);
+				long textTime = packOnly ? -1 : getModifiedTime(getTextPath(map));
+				long binaryTime = packOnly ? -1 : getModifiedTime(binary);
+				long packTime = pack != null && pack.contains(map) ? pack.getModifiedTime() : -1;
+				try {
+					if (packTime > textTime && packTime >= binaryTime){
+						readBinary(pack.getSlice(map), pack.getPath() + " (map " + map + ")");
+						return;
+					} else if (binaryTime > textTime){
+						readBinary(binary);
+						return;
+					}
+				} catch (IOException ioe) {
+					System.out.println("Compiled copy of map " + map + " could not be read, reading " + fileName + " instead: " + ioe);
 				}
 			}
-			//fill the warpList
-			warpCount = scan1.nextInt();
-			warpList = new int[warpCount][3];
-			for (int i = 0; i < warpCount; i++){
-				for (int j = 0; j < 3; j++){
-					String value = scan1.next();
-					if(value.equals("n")){
-						warpList[i][j] = map;
-					} else{
-						warpList[i][j] = Integer.parseInt(value);
-						//System.out.println(value);
-					}
+			try {
+				data = Files.readAllBytes(Paths.get(fileName));
+				readAll();
+				if (!compiling){
+					dropDuplicateShapes();
 				}
+			} catch (NoSuchFileException nsfe) {
+				error = "Map file " + fileName + " not found";
+			} catch (IOException ioe) {
+				error = "Map file " + fileName + " could not be read: " + ioe;
+			} catch (RuntimeException re) {
+				//the file isn't laid out like a map file. leave the map empty, the same as a missing file
+				error = "Map file " + fileName + " is broken: " + re.getMessage();
+				shapeCount = 0;
+				fileShapeData = new int[0][9];
+				warpCount = 0;
+				warpList = new int[0][3];
+			} finally {
+				data = null;
 			}
+			if (error != null && !compiling){
+				System.out.println(error + " in MapFileReader class");
+			}
+	}
+
+	/**
+	 * reads a map that is already in the binary format, such as the result of toBinary().
+	 * used by MapCompiler to check that a compiled map plays the same as its text file.
+	 * @param mapNumber the map number
+	 * @param binary the map, from its position to its limit
+	 * @throws IOException if the buffer doesn't hold a binary map
+	 */
+	MapFileReader(int mapNumber, ByteBuffer binary) throws IOException {
+			map = mapNumber;
+			fileName = getBinaryPath(map).toString();
+			readBinary(binary, "compiled map " + map);
+	}
+
+	/**
+	 * Is there a map file for the specified map number?
+	 * @param mapNumber the map number
+	 * @return boolean: true if the map file exists
+	 */
+	public static boolean exists(int mapNumber){
+		MapPack pack = MapPack.getShared();
+		return (pack != null && pack.contains(mapNumber)) || Files.isRegularFile(getTextPath(mapNumber)) || Files.isRegularFile(getBinaryPath(mapNumber))
+				|| Files.isRegularFile(MapChunks.getPath(mapNumber));
+	}
 
-		} catch (FileNotFoundException fnfe){
-			System.out.println("Map file not found in MapFileReader class fillMapArray() method");
+	/**
+	 * Return the numbers of every map that has a text file in the maps folder.
+	 * Anything else in the folder (binary files, the map pack, other files) is skipped.
+	 * @return int[]: the map numbers, in increasing order
+	 */
+	public static int[] listMapNumbers(){
+		String[] names = new File("maps").list();
+		if (names == null){
+			return new int[0];
+		}
+		int[] numbers = new int[names.length];
+		int count = 0;
+		for (String name : names){
+			if (name.matches("[0-9]{1,9}\\.txt")){
+				numbers[count++] = Integer.parseInt(name.substring(0, name.length() - 4));
+			}
 		}
+		numbers = Arrays.copyOf(numbers, count);
+		Arrays.sort(numbers);
+		return numbers;
+	}
+
+	/**
+	 * Return where the text file for a map is
+	 * @param mapNumber the map number
+	 * @return Path: maps/(map number).txt
+	 */
+	public static Path getTextPath(int mapNumber){
+		return Paths.get("maps", mapNumber + ".txt");
 	}
 
 	/**
-	 * read the shape count value from the map file.
-	 * @return the shape count
+	 * Return where the binary (compiled) file for a map is
+	 * @param mapNumber the map number
+	 * @return Path: maps/(map number).bin
 	 */
-	public void setShapeCount(){
-		shapeCount = 0;
-		Scanner scan1;
+	public static Path getBinaryPath(int mapNumber){
+		return Paths.get("maps", mapNumber + ".bin");
+	}
+
+	/**
+	 * Return when a file was last changed, in milliseconds, or -1 if it doesn't exist.
+	 */
+	static long getModifiedTime(Path file){
 		try {
-			scan1 = new Scanner(new FileReader(fileName));
-			scan1.nextLine();
-			scan1.nextLine();
-			scan1.nextLine();
-			shapeCount = scan1.nextInt();
-		} catch (FileNotFoundException fnfe) {
-			System.out.println("map file not found in MapFileReader class rectangleCount() method");
+			return Files.getLastModifiedTime(file).toMillis();
+		} catch (IOException ioe) {
+			return -1; //the file doesn't exist
 		}
 	}
 
 	/**
-	 * read the edge warps from the file.
-	 * most are just numbers, indicating
-	 * the map number to warp to.
-	 * 'n' represents that there is 
-	 * no edge warp in a particular direction,
-	 * so the player should just warp to the
-	 * opposite side of the current map. 
-	 * 
-	 */
-	public void getEdgeWarps(){
-		Scanner scan1;
-		try {
-			scan1 = new Scanner(new FileReader(fileName));
-			scan1.nextLine();
-			scan1.nextLine();
-			String left = scan1.next();
-			if (left.equals("n")){
-				hasEdgeWarpLeft = false;
-				edgeWarpLeft = map;
-			} else {
-				hasEdgeWarpLeft = true;
-				edgeWarpLeft = Integer.parseInt(left);
+	 * read every value from a binary map file, by memory mapping it and copying the ints straight into the arrays.
+	 * @param path the binary map file
+	 * @throws IOException if the file can't be read, or isn't a binary map file
+	 */
+	private void readBinary(Path path) throws IOException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)){
+			if (channel.size() > Integer.MAX_VALUE){
+				throw new IOException(path + " is not a binary map file");
+			}
+			readBinary(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), path.toString());
+		}
+	}
+
+	/**
+	 * read every value from a map in the binary format, copying the ints straight into the arrays.
+	 * @param buffer the map, from its position to its limit. this is usually part of a memory mapped file
+	 * @param name where the map came from, for error messages
+	 * @throws IOException if the buffer doesn't hold a binary map
+	 */
+	private void readBinary(ByteBuffer buffer, String name) throws IOException {
+		if (buffer.remaining() < OLD_BINARY_HEADER_INTS * 4 || buffer.remaining() % 4 != 0){
+			throw new IOException(name + " is not a binary map");
+		}
+		IntBuffer ints = buffer.order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+		if (ints.get() != BINARY_MAGIC){
+			throw new IOException(name + " is not a binary map");
+		}
+		int version = ints.get();
+		if (version != BINARY_VERSION && version != 1){
+			throw new IOException(name + " is version " + version + ", but only versions 1 to " + BINARY_VERSION + " can be read");
+		}
+		int width = ints.get();
+		int height = ints.get();
+		int x = ints.get();
+		int y = ints.get();
+		int left = ints.get();
+		int right = ints.get();
+		int up = ints.get();
+		int down = ints.get();
+		int edgeFlags = ints.get();
+		int shapes = ints.get();
+		int warps = ints.get();
+		int[][] shapeData = new int[Math.max(shapes, 0)][9];
+		if (version == 1){
+			//the whole shape is stored
+			if (shapes < 0 || warps < 0 || ints.remaining() != (long) shapes * 9 + (long) warps * 3){
+				throw new IOException(name + " has the wrong length for " + shapes + " shapes and " + warps + " warps");
 			}
-			String right = scan1.next();
-			if (right.equals("n")){
-				hasEdgeWarpRight = false;
-				edgeWarpRight = map;
-			} else {
-				hasEdgeWarpRight = true;
-				edgeWarpRight = Integer.parseInt(right);
+			for (int i = 0; i < shapes; i++){
+				ints.get(shapeData[i]);
 			}
-			String up = scan1.next();
-			if (up.equals("n")){
-				hasEdgeWarpUp = false;
-				edgeWarpUp = map;
-			} else {
-				hasEdgeWarpUp = true;
-				edgeWarpUp = Integer.parseInt(up);
+		} else {
+			//the position and size are stored, then the number of the style that has the rest
+			int styles = ints.hasRemaining() ? ints.get() : -1;
+			if (shapes < 0 || warps < 0 || styles < 0 || ints.remaining() != (long) styles * STYLE_INTS + (long) shapes * 5 + (long) warps * 3){
+				throw new IOException(name + " has the wrong length for " + shapes + " shapes and " + warps + " warps");
 			}
-			String down = scan1.next();
-			if (down.equals("n")){
-				hasEdgeWarpDown = false;
-				edgeWarpDown = map;
-			} else {
-				hasEdgeWarpDown = true;
-				edgeWarpDown = Integer.parseInt(down);
+			int[] styleData = new int[styles * STYLE_INTS];
+			ints.get(styleData);
+			for (int i = 0; i < shapes; i++){
+				ints.get(shapeData[i], 0, 4);
+				int style = ints.get();
+				if (style < 0 || style >= styles){
+					throw new IOException(name + " shape " + i + " uses style " + style + ", but there are only " + styles + " styles");
+				}
+				System.arraycopy(styleData, style * STYLE_INTS, shapeData[i], 4, STYLE_INTS);
 			}
-		} catch (FileNotFoundException fnfe) {
-			System.out.println("no map file found in MapFileReader class getEdgeWarps() method");
 		}
+		int[][] warpData = new int[warps][3];
+		for (int i = 0; i < warps; i++){
+			ints.get(warpData[i]);
+		}
+		//only change the fields once the whole file has been read
+		frameWidth = width;
+		frameHeight = height;
+		spawnX = x;
+		spawnY = y;
+		edgeWarpLeft = left;
+		edgeWarpRight = right;
+		edgeWarpUp = up;
+		edgeWarpDown = down;
+		hasEdgeWarpLeft = (edgeFlags & 1) != 0;
+		hasEdgeWarpRight = (edgeFlags & 2) != 0;
+		hasEdgeWarpUp = (edgeFlags & 4) != 0;
+		hasEdgeWarpDown = (edgeFlags & 8) != 0;
+		shapeCount = shapes;
+		fileShapeData = shapeData;
+		warpCount = warps;
+		warpList = warpData;
 	}
+
 	/**
-	 * read the game dimensions from the file. 
+	 * Write everything that was read into a binary map file. It is written to a temporary
+	 * file first, then moved into place, so nothing ever reads a half written file.
+	 * @param path where to write the binary map file (usually getBinaryPath())
+	 * @throws IOException if the file can't be written
 	 */
-	public void gameDimensions(){
-		int width = 0;
-		int height = 0;
-		String fileName = "maps/" + map + ".txt";
-		Scanner scan1;
-		try {
-			scan1 = new Scanner(new FileReader(fileName));
-			width = scan1.nextInt();
-			height = scan1.nextInt();
-			frameHeight = height;
-			frameWidth = width;
-		} catch (FileNotFoundException fnfe) {
-			System.out.println("no map file found for map in MapFileReader class gameDimensions() method");
+	public void writeBinary(Path path) throws IOException {
+		ByteBuffer buffer = toBinary();
+		Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+		try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)){
+			while (buffer.hasRemaining()){
+				channel.write(buffer);
+			}
 		}
+		Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
 	}
+
 	/**
-	 * read the player sprite spawn point from the file (where the player sprite will be placed at the start of the game).
+	 * Put everything that was read into a new buffer, in the binary map format.
+	 * Duplicate shapes that change nothing are left out, and each style is stored once (see the class comment).
+	 * @return ByteBuffer: the binary map, ready to be read from
 	 */
-	public void getSpawn(){
-		String fileName = "maps/" + map + ".txt";
-		Scanner scan1;
-		try {
-			scan1 = new Scanner(new FileReader(fileName));
-			scan1.nextLine();
-			spawnX = scan1.nextInt();
-			spawnY = scan1.nextInt();
-		} catch (FileNotFoundException fnfe) {
-			System.out.println("no map file found in MapFileReader class getSpawn() method");
+	public ByteBuffer toBinary(){
+		int[] kept = getKeptShapes(); //the same shapes dropDuplicateShapes() keeps
+		//give every different style a number, in the order they are first used
+		HashMap<IntBuffer, Integer> styleNumbers = new HashMap<IntBuffer, Integer>();
+		int[] shapeStyles = new int[kept.length];
+		for (int i = 0; i < kept.length; i++){
+			IntBuffer style = IntBuffer.wrap(fileShapeData[kept[i]], 4, STYLE_INTS);
+			Integer number = styleNumbers.get(style);
+			if (number == null){
+				number = styleNumbers.size();
+				styleNumbers.put(style, number);
+			}
+			shapeStyles[i] = number;
+		}
+		int styleCount = styleNumbers.size();
+		ByteBuffer buffer = ByteBuffer.allocate((BINARY_HEADER_INTS + styleCount * STYLE_INTS + kept.length * 5 + warpCount * 3) * 4).order(ByteOrder.LITTLE_ENDIAN);
+		buffer.putInt(BINARY_MAGIC);
+		buffer.putInt(BINARY_VERSION);
+		buffer.putInt(frameWidth);
+		buffer.putInt(frameHeight);
+		buffer.putInt(spawnX);
+		buffer.putInt(spawnY);
+		buffer.putInt(edgeWarpLeft);
+		buffer.putInt(edgeWarpRight);
+		buffer.putInt(edgeWarpUp);
+		buffer.putInt(edgeWarpDown);
+		buffer.putInt((hasEdgeWarpLeft ? 1 : 0) | (hasEdgeWarpRight ? 2 : 0) | (hasEdgeWarpUp ? 4 : 0) | (hasEdgeWarpDown ? 8 : 0));
+		buffer.putInt(kept.length);
+		buffer.putInt(warpCount);
+		buffer.putInt(styleCount);
+		//the styles, in number order
+		int[] styleData = new int[styleCount * STYLE_INTS];
+		for (java.util.Map.Entry<IntBuffer, Integer> style : styleNumbers.entrySet()){
+			style.getKey().duplicate().get(styleData, style.getValue() * STYLE_INTS, STYLE_INTS);
+		}
+		for (int value : styleData){
+			buffer.putInt(value);
 		}
+		for (int i = 0; i < kept.length; i++){
+			for (int j = 0; j < 4; j++){
+				buffer.putInt(fileShapeData[kept[i]][j]);
+			}
+			buffer.putInt(shapeStyles[i]);
+		}
+		for (int i = 0; i < warpCount; i++){
+			for (int j = 0; j < 3; j++){
+				buffer.putInt(warpList[i][j]);
+			}
+		}
+		buffer.flip();
+		return buffer;
+	}
+
+	/**
+	 * Find the shapes that can't be left out of the binary format. A shape that is exactly
+	 * the same as an earlier shape changes nothing: getClimb() and getCollision() always
+	 * find the earlier copy first, and it is drawn in the same place. The only exception
+	 * is when a kept shape between the two overlaps it, since the later copy is drawn over
+	 * that shape, so then it is kept. Shapes that were left out don't count, so finding
+	 * the kept shapes of the kept shapes keeps them all.
+	 * @return int[]: the numbers of the shapes to keep, in order
+	 */
+	private int[] getKeptShapes(){
+		HashMap<IntBuffer, Integer> lastKept = new HashMap<IntBuffer, Integer>(); //the last kept copy of each shape
+		boolean[] isKept = new boolean[shapeCount];
+		int[] kept = new int[shapeCount];
+		int keptCount = 0;
+		for (int i = 0; i < shapeCount; i++){
+			IntBuffer shape = IntBuffer.wrap(fileShapeData[i]);
+			Integer copy = lastKept.get(shape);
+			if (copy == null || isOverlapped(i, copy + 1, i, isKept)){
+				isKept[i] = true;
+				kept[keptCount++] = i;
+				lastKept.put(shape, i);
+			}
+		}
+		return Arrays.copyOf(kept, keptCount);
+	}
+
+	/**
+	 * Return the shapes the game plays the map with: every shape, except the duplicates
+	 * the binary format leaves out (see getKeptShapes()). Used by MapChunks, so a chunk
+	 * file numbers its shapes the same way as the binary format.
+	 * @return int[][]: the kept shapes, in order. the arrays are shared, not copied
+	 */
+	public int[][] getKeptShapeData(){
+		int[] kept = getKeptShapes();
+		int[][] shapes = new int[kept.length][];
+		for (int i = 0; i < kept.length; i++){
+			shapes[i] = fileShapeData[kept[i]];
+		}
+		return shapes;
+	}
+
+	/**
+	 * Leave out the shapes the binary format leaves out, so a map read from its text file has
+	 * the same shape numbers as the same map read from a binary file, the map pack or a chunk file.
+	 */
+	private void dropDuplicateShapes(){
+		int[][] kept = getKeptShapeData();
+		droppedShapes += shapeCount - kept.length;
+		fileShapeData = kept;
+		shapeCount = kept.length;
+	}
+
+	/**
+	 * Does any kept shape from start (inclusive) to end (exclusive) overlap the specified shape?
+	 * Shapes that only touch at an edge don't overlap, since neither is drawn over the other.
+	 */
+	private boolean isOverlapped(int shape, int start, int end, boolean[] isKept){
+		int[] s = fileShapeData[shape];
+		for (int i = start; i < end; i++){
+			int[] other = fileShapeData[i];
+			if (isKept[i] && other[0] < s[0] + s[2] && s[0] < other[0] + other[2] && other[1] < s[1] + s[3] && s[1] < other[1] + other[3]){
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Return how many shapes the game leaves out because they are exactly the same as an
+	 * earlier shape (see getKeptShapes()), counting the ones already left out when the
+	 * text file was read. Always 0 for a map read from a binary file or the map pack.
+	 * @return int: the number of duplicate shapes
+	 */
+	public int getDuplicateShapeCount(){
+		return droppedShapes + shapeCount - getKeptShapes().length;
+	}
+
+	/**
+	 * read every value from the file, in the order they are stored:
+	 * the game dimensions, the spawn point, the edge warps, the shapes, then the in-map-warps.
+	 */
+	private void readAll(){
+		frameWidth = nextInt();
+		frameHeight = nextInt();
+		spawnX = nextInt();
+		spawnY = nextInt();
+		/*
+		 * most edge warps are just numbers, indicating the map number to warp to.
+		 * 'n' represents that there is no edge warp in a particular direction,
+		 * so the player should just warp to the opposite side of the current map. 
+		 */
+		hasEdgeWarpLeft = !nextIsNone();
+		edgeWarpLeft = hasEdgeWarpLeft ? nextInt() : map;
+		hasEdgeWarpRight = !nextIsNone();
+		edgeWarpRight = hasEdgeWarpRight ? nextInt() : map;
+		hasEdgeWarpUp = !nextIsNone();
+		edgeWarpUp = hasEdgeWarpUp ? nextInt() : map;
+		hasEdgeWarpDown = !nextIsNone();
+		edgeWarpDown = hasEdgeWarpDown ? nextInt() : map;
+		//fill the shape data array
+		shapeCount = nextInt();
+		fileShapeData = new int[shapeCount][9];
+		for (int i = 0; i < shapeCount; i++){
+			for(int j = 0; j < 9; j++){
+				fileShapeData[i][j] = nextInt();
+			}
+		}
+		//fill the warpList. 'n' means the current map
+		warpCount = nextInt();
+		warpList = new int[warpCount][3];
+		for (int i = 0; i < warpCount; i++){
+			for (int j = 0; j < 3; j++){
+				warpList[i][j] = nextIsNone() ? map : nextInt();
+			}
+		}
+		//the notes about the file format at the end of each file start with //
+		skipWhitespace();
+		extraData = position < data.length && data[position] != '/';
+	}
+
+	/**
+	 * skip any whitespace, then check whether the next value is the letter 'n' (meaning none).
+	 * if it is, it is skipped too.
+	 * @return boolean: true if the next value was 'n'
+	 */
+	private boolean nextIsNone(){
+		skipWhitespace();
+		if (position < data.length && data[position] == 'n' && (position + 1 == data.length || data[position + 1] <= ' ')){
+			position++;
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * read the next whole number from the file, skipping any whitespace before it.
+	 * @return int: the number
+	 */
+	private int nextInt(){
+		skipWhitespace();
+		if (position == data.length){
+			throw new NoSuchElementException(fileName + " ended before all of the map data was read");
+		}
+		int start = position;
+		boolean negative = data[position] == '-';
+		if (negative || data[position] == '+'){
+			position++;
+		}
+		int digits = position;
+		long value = 0;
+		while (position < data.length && data[position] >= '0' && data[position] <= '9'){
+			value = value * 10 + (data[position] - '0');
+			if (value > (long) Integer.MAX_VALUE + 1){
+				throw new NumberFormatException("number too big at character " + start + " of " + fileName);
+			}
+			position++;
+		}
+		if ((value > Integer.MAX_VALUE && !negative) || position == digits || (position < data.length && data[position] > ' ')){
+			throw new NumberFormatException("expected a number at character " + start + " of " + fileName);
+		}
+		return (int) (negative ? -value : value);
+	}
+
+	/**
+	 * skip past any spaces, tabs and line breaks.
+	 */
+	private void skipWhitespace(){
+		while (position < data.length && data[position] <= ' '){
+			position++;
+		}
+	}
+
+	/**
+	 * Return why the map couldn't be read
+	 * @return String: the problem, or null if the map was read
+	 */
+	public String getError(){
+		return error;
+	}
+
+	/**
+	 * Was there more data in the text file after the last warp (other than the notes
+	 * at the end of the file)? This usually means the shape count or warp count is wrong.
+	 * @return boolean: true if there was extra data
+	 */
+	public boolean hasExtraData(){
+		return extraData;
 	}
 
 	/**
@@ -228,6 +611,14 @@ public class MapFileReader {
 		return edgeWarpLeft;
 	}
 	
+	/**
+	 * Return the number of the map that was read
+	 * @return int: the map number
+	 */
+	public int getMapNumber(){
+		return map;
+	}
+
 	/**
 	 * Return the map number of the right edge warp
 	 * @return int: the map number of the right edge warp
@@ -10,7 +10,6 @@ import java.awt.event.KeyListener;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseListener;
 import java.awt.event.MouseMotionListener;
-import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.PrintWriter;
@@ -3221,6 +3220,9 @@ public class MapMaker extends JFrame{
 			writer.println();
 			writer.flush();
 			writer.close();
+			MapPack.resetShared(); //so the map pack sees that the text file is newer than it
+			MapCache.getShared().reload(map); //so a game in this program switches to the new version
+			MapRegistry.getShared().update(new MapFileReader(map)); //only this map's entry changes. the text file was just written, so it is the copy that is read
 		} catch (FileNotFoundException e) {
 			System.out.println("something went wrong in the file writer");
 		}
@@ -3503,44 +3505,8 @@ public class MapMaker extends JFrame{
 	 * user to accidentally overwrite existing files
 	 */
 	public int checkMinimumAvailableMapNumber(){
-		File mapDirectory = new File("maps/");
-		File[] allFileNames = mapDirectory.listFiles();
-
-		int index = 0;
-		String tempName = "0";
-		int val = -1;
-		int max = -1;
-
-		while(allFileNames.length > 0 && index < allFileNames.length){
-			tempName = (allFileNames[index].getName());
-			tempName = tempName.substring(0, tempName.length() - 4);
-			val = Integer.parseInt(tempName);
-			if(val > max){
-				max = val;
-			}
-			index++;
-		}
-		//System.out.println(max);
-		if(max > -1){
-			int[] freq = new int[max + 1];
-			index = 0;
-			while(allFileNames.length > 0 && index < allFileNames.length){
-				tempName = (allFileNames[index].getName());
-				tempName = tempName.substring(0, tempName.length() - 4);
-				val = Integer.parseInt(tempName);
-				freq[val]++;
-				index++;
-			}
-			index = 0;
-			while(freq[index] > 0){
-				index++;
-			}
-		} else {
-			index = 0;
-		}
-
-
-		return index;
+		//the registry keeps the lowest unused number up to date, so the maps folder isn't listed
+		return MapRegistry.getShared().getFreeMapNumber();
 	}
 
 	/**
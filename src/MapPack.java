@@ -0,0 +1,271 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Many compiled maps stored together in one file, so a game that ships
+ * hundreds of maps opens one file once, instead of one file per map.
+ *
+ * The pack starts with an index of every map in it, sorted by map number.
+ * The whole file is memory mapped when it is opened, and each map is read
+ * straight out of the mapping through a slice (a view of part of the file),
+ * so nothing is copied until MapFileReader puts the numbers into its arrays.
+ * Each map is stored in the binary map format (see MapFileReader).
+ *
+ * MapFileReader reads maps from the shared pack (DEFAULT_PATH) when the pack
+ * was changed after the map's own files, so editing a map's text file still
+ * takes effect without rebuilding the pack. To keep that from costing a file
+ * check on every load, the pack lists its folder once when it is opened and
+ * remembers which of its maps have a loose file (N.txt, N.bin or N.chunks)
+ * that could win over it (see isOverridden()). Every other map is read
+ * straight from the pack, without looking at the folder again, so a game
+ * that only ships the pack never checks for loose files at all. A loose file
+ * written after the pack was opened is only seen after resetShared(); the
+ * MapWatcher and the MapMaker call it when a map file changes. main() builds
+ * the shared pack from every map in the maps folder.
+ *
+ * Pack file format (little-endian): int PACK_MAGIC, int PACK_VERSION, int map count,
+ * then for every map: int map number, int offset of the map from the start of the file,
+ * int length of the map in bytes. Then the maps.
+ *
+ * @version Version 1.4
+ */
+public class MapPack {
+	public static final Path DEFAULT_PATH = Paths.get("maps", "maps.pack"); //the pack MapFileReader reads from
+	public static final int PACK_MAGIC = 0x4B41504C; //"LPAK" (little-endian), the first four bytes of every pack
+	public static final int PACK_VERSION = 1; //the version of the pack file format
+	private static final int HEADER_SIZE = 12; //how many bytes come before the index
+	private static final int ENTRY_SIZE = 12; //how many bytes each map takes in the index
+	private static MapPack shared; //the pack at DEFAULT_PATH, or null if there isn't one
+	private static boolean sharedOpened; //has opening the shared pack been tried yet?
+	private Path path; //where the pack is
+	private ByteBuffer data; //the whole file, memory mapped. only ever read with absolute slices, so threads can share it
+	private long modifiedTime; //when the file was last changed, in milliseconds
+	private int[] mapNumbers; //the map number of every map in the pack, in increasing order
+	private int[] offsets; //where each map starts in the file
+	private int[] lengths; //how many bytes each map takes
+	private boolean[] overridden; //for each map, did it have a loose file that could be newer than the pack when the pack was opened?
+
+	/**
+	 * Open a pack, memory map it, and read its index.
+	 * @param path the pack file
+	 * @throws IOException if the file can't be read, or isn't a map pack
+	 */
+	public MapPack(Path path) throws IOException {
+		this.path = path;
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)){
+			long size = channel.size();
+			if (size < HEADER_SIZE || size > Integer.MAX_VALUE){
+				throw new IOException(path + " is not a map pack");
+			}
+			data = channel.map(FileChannel.MapMode.READ_ONLY, 0, size).order(ByteOrder.LITTLE_ENDIAN);
+		}
+		modifiedTime = MapFileReader.getModifiedTime(path);
+		if (data.getInt(0) != PACK_MAGIC){
+			throw new IOException(path + " is not a map pack");
+		}
+		int version = data.getInt(4);
+		if (version != PACK_VERSION){
+			throw new IOException(path + " is version " + version + ", but only version " + PACK_VERSION + " can be read");
+		}
+		int count = data.getInt(8);
+		if (count < 0 || HEADER_SIZE + (long) count * ENTRY_SIZE > data.capacity()){
+			throw new IOException(path + " has a broken index");
+		}
+		mapNumbers = new int[count];
+		offsets = new int[count];
+		lengths = new int[count];
+		for (int i = 0; i < count; i++){
+			int entry = HEADER_SIZE + i * ENTRY_SIZE;
+			mapNumbers[i] = data.getInt(entry);
+			offsets[i] = data.getInt(entry + 4);
+			lengths[i] = data.getInt(entry + 8);
+			if ((i > 0 && mapNumbers[i] <= mapNumbers[i - 1]) || offsets[i] < 0 || lengths[i] < 0 || (long) offsets[i] + lengths[i] > data.capacity()){
+				throw new IOException(path + " has a broken index entry for map " + mapNumbers[i]);
+			}
+		}
+		findOverridden();
+	}
+
+	/**
+	 * List the pack's folder once, and mark every map in the pack that has a loose
+	 * file MapFileReader or GameState.loadMap() could pick instead of the pack:
+	 * a text file that isn't older than the pack, a binary file that is newer
+	 * than it, or any chunk file (chunk files are compared to the text file, not the pack).
+	 */
+	private void findOverridden(){
+		overridden = new boolean[mapNumbers.length];
+		Path folder = path.toAbsolutePath().getParent();
+		String[] names = folder != null ? folder.toFile().list() : null;
+		if (names == null){
+			return;
+		}
+		for (String name : names){
+			int dot = name.indexOf('.');
+			if (dot < 1 || dot > 9 || !name.matches("[0-9]+\\.(txt|bin|chunks)")){
+				continue;
+			}
+			int index = Arrays.binarySearch(mapNumbers, Integer.parseInt(name.substring(0, dot)));
+			if (index < 0 || overridden[index]){
+				continue;
+			}
+			String type = name.substring(dot + 1);
+			long fileTime = type.equals("chunks") ? Long.MAX_VALUE : MapFileReader.getModifiedTime(folder.resolve(name));
+			overridden[index] = type.equals("bin") ? fileTime > modifiedTime : fileTime >= modifiedTime;
+		}
+	}
+
+	/**
+	 * Return the pack at DEFAULT_PATH. It is only opened the first time this is called
+	 * (or the first time after resetShared()).
+	 * @return MapPack: the shared pack, or null if there isn't one or it can't be read
+	 */
+	public static synchronized MapPack getShared(){
+		if (!sharedOpened){
+			sharedOpened = true;
+			if (Files.isRegularFile(DEFAULT_PATH)){
+				try {
+					shared = new MapPack(DEFAULT_PATH);
+				} catch (IOException ioe) {
+					System.out.println("Map pack " + DEFAULT_PATH + " could not be opened: " + ioe);
+				}
+			}
+		}
+		return shared;
+	}
+
+	/**
+	 * Forget the shared pack, so the next call to getShared() opens the file again. Used after the pack
+	 * is rebuilt, and after a map's loose file is written (the pack only looks for loose files when it is opened).
+	 */
+	public static synchronized void resetShared(){
+		shared = null;
+		sharedOpened = false;
+	}
+
+	/**
+	 * Is a map in this pack?
+	 * @param mapNumber the map number
+	 * @return boolean: true if the map is in the pack
+	 */
+	public boolean contains(int mapNumber){
+		return Arrays.binarySearch(mapNumbers, mapNumber) >= 0;
+	}
+
+	/**
+	 * Could a loose file of a map be read instead of the pack? Found once, when the pack was opened.
+	 * When this is false, the map is read from the pack without looking for its other files.
+	 * @param mapNumber the map number
+	 * @return boolean: true if the map isn't in the pack, or had a text, binary or chunk file that could be newer than the pack
+	 */
+	public boolean isOverridden(int mapNumber){
+		int index = Arrays.binarySearch(mapNumbers, mapNumber);
+		return index < 0 || overridden[index];
+	}
+
+	/**
+	 * Return a view of one map's part of the file. Nothing is copied.
+	 * @param mapNumber the map number
+	 * @return ByteBuffer: the map in the binary map format, from position 0 to the limit
+	 * @throws IOException if the map isn't in the pack
+	 */
+	public ByteBuffer getSlice(int mapNumber) throws IOException {
+		int index = Arrays.binarySearch(mapNumbers, mapNumber);
+		if (index < 0){
+			throw new IOException("map " + mapNumber + " is not in " + path);
+		}
+		return data.slice(offsets[index], lengths[index]);
+	}
+
+	/**
+	 * Return the numbers of every map in the pack
+	 * @return int[]: the map numbers, in increasing order
+	 */
+	public int[] getMapNumbers(){
+		return mapNumbers.clone();
+	}
+
+	/**
+	 * Return where the pack is
+	 * @return Path: the pack file
+	 */
+	public Path getPath(){
+		return path;
+	}
+
+	/**
+	 * Return when the pack file was last changed
+	 * @return long: the time, in milliseconds
+	 */
+	public long getModifiedTime(){
+		return modifiedTime;
+	}
+
+	/**
+	 * Build a pack from maps. Each map is read with MapFileReader, so it comes from
+	 * whichever copy of it is newest. The pack is written to a temporary file first,
+	 * then moved into place, so nothing ever reads a half written pack.
+	 * @param path where to write the pack
+	 * @param maps the numbers of the maps to put in the pack
+	 * @throws IOException if the pack can't be written
+	 */
+	public static void write(Path path, int[] maps) throws IOException {
+		int[] sorted = maps.clone();
+		Arrays.sort(sorted);
+		ByteBuffer[] compiled = new ByteBuffer[sorted.length];
+		ByteBuffer index = ByteBuffer.allocate(HEADER_SIZE + sorted.length * ENTRY_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		index.putInt(PACK_MAGIC);
+		index.putInt(PACK_VERSION);
+		index.putInt(sorted.length);
+		long offset = index.capacity();
+		for (int i = 0; i < sorted.length; i++){
+			if (i > 0 && sorted[i] == sorted[i - 1]){
+				throw new IOException("map " + sorted[i] + " was listed twice");
+			}
+			compiled[i] = new MapFileReader(sorted[i]).toBinary();
+			if (offset + compiled[i].remaining() > Integer.MAX_VALUE){
+				throw new IOException("too many maps to fit in one pack");
+			}
+			index.putInt(sorted[i]);
+			index.putInt((int) offset);
+			index.putInt(compiled[i].remaining());
+			offset += compiled[i].remaining();
+		}
+		index.flip();
+		Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+		try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)){
+			while (index.hasRemaining()){
+				channel.write(index);
+			}
+			for (ByteBuffer map : compiled){
+				while (map.hasRemaining()){
+					channel.write(map);
+				}
+			}
+		}
+		Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Build the shared pack (DEFAULT_PATH) from every map in the maps folder.
+	 * @param args not used
+	 */
+	public static void main(String[] args){
+		int[] maps = MapFileReader.listMapNumbers();
+		try {
+			write(DEFAULT_PATH, maps);
+			resetShared();
+			System.out.println("Packed " + maps.length + " maps into " + DEFAULT_PATH);
+		} catch (IOException ioe) {
+			System.out.println("Map pack could not be written: " + ioe);
+			System.exit(1);
+		}
+	}
+}
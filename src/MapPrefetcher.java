@@ -0,0 +1,145 @@
+import java.util.ArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Loads the maps next to the current map into a MapCache in the background,
+ * so that walking off the edge or through an in-map warp finds the next map
+ * already loaded, instead of reading its file on the game's thread.
+ *
+ * The neighbors of a map are the maps its four edge warps lead to and the
+ * maps its in-map warps lead to. They are loaded one at a time on a single
+ * low priority daemon thread. Only up to MAX_PREFETCH neighbors are loaded
+ * (and never more than the cache can hold next to the current map), so a
+ * map with many warps can't flood the cache. Every call to prefetchNeighbors()
+ * cancels the loads that haven't started yet from the previous call, since
+ * those maps are no longer next to the player.
+ *
+ * @version Version 1.4
+ */
+public class MapPrefetcher {
+	public static final int MAX_PREFETCH = 8; //the most neighbors loaded for one map
+	private static MapPrefetcher shared; //loads into the shared MapCache. created the first time it is used
+	private MapCache cache; //where the loaded maps go
+	private ExecutorService executor; //the background thread that loads the maps
+	private ArrayList<Future<?>> pending = new ArrayList<Future<?>>(); //the loads from the last call to prefetchNeighbors(), which may not have finished yet
+	private int[] neighbors = new int[MAX_PREFETCH]; //the neighbors found by prefetchNeighbors(), reused every call
+	private AtomicLong loaded = new AtomicLong(); //how many maps were loaded in the background
+	private AtomicLong cancelled = new AtomicLong(); //how many loads were cancelled before they started
+
+	/**
+	 * Create a prefetcher with its own background thread.
+	 * @param cache the cache to load maps into
+	 */
+	public MapPrefetcher(MapCache cache){
+		this.cache = cache;
+		executor = Executors.newSingleThreadExecutor(new ThreadFactory(){
+			@Override
+			public Thread newThread(Runnable task) {
+				Thread thread = new Thread(task, "map-prefetch");
+				thread.setDaemon(true); //never keeps the program running
+				thread.setPriority(Thread.MIN_PRIORITY);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * Return the prefetcher that loads into the shared MapCache
+	 * @return MapPrefetcher: the shared prefetcher
+	 */
+	public static synchronized MapPrefetcher getShared(){
+		if (shared == null){
+			shared = new MapPrefetcher(MapCache.getShared());
+		}
+		return shared;
+	}
+
+	/**
+	 * Start loading the neighbors of a map that aren't loaded yet, and cancel
+	 * the loads from the last call that haven't started.
+	 * @param mapNumber the current map's number
+	 * @param current the current map
+	 */
+	public synchronized void prefetchNeighbors(int mapNumber, Map current){
+		cancel();
+		int limit = Math.min(MAX_PREFETCH, cache.getCapacity() - 1);
+		int count = 0;
+		count = addNeighbor(mapNumber, current.getEdgeWarpLeft(), count, limit);
+		count = addNeighbor(mapNumber, current.getEdgeWarpRight(), count, limit);
+		count = addNeighbor(mapNumber, current.getEdgeWarpUp(), count, limit);
+		count = addNeighbor(mapNumber, current.getEdgeWarpDown(), count, limit);
+		for (int i = 0; i < current.getWarpCount(); i++){
+			count = addNeighbor(mapNumber, current.getInMapWarpValue(i, 0), count, limit);
+		}
+		for (int i = 0; i < count; i++){
+			final int neighbor = neighbors[i];
+			pending.add(executor.submit(new Runnable(){
+				@Override
+				public void run() {
+					if (cache.peek(neighbor) == null && MapFileReader.exists(neighbor)){
+						cache.get(neighbor);
+						loaded.incrementAndGet();
+					}
+				}
+			}));
+		}
+	}
+
+	/**
+	 * Add a map to the neighbors, unless it is the current map, is already a neighbor,
+	 * is already loaded, or there are already enough neighbors.
+	 * @return int: the new number of neighbors
+	 */
+	private int addNeighbor(int mapNumber, int neighbor, int count, int limit){
+		if (neighbor == mapNumber || count >= limit || cache.peek(neighbor) != null){
+			return count;
+		}
+		for (int i = 0; i < count; i++){
+			if (neighbors[i] == neighbor){
+				return count;
+			}
+		}
+		neighbors[count] = neighbor;
+		return count + 1;
+	}
+
+	/**
+	 * Cancel every load that hasn't started yet. A load that has started is allowed to finish.
+	 */
+	public synchronized void cancel(){
+		for (Future<?> load : pending){
+			if (load.cancel(false)){
+				cancelled.incrementAndGet();
+			}
+		}
+		pending.clear();
+	}
+
+	/**
+	 * Cancel every load that hasn't started, and stop the background thread. The prefetcher can't be used afterwards.
+	 */
+	public synchronized void shutdown(){
+		cancel();
+		executor.shutdown();
+	}
+
+	/**
+	 * Return how many maps were loaded in the background
+	 * @return long: the number of maps
+	 */
+	public long getLoaded(){
+		return loaded.get();
+	}
+
+	/**
+	 * Return how many loads were cancelled before they started
+	 * @return long: the number of cancelled loads
+	 */
+	public long getCancelled(){
+		return cancelled.get();
+	}
+}
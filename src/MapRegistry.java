@@ -0,0 +1,467 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * A list of every map, stored in one file (maps/registry.txt), so a map can be
+ * found by its number or by a name, and its size, shape count, warp count and
+ * the maps it warps to can be looked up, all without opening the maps folder
+ * or any map file.
+ *
+ * The registry is read once, the first time it is used. After that every
+ * lookup is one hash lookup, and finding an unused map number (for a new map
+ * in the MapMaker) starts from a number that is kept up to date as maps are
+ * added, instead of listing and parsing every file name in the folder.
+ * When a map is saved, only its own entry changes (see update()), but the
+ * whole registry file is written again. That is one short line per map (under
+ * a kilobyte for the maps the game ships with), written once each time a map is
+ * saved by hand, so it isn't worth appending changes and compacting the file later.
+ * If the registry file is missing or broken, it is built once from every map file in the folder.
+ *
+ * Maps that are added to the folder some other way (copied in by hand, for
+ * example) are not seen until the registry is rebuilt with "java MapRegistry -rebuild",
+ * except that getFreeMapNumber() never hands out the number of a map that
+ * exists in any form (see MapFileReader.exists()): it adds that map to the registry and moves on.
+ *
+ * Only the MapMaker uses the registry. The game finds maps with MapFileReader.exists()
+ * and reads them with GameState.loadMap(), since it has to play maps the registry
+ * doesn't know about (a map copied in by hand, or a game that only ships the map pack),
+ * and a map in the map pack is already found without opening any other file (see MapPack).
+ *
+ * Registry file format: one line per map, in map number order:
+ * mapNumber width height shapeCount warpCount destinations name
+ * where destinations are the map numbers the map's edge warps and in-map-warps
+ * lead to, separated by commas (or - if there are none), and name is the rest
+ * of the line (empty if the map has no name). Lines starting with // are notes.
+ *
+ * @version Version 1.4
+ */
+public class MapRegistry {
+	public static final Path DEFAULT_PATH = Paths.get("maps", "registry.txt"); //the registry the game and the MapMaker use
+	private static MapRegistry shared; //the registry at DEFAULT_PATH. read the first time it is used
+	private Path path; //where the registry is stored
+	private HashMap<Integer, Entry> byNumber = new HashMap<Integer, Entry>(); //every map, by map number
+	private HashMap<String, Entry> byName = new HashMap<String, Entry>(); //every map that has a name, by name
+	private int lowestFree; //the lowest map number that isn't used. always kept up to date
+
+	/**
+	 * Read a registry file. If it is missing or broken, build it from the maps folder and write it.
+	 * @param path the registry file
+	 */
+	public MapRegistry(Path path){
+		this.path = path;
+		try {
+			read();
+		} catch (NoSuchFileException nsfe) {
+			rebuild();
+		} catch (IOException | RuntimeException e) {
+			System.out.println("Map registry " + path + " could not be read, building it again: " + e);
+			rebuild();
+		}
+	}
+
+	/**
+	 * Return the registry at DEFAULT_PATH, reading it the first time
+	 * @return MapRegistry: the shared registry
+	 */
+	public static synchronized MapRegistry getShared(){
+		if (shared == null){
+			shared = new MapRegistry(DEFAULT_PATH);
+		}
+		return shared;
+	}
+
+	/**
+	 * Read every entry from the registry file.
+	 * @throws IOException if the file can't be read
+	 */
+	private void read() throws IOException {
+		HashMap<Integer, Entry> numbers = new HashMap<Integer, Entry>();
+		HashMap<String, Entry> names = new HashMap<String, Entry>();
+		for (String line : Files.readAllLines(path, StandardCharsets.UTF_8)){
+			if (line.trim().isEmpty() || line.startsWith("//")){
+				continue; //a note
+			}
+			Entry entry = Entry.parse(line);
+			numbers.put(entry.mapNumber, entry);
+			if (entry.name != null){
+				names.put(entry.name, entry);
+			}
+		}
+		byNumber = numbers;
+		byName = names;
+		lowestFree = 0;
+		advanceLowestFree();
+	}
+
+	/**
+	 * Forget every entry, read every map in the maps folder again, and write the registry.
+	 * Names are kept for maps that still exist.
+	 */
+	public synchronized void rebuild(){
+		HashMap<Integer, Entry> old = byNumber;
+		byNumber = new HashMap<Integer, Entry>();
+		byName = new HashMap<String, Entry>();
+		for (int mapNumber : MapFileReader.listMapNumbers()){
+			Entry previous = old.get(mapNumber);
+			put(new Entry(new MapFileReader(mapNumber), previous != null ? previous.name : null));
+		}
+		lowestFree = 0;
+		advanceLowestFree();
+		save();
+	}
+
+	/**
+	 * Record a map that was just saved (or added), and write the registry. Only this map's entry changes.
+	 * @param reader the map, as read from its file
+	 */
+	public synchronized void update(MapFileReader reader){
+		Entry previous = byNumber.get(reader.getMapNumber());
+		put(new Entry(reader, previous != null ? previous.name : null));
+		advanceLowestFree();
+		save();
+	}
+
+	/**
+	 * Give a map a name, so it can be found with getMapNumber(String). Names must be unique.
+	 * @param mapNumber the map number
+	 * @param name the new name, or null to remove the map's name
+	 */
+	public synchronized void setName(int mapNumber, String name){
+		Entry entry = byNumber.get(mapNumber);
+		if (entry == null){
+			throw new IllegalArgumentException("there is no map " + mapNumber);
+		}
+		if (name != null){
+			name = name.trim();
+			if (name.isEmpty()){
+				name = null;
+			}
+		}
+		if (name != null && byName.containsKey(name) && byName.get(name) != entry){
+			throw new IllegalArgumentException("map " + byName.get(name).mapNumber + " is already called " + name);
+		}
+		put(new Entry(entry, name));
+		save();
+	}
+
+	/**
+	 * Add or replace an entry in both tables. Only called while holding the lock.
+	 */
+	private void put(Entry entry){
+		Entry previous = byNumber.put(entry.mapNumber, entry);
+		if (previous != null && previous.name != null){
+			byName.remove(previous.name);
+		}
+		if (entry.name != null){
+			byName.put(entry.name, entry);
+		}
+	}
+
+	/**
+	 * Move lowestFree up past every map number that is used. Each number is only passed once,
+	 * so over any number of updates this costs one step per map added. Only called while holding the lock.
+	 */
+	private void advanceLowestFree(){
+		while (byNumber.containsKey(lowestFree)){
+			lowestFree++;
+		}
+	}
+
+	/**
+	 * Write every entry to the registry file (the whole file, even if only one entry changed).
+	 * It is written to a temporary file first, then moved into place, so nothing ever reads a half written registry.
+	 * Only called while holding the lock.
+	 */
+	private void save(){
+		Integer[] numbers = byNumber.keySet().toArray(new Integer[0]);
+		Arrays.sort(numbers);
+		List<String> lines = new ArrayList<String>();
+		lines.add("//map registry: one line per map. updated by the MapMaker when a map is saved, rebuild it with \"java MapRegistry -rebuild\"");
+		lines.add("//mapNumber width height shapeCount warpCount destinations name");
+		for (Integer number : numbers){
+			lines.add(byNumber.get(number).toString());
+		}
+		Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+		try {
+			Files.write(temporary, lines, StandardCharsets.UTF_8);
+			Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException ioe) {
+			System.out.println("Map registry " + path + " could not be written: " + ioe);
+		}
+	}
+
+	/**
+	 * Return the entry for a map
+	 * @param mapNumber the map number
+	 * @return Entry: the map's entry, or null if there is no such map
+	 */
+	public synchronized Entry get(int mapNumber){
+		return byNumber.get(mapNumber);
+	}
+
+	/**
+	 * Return the entry for a map, by name
+	 * @param name the map's name
+	 * @return Entry: the map's entry, or null if no map has that name
+	 */
+	public synchronized Entry get(String name){
+		return byName.get(name);
+	}
+
+	/**
+	 * Return the number of the map with a name
+	 * @param name the map's name
+	 * @return int: the map number, or -1 if no map has that name
+	 */
+	public synchronized int getMapNumber(String name){
+		Entry entry = byName.get(name);
+		return entry != null ? entry.mapNumber : -1;
+	}
+
+	/**
+	 * Is there a map with this number?
+	 * @param mapNumber the map number
+	 * @return boolean: true if the map is in the registry
+	 */
+	public synchronized boolean contains(int mapNumber){
+		return byNumber.containsKey(mapNumber);
+	}
+
+	/**
+	 * Return the lowest map number that isn't used, so a new map won't overwrite an existing one.
+	 * A map that isn't in the registry yet (copied in by hand, or only in the map pack or a binary
+	 * or chunk file) is added to it, and its number is skipped.
+	 * @return int: the unused map number
+	 */
+	public synchronized int getFreeMapNumber(){
+		while (MapFileReader.exists(lowestFree)){
+			MapFileReader reader = new MapFileReader(lowestFree);
+			if (reader.getError() == null){
+				update(reader); //moves lowestFree past it
+			} else {
+				lowestFree++; //the map can't be read here (only a chunk file, or a broken file), but its number is still used
+			}
+		}
+		return lowestFree;
+	}
+
+	/**
+	 * Return how many maps are in the registry
+	 * @return int: the number of maps
+	 */
+	public synchronized int size(){
+		return byNumber.size();
+	}
+
+	/**
+	 * Return where the registry is stored
+	 * @return Path: the registry file
+	 */
+	public Path getPath(){
+		return path;
+	}
+
+	/**
+	 * Everything the registry knows about one map. Entries never change; update() replaces them.
+	 */
+	public static class Entry {
+		private final int mapNumber; //the map number
+		private final String name; //the map's name, or null if it has none
+		private final int width; //the width of the map
+		private final int height; //the height of the map
+		private final int shapeCount; //how many shapes the map has, without the duplicates the game leaves out (see MapFileReader)
+		private final int warpCount; //how many in-map-warps the map has
+		private final int[] destinations; //the other maps the map's edge warps and in-map-warps lead to, in increasing order
+
+		/**
+		 * Make an entry from a map that was read.
+		 * @param reader the map
+		 * @param name the map's name, or null
+		 */
+		Entry(MapFileReader reader, String name){
+			mapNumber = reader.getMapNumber();
+			this.name = name;
+			width = reader.getFrameWidth();
+			height = reader.getFrameHeight();
+			shapeCount = reader.getShapeCount();
+			warpCount = reader.getWarpCount();
+			int[] all = new int[4 + warpCount];
+			all[0] = reader.getEdgeWarpLeft();
+			all[1] = reader.getEdgeWarpRight();
+			all[2] = reader.getEdgeWarpUp();
+			all[3] = reader.getEdgeWarpDown();
+			for (int i = 0; i < warpCount; i++){
+				all[4 + i] = reader.getWarpList()[i][0];
+			}
+			Arrays.sort(all);
+			int[] distinct = new int[all.length];
+			int count = 0;
+			for (int destination : all){
+				if (destination != mapNumber && (count == 0 || distinct[count - 1] != destination)){
+					distinct[count++] = destination;
+				}
+			}
+			destinations = Arrays.copyOf(distinct, count);
+		}
+
+		/**
+		 * Make a copy of an entry with a different name.
+		 */
+		private Entry(Entry entry, String name){
+			mapNumber = entry.mapNumber;
+			this.name = name;
+			width = entry.width;
+			height = entry.height;
+			shapeCount = entry.shapeCount;
+			warpCount = entry.warpCount;
+			destinations = entry.destinations;
+		}
+
+		/**
+		 * Make an entry from every value, as stored in the registry file.
+		 */
+		private Entry(int mapNumber, String name, int width, int height, int shapeCount, int warpCount, int[] destinations){
+			this.mapNumber = mapNumber;
+			this.name = name;
+			this.width = width;
+			this.height = height;
+			this.shapeCount = shapeCount;
+			this.warpCount = warpCount;
+			this.destinations = destinations;
+		}
+
+		/**
+		 * Read an entry from a line of the registry file (see the MapRegistry class comment).
+		 * @param line the line
+		 * @return Entry: the entry
+		 * @throws IllegalArgumentException if the line isn't laid out like an entry
+		 */
+		static Entry parse(String line){
+			String[] values = line.split(" ", 7);
+			if (values.length < 6){
+				throw new IllegalArgumentException("not a map registry entry: " + line);
+			}
+			int[] destinations = new int[0];
+			if (!values[5].equals("-")){
+				String[] split = values[5].split(",");
+				destinations = new int[split.length];
+				for (int i = 0; i < split.length; i++){
+					destinations[i] = Integer.parseInt(split[i]);
+				}
+			}
+			String name = values.length == 7 && !values[6].trim().isEmpty() ? values[6].trim() : null;
+			return new Entry(Integer.parseInt(values[0]), name, Integer.parseInt(values[1]), Integer.parseInt(values[2]),
+					Integer.parseInt(values[3]), Integer.parseInt(values[4]), destinations);
+		}
+
+		/**
+		 * Return the entry as a line of the registry file
+		 * @return String: the line
+		 */
+		@Override
+		public String toString(){
+			StringBuilder line = new StringBuilder();
+			line.append(mapNumber).append(' ').append(width).append(' ').append(height).append(' ')
+					.append(shapeCount).append(' ').append(warpCount).append(' ');
+			if (destinations.length == 0){
+				line.append('-');
+			}
+			for (int i = 0; i < destinations.length; i++){
+				line.append(i > 0 ? "," : "").append(destinations[i]);
+			}
+			if (name != null){
+				line.append(' ').append(name);
+			}
+			return line.toString();
+		}
+
+		/**
+		 * Return the map number
+		 * @return int: the map number
+		 */
+		public int getMapNumber(){
+			return mapNumber;
+		}
+
+		/**
+		 * Return the map's name
+		 * @return String: the name, or null if the map has none
+		 */
+		public String getName(){
+			return name;
+		}
+
+		/**
+		 * Return the width of the map
+		 * @return int: the width
+		 */
+		public int getWidth(){
+			return width;
+		}
+
+		/**
+		 * Return the height of the map
+		 * @return int: the height
+		 */
+		public int getHeight(){
+			return height;
+		}
+
+		/**
+		 * Return how many shapes the map has
+		 * @return int: the shape count
+		 */
+		public int getShapeCount(){
+			return shapeCount;
+		}
+
+		/**
+		 * Return how many in-map-warps the map has
+		 * @return int: the warp count
+		 */
+		public int getWarpCount(){
+			return warpCount;
+		}
+
+		/**
+		 * Return the other maps this map's edge warps and in-map-warps lead to
+		 * @return int[]: the map numbers, in increasing order
+		 */
+		public int[] getDestinations(){
+			return destinations.clone();
+		}
+	}
+
+	/**
+	 * Rebuild the registry, or name a map.
+	 * Usage: java MapRegistry -rebuild, or java MapRegistry -name (map number) (name)
+	 * @param args see above
+	 */
+	public static void main(String[] args){
+		if (args.length == 1 && args[0].equals("-rebuild")){
+			MapRegistry registry = getShared();
+			registry.rebuild();
+			System.out.println(registry.size() + " maps in " + registry.getPath());
+		} else if (args.length >= 2 && args[0].equals("-name")){
+			String name = args.length > 2 ? String.join(" ", Arrays.copyOfRange(args, 2, args.length)) : null;
+			try {
+				getShared().setName(Integer.parseInt(args[1]), name);
+			} catch (IllegalArgumentException iae) {
+				System.out.println(iae.getMessage());
+				System.exit(1);
+			}
+		} else {
+			System.out.println("Usage: java MapRegistry -rebuild, or java MapRegistry -name (map number) (name)");
+			System.exit(2);
+		}
+	}
+}
@@ -0,0 +1,144 @@
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Watches the maps folder while the game is running, and reloads a map as soon
+ * as its file changes (for example when it is saved in the MapMaker), so the
+ * new version shows up without warping away and back.
+ *
+ * The watcher runs on its own daemon thread. When a map's text, binary or chunk file
+ * changes, it waits a moment for the write to finish, reads the map again on its
+ * own thread, and puts the new version in a MapCache with MapCache.reload().
+ * Only maps that are in the cache are read again. A game using the cache
+ * switches to the new version at the start of its next tick, and keeps the
+ * player where they are. If the map pack changes, every map in the cache is
+ * read again.
+ *
+ * @version Version 1.4
+ */
+public class MapWatcher implements Runnable {
+	private static final long SETTLE_MILLIS = 50; //how long to wait after a change before reading, so a file that is still being written isn't read
+	private static MapWatcher shared; //watches maps/ for the shared MapCache. created the first time it is used
+	private MapCache cache; //where the new versions of maps go
+	private Path directory; //the folder being watched
+	private WatchService watchService; //tells the watcher when files in the folder change
+	private AtomicLong reloads = new AtomicLong(); //how many maps have been read again
+
+	/**
+	 * Start watching a folder of maps.
+	 * @param cache the cache to put new versions of maps in
+	 * @param directory the folder to watch
+	 * @throws IOException if the folder can't be watched
+	 */
+	public MapWatcher(MapCache cache, Path directory) throws IOException {
+		this.cache = cache;
+		this.directory = directory;
+		watchService = FileSystems.getDefault().newWatchService();
+		directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+		Thread thread = new Thread(this, "map-watcher");
+		thread.setDaemon(true); //never keeps the program running
+		thread.start();
+	}
+
+	/**
+	 * Return the watcher that watches maps/ for the shared MapCache, starting it the first time.
+	 * @return MapWatcher: the shared watcher, or null if maps/ can't be watched
+	 */
+	public static synchronized MapWatcher getShared(){
+		if (shared == null){
+			try {
+				shared = new MapWatcher(MapCache.getShared(), Paths.get("maps"));
+			} catch (IOException ioe) {
+				System.out.println("Can't watch the maps folder for changes: " + ioe);
+			}
+		}
+		return shared;
+	}
+
+	/**
+	 * Wait for files to change, and reload the maps they belong to, until stop() is called.
+	 */
+	@Override
+	public void run(){
+		TreeSet<Integer> changed = new TreeSet<Integer>();
+		try {
+			while (true){
+				WatchKey key = watchService.take();
+				boolean packChanged = false;
+				//a save often shows up as several events. collect them all before reading anything
+				do {
+					for (WatchEvent<?> event : key.pollEvents()){
+						if (event.kind() == StandardWatchEventKinds.OVERFLOW){
+							packChanged = true; //some events were lost, so read everything again
+							continue;
+						}
+						String name = event.context().toString();
+						if (name.equals(MapPack.DEFAULT_PATH.getFileName().toString())){
+							packChanged = true;
+						} else if (name.matches("[0-9]{1,9}\\.(txt|bin|chunks)")){
+							changed.add(Integer.parseInt(name.substring(0, name.indexOf('.'))));
+						}
+					}
+					key.reset();
+					key = watchService.poll(SETTLE_MILLIS, TimeUnit.MILLISECONDS);
+				} while (key != null);
+				if (packChanged || !changed.isEmpty()){
+					MapPack.resetShared(); //the pack only looks for loose map files that could be newer than it when it is opened
+				}
+				if (packChanged){
+					for (int mapNumber : cache.getMapNumbers()){
+						changed.add(mapNumber);
+					}
+				}
+				for (int mapNumber : changed){
+					if (cache.reload(mapNumber)){
+						reloads.incrementAndGet();
+					}
+				}
+				changed.clear();
+			}
+		} catch (ClosedWatchServiceException e) {
+			//stop() was called
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt(); //something else wants this thread to stop
+		}
+	}
+
+	/**
+	 * Stop watching. Maps that are being read finish first.
+	 */
+	public void stop(){
+		try {
+			watchService.close();
+		} catch (IOException ioe) {
+			//already closed
+		}
+		//the thread isn't interrupted, since that would break a map file that is being read. closing the watch service wakes it up
+	}
+
+	/**
+	 * Return the folder being watched
+	 * @return Path: the folder
+	 */
+	public Path getDirectory(){
+		return directory;
+	}
+
+	/**
+	 * Return how many maps have been read again because their files changed
+	 * @return long: the number of reloads
+	 */
+	public long getReloads(){
+		return reloads.get();
+	}
+}
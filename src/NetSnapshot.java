@@ -0,0 +1,271 @@
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * The positions of the players one client can see on its map, at one server tick.
+ * This is what the GameServer sends to each GameClient.
+ *
+ * Players are always kept in order of their ids, so that two snapshots can be
+ * compared in a single pass. Instead of sending every position every time,
+ * the server sends the difference (the delta) between the new snapshot and
+ * the last snapshot that the client told the server it received. Players that
+ * did not move are not sent at all, players that moved a little are sent as
+ * two bytes, and players that moved far (or are new) are sent in full.
+ *
+ * Both the server and the client keep a small ring of recent snapshots, so
+ * that the same base snapshot can be found on both sides.
+ *
+ * @version Version 1.4
+ */
+public class NetSnapshot {
+	public static final int NO_TICK = -1; //the tick of a snapshot that hasn't been filled in, and the base tick of a full (not delta) snapshot
+	public static final int HISTORY_SIZE = 32; //how many recent snapshots the server and client remember
+	private static final int FLAG_REMOVED = 1; //entry flag: the player is no longer on this map
+	private static final int FLAG_SMALL = 2; //entry flag: the move is small enough to be sent as one byte for x and one for y
+	private static final int HEADER_SIZE = 4 + 4 + 4 + 2; //bytes before the entries: tick, base tick, map number, entry count
+	private static final int REMOVED_SIZE = 1 + 4; //bytes in a removed entry: flags, id
+	private static final int FULL_SIZE = 1 + 4 + 4 + 4; //bytes in a full entry, the biggest kind: flags, id, x, y
+	private static final int INITIAL_CAPACITY = 16; //how many players fit before the arrays grow
+	private int tick = NO_TICK; //the server tick of this snapshot
+	private int mapNumber; //the map that these players are on
+	private int count; //how many players are in this snapshot
+	private int[] ids = new int[INITIAL_CAPACITY]; //the id of each player, in increasing order
+	private int[] xs = new int[INITIAL_CAPACITY]; //the x position of each player
+	private int[] ys = new int[INITIAL_CAPACITY]; //the y position of each player
+
+	/**
+	 * Start filling in this snapshot again, removing every player.
+	 * @param tick the server tick of the snapshot
+	 * @param mapNumber the map the players are on
+	 */
+	public void clear(int tick, int mapNumber){
+		this.tick = tick;
+		this.mapNumber = mapNumber;
+		count = 0;
+	}
+
+	/**
+	 * Add a player. Players must be added in order of increasing id.
+	 * @param id the player's id
+	 * @param x the player's x position
+	 * @param y the player's y position
+	 */
+	public void add(int id, int x, int y){
+		if (count == ids.length){
+			int size = count * 2;
+			ids = Arrays.copyOf(ids, size);
+			xs = Arrays.copyOf(xs, size);
+			ys = Arrays.copyOf(ys, size);
+		}
+		ids[count] = id;
+		xs[count] = x;
+		ys[count] = y;
+		count++;
+	}
+
+	/**
+	 * Make this snapshot a copy of another one.
+	 * @param other the snapshot to copy
+	 */
+	public void copyFrom(NetSnapshot other){
+		clear(other.tick, other.mapNumber);
+		if (ids.length < other.count){
+			ids = new int[other.ids.length];
+			xs = new int[other.ids.length];
+			ys = new int[other.ids.length];
+		}
+		System.arraycopy(other.ids, 0, ids, 0, other.count);
+		System.arraycopy(other.xs, 0, xs, 0, other.count);
+		System.arraycopy(other.ys, 0, ys, 0, other.count);
+		count = other.count;
+	}
+
+	/**
+	 * Return the most bytes encodeDelta() can write, when every player in the base
+	 * is removed and every player in the new snapshot is sent in full
+	 * @param baseCount how many players are in the base
+	 * @param currentCount how many players are in the new snapshot
+	 * @return int: the largest possible size, in bytes
+	 */
+	public static int getMaxDeltaSize(int baseCount, int currentCount){
+		return HEADER_SIZE + baseCount * REMOVED_SIZE + currentCount * FULL_SIZE;
+	}
+
+	/**
+	 * Write the difference between base and current into a buffer:
+	 * tick, base tick, map number, entry count, then the entries.
+	 * The buffer must have room for getMaxDeltaSize() bytes; GameServer makes sure
+	 * of this by never putting more than GameServer.MAX_VISIBLE players in a snapshot.
+	 * @param base the snapshot the client already has, or null to send everything
+	 * @param current the new snapshot
+	 * @param out the buffer to write into
+	 */
+	public static void encodeDelta(NetSnapshot base, NetSnapshot current, ByteBuffer out){
+		out.putInt(current.tick);
+		out.putInt(base == null ? NO_TICK : base.tick);
+		out.putInt(current.mapNumber);
+		int countPosition = out.position();
+		out.putShort((short) 0); //the entry count, filled in at the end
+		int entries = 0;
+		int baseCount = base == null ? 0 : base.count;
+		int b = 0;
+		for (int c = 0; c < current.count; c++){
+			int id = current.ids[c];
+			while (b < baseCount && base.ids[b] < id){
+				//in the base but not here anymore
+				out.put((byte) FLAG_REMOVED);
+				out.putInt(base.ids[b]);
+				entries++;
+				b++;
+			}
+			int x = current.xs[c];
+			int y = current.ys[c];
+			if (b < baseCount && base.ids[b] == id){
+				int dx = x - base.xs[b];
+				int dy = y - base.ys[b];
+				b++;
+				if (dx == 0 && dy == 0){
+					continue; //didn't move, nothing to send
+				}
+				if (dx >= Byte.MIN_VALUE && dx <= Byte.MAX_VALUE && dy >= Byte.MIN_VALUE && dy <= Byte.MAX_VALUE){
+					out.put((byte) FLAG_SMALL);
+					out.putInt(id);
+					out.put((byte) dx);
+					out.put((byte) dy);
+					entries++;
+					continue;
+				}
+			}
+			//new, or moved too far for a small entry
+			out.put((byte) 0);
+			out.putInt(id);
+			out.putInt(x);
+			out.putInt(y);
+			entries++;
+		}
+		for (; b < baseCount; b++){
+			out.put((byte) FLAG_REMOVED);
+			out.putInt(base.ids[b]);
+			entries++;
+		}
+		out.putShort(countPosition, (short) entries);
+	}
+
+	/**
+	 * Read a snapshot written by encodeDelta(), and apply it to base.
+	 * The buffer must be positioned just after the tick and base tick,
+	 * which the caller reads first to find the base snapshot.
+	 * @param base the base snapshot, or null if the base tick was NO_TICK
+	 * @param tick the tick read from the buffer
+	 * @param in the buffer to read from
+	 * @param result the snapshot to fill in. must not be the same object as base
+	 */
+	public static void decodeDelta(NetSnapshot base, int tick, ByteBuffer in, NetSnapshot result){
+		result.clear(tick, in.getInt());
+		int entries = in.getShort() & 0xFFFF;
+		int baseCount = base == null ? 0 : base.count;
+		int b = 0;
+		for (int e = 0; e < entries; e++){
+			int flags = in.get();
+			int id = in.getInt();
+			//players in the base that come before this entry didn't change
+			while (b < baseCount && base.ids[b] < id){
+				result.add(base.ids[b], base.xs[b], base.ys[b]);
+				b++;
+			}
+			boolean inBase = b < baseCount && base.ids[b] == id;
+			if ((flags & FLAG_REMOVED) != 0){
+				//leave the player out
+			} else if ((flags & FLAG_SMALL) != 0){
+				int dx = in.get();
+				int dy = in.get();
+				result.add(id, base.xs[b] + dx, base.ys[b] + dy);
+			} else {
+				result.add(id, in.getInt(), in.getInt());
+			}
+			if (inBase){
+				b++;
+			}
+		}
+		for (; b < baseCount; b++){
+			result.add(base.ids[b], base.xs[b], base.ys[b]);
+		}
+	}
+
+	/**
+	 * Find the snapshot for a tick in a ring of recent snapshots.
+	 * @param history the ring, indexed by tick % HISTORY_SIZE
+	 * @param tick the tick to look for
+	 * @return NetSnapshot: the snapshot, or null if it isn't in the ring anymore
+	 */
+	public static NetSnapshot find(NetSnapshot[] history, int tick){
+		if (tick < 0){
+			return null;
+		}
+		NetSnapshot snapshot = history[tick % HISTORY_SIZE];
+		return snapshot.tick == tick ? snapshot : null;
+	}
+
+	/**
+	 * Create a ring of empty snapshots
+	 * @return NetSnapshot[]: HISTORY_SIZE empty snapshots
+	 */
+	public static NetSnapshot[] createHistory(){
+		NetSnapshot[] history = new NetSnapshot[HISTORY_SIZE];
+		for (int i = 0; i < HISTORY_SIZE; i++){
+			history[i] = new NetSnapshot();
+		}
+		return history;
+	}
+
+	/**
+	 * Return the server tick of this snapshot
+	 * @return int: the tick, or NO_TICK if the snapshot is empty
+	 */
+	public int getTick(){
+		return tick;
+	}
+
+	/**
+	 * Return the map that the players in this snapshot are on
+	 * @return int: the map number
+	 */
+	public int getMapNumber(){
+		return mapNumber;
+	}
+
+	/**
+	 * Return how many players are in this snapshot
+	 * @return int: the number of players
+	 */
+	public int getCount(){
+		return count;
+	}
+
+	/**
+	 * Return the id of a player
+	 * @param index which player, from 0 to getCount() - 1
+	 * @return int: the player's id
+	 */
+	public int getId(int index){
+		return ids[index];
+	}
+
+	/**
+	 * Return the x position of a player
+	 * @param index which player, from 0 to getCount() - 1
+	 * @return int: the x position
+	 */
+	public int getX(int index){
+		return xs[index];
+	}
+
+	/**
+	 * Return the y position of a player
+	 * @param index which player, from 0 to getCount() - 1
+	 * @return int: the y position
+	 */
+	public int getY(int index){
+		return ys[index];
+	}
+}
@@ -0,0 +1,635 @@
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * All of the non-player characters (NPCs) on one map.
+ *
+ * NPCs walk, jump, climb, swim and fall by the same rules as the player
+ * (see GameState.move(), checkClimb() and the fall timers), using the same
+ * collision and climbability checks. Instead of one Player object and four
+ * TickTimers per NPC, every piece of NPC state is kept in its own array, with
+ * one entry per NPC, and each timer is just a countdown in an array. tick()
+ * updates every NPC in one pass, so the cost of a tick grows in a straight
+ * line with the number of NPCs, and ticking never creates any new objects.
+ *
+ * NPCs are controlled with the same input bits as GameState.setInputMask().
+ * An NPC that is patrolling turns around whenever it walks into a wall.
+ *
+ * The pool belongs to one map. GameState keeps it while the player stays on
+ * that map (including wrapping around the edges). QuickSave saves the NPCs
+ * with the rest of the game, but a GameSnapshot doesn't hold them.
+ *
+ * NPCs never leave their map: the map edges act like walls, in-map-warps
+ * are treated like empty space, and an NPC that falls off the bottom of the
+ * map goes back to where it was spawned.
+ *
+ * @version Version 1.4
+ */
+public class NpcPool {
+	private static final int INITIAL_CAPACITY = 16; //how many NPCs fit before the arrays grow
+	private static final int JUMP_PERIOD = Math.max(1, GameState.JUMP_TIMER_FREQUENCY / TickTimer.TICK_LENGTH); //how many ticks between jump steps
+	private static final int FALL_PERIOD = Math.max(1, GameState.FALL_TIMER_FREQUENCY / TickTimer.TICK_LENGTH); //how many ticks between fall steps
+	private static final int FAST_FALL_PERIOD = Math.max(1, GameState.FAST_FALL_TIMER_FREQUENCY / TickTimer.TICK_LENGTH); //how many ticks between fast fall steps
+	private static final int MOVE_PERIOD = Math.max(1, GameState.MOVE_TIMER_FREQUENCY / TickTimer.TICK_LENGTH); //how many ticks between moves while input is held
+	//input bits, the same as GameState.setInputMask(): bit n is key code n
+	private static final int LEFT = 1 << GameState.KEY_LEFT; //the input bit for walking left
+	private static final int UP = 1 << GameState.KEY_UP; //the input bit for jumping and climbing
+	private static final int RIGHT = 1 << GameState.KEY_RIGHT; //the input bit for walking right
+	private static final int DOWN = 1 << GameState.KEY_DOWN; //the input bit for climbing down
+	private static final int DIRECTIONS = LEFT | UP | RIGHT | DOWN; //the input bits that make an NPC move
+	static final int SAVED_BYTES = 12 * 4 + 2 * 8; //how many bytes write() uses for each NPC
+	//bits in the flags array
+	private static final int JUMPING = 1; //the jump "timer" is running
+	private static final int FALLING = 2; //the fall "timer" is running
+	private static final int FAST_FALLING = 4; //the fast fall "timer" is running (same as GameState.fastFalling)
+	private static final int MOVING = 8; //the move "timer" is running
+	private static final int PATROL = 16; //turn around when walking into a wall
+	private Map map; //the map the NPCs are on. it is only read, never changed
+	private int count; //how many NPCs there are
+	private int[] x = new int[INITIAL_CAPACITY]; //the x position of each NPC
+	private int[] y = new int[INITIAL_CAPACITY]; //the y position of each NPC
+	private int[] spawnX = new int[INITIAL_CAPACITY]; //where each NPC goes back to if it falls off the map
+	private int[] spawnY = new int[INITIAL_CAPACITY]; //where each NPC goes back to if it falls off the map
+	private int[] step = new int[INITIAL_CAPACITY]; //which step of the walking animation each NPC is on
+	private int[] jumpStep = new int[INITIAL_CAPACITY]; //which step of the jump each NPC is on (3 when not jumping), like GameState.jumpStep
+	private int[] input = new int[INITIAL_CAPACITY]; //the input bits each NPC is "holding down"
+	private int[] flags = new int[INITIAL_CAPACITY]; //which timers are running for each NPC, plus PATROL
+	private int[] jumpCountdown = new int[INITIAL_CAPACITY]; //ticks until each NPC's next jump step
+	private int[] fallCountdown = new int[INITIAL_CAPACITY]; //ticks until each NPC's next fall step
+	private int[] fastFallCountdown = new int[INITIAL_CAPACITY]; //ticks until each NPC's next fast fall step
+	private int[] moveCountdown = new int[INITIAL_CAPACITY]; //ticks until each NPC's next move
+	private double[] gravity = new double[INITIAL_CAPACITY]; //each NPC's fall speed, like GameState.gravityStart
+	private double[] fastGravity = new double[INITIAL_CAPACITY]; //each NPC's fast fall speed, like GameState.fastGravityStart
+
+	/**
+	 * Create an empty pool of NPCs for a map.
+	 * @param map the map the NPCs will be on
+	 */
+	public NpcPool(Map map){
+		this.map = map;
+	}
+
+	/**
+	 * Add an NPC.
+	 * @param spawnX the x position to start at
+	 * @param spawnY the y position to start at
+	 * @param input the input bits to hold down (see GameState.setInputMask())
+	 * @param patrol should the NPC turn around when it walks into a wall?
+	 * @return int: the index of the new NPC
+	 */
+	public int spawn(int spawnX, int spawnY, int input, boolean patrol){
+		if (count == x.length){
+			grow();
+		}
+		int i = count++;
+		this.spawnX[i] = spawnX;
+		this.spawnY[i] = spawnY;
+		this.input[i] = input;
+		flags[i] = patrol ? PATROL : 0;
+		respawn(i);
+		return i;
+	}
+
+	/**
+	 * Remove an NPC. The last NPC takes its place (and its index).
+	 * @param i the index of the NPC to remove
+	 */
+	public void remove(int i){
+		int last = --count;
+		x[i] = x[last];
+		y[i] = y[last];
+		spawnX[i] = spawnX[last];
+		spawnY[i] = spawnY[last];
+		step[i] = step[last];
+		jumpStep[i] = jumpStep[last];
+		input[i] = input[last];
+		flags[i] = flags[last];
+		jumpCountdown[i] = jumpCountdown[last];
+		fallCountdown[i] = fallCountdown[last];
+		fastFallCountdown[i] = fastFallCountdown[last];
+		moveCountdown[i] = moveCountdown[last];
+		gravity[i] = gravity[last];
+		fastGravity[i] = fastGravity[last];
+	}
+
+	/**
+	 * Remove every NPC.
+	 */
+	public void clear(){
+		count = 0;
+	}
+
+	/**
+	 * Make this pool hold exactly the same NPCs as another pool, in the same state.
+	 * The map isn't copied. No new objects are created unless this pool needs more room.
+	 * @param other the pool to copy
+	 */
+	public void copyFrom(NpcPool other){
+		while (x.length < other.count){
+			grow();
+		}
+		count = other.count;
+		System.arraycopy(other.x, 0, x, 0, count);
+		System.arraycopy(other.y, 0, y, 0, count);
+		System.arraycopy(other.spawnX, 0, spawnX, 0, count);
+		System.arraycopy(other.spawnY, 0, spawnY, 0, count);
+		System.arraycopy(other.step, 0, step, 0, count);
+		System.arraycopy(other.jumpStep, 0, jumpStep, 0, count);
+		System.arraycopy(other.input, 0, input, 0, count);
+		System.arraycopy(other.flags, 0, flags, 0, count);
+		System.arraycopy(other.jumpCountdown, 0, jumpCountdown, 0, count);
+		System.arraycopy(other.fallCountdown, 0, fallCountdown, 0, count);
+		System.arraycopy(other.fastFallCountdown, 0, fastFallCountdown, 0, count);
+		System.arraycopy(other.moveCountdown, 0, moveCountdown, 0, count);
+		System.arraycopy(other.gravity, 0, gravity, 0, count);
+		System.arraycopy(other.fastGravity, 0, fastGravity, 0, count);
+	}
+
+	/**
+	 * Write every NPC into a buffer: the NPC count, then SAVED_BYTES for each NPC. Used by QuickSave.
+	 * @param buffer the buffer to write to. it must have room for 4 + getCount() * SAVED_BYTES bytes
+	 */
+	public void write(ByteBuffer buffer){
+		buffer.putInt(count);
+		for (int i = 0; i < count; i++){
+			buffer.putInt(x[i]);
+			buffer.putInt(y[i]);
+			buffer.putInt(spawnX[i]);
+			buffer.putInt(spawnY[i]);
+			buffer.putInt(step[i]);
+			buffer.putInt(jumpStep[i]);
+			buffer.putInt(input[i]);
+			buffer.putInt(flags[i]);
+			buffer.putInt(jumpCountdown[i]);
+			buffer.putInt(fallCountdown[i]);
+			buffer.putInt(fastFallCountdown[i]);
+			buffer.putInt(moveCountdown[i]);
+			buffer.putDouble(gravity[i]);
+			buffer.putDouble(fastGravity[i]);
+		}
+	}
+
+	/**
+	 * Replace every NPC with the NPCs in a buffer, as written by write().
+	 * @param buffer the buffer to read from
+	 * @throws IllegalArgumentException if the buffer doesn't hold as many NPCs as it says
+	 */
+	public void read(ByteBuffer buffer){
+		int newCount = buffer.getInt();
+		if (newCount < 0 || (long) newCount * SAVED_BYTES > buffer.remaining()){
+			throw new IllegalArgumentException("the buffer doesn't hold " + newCount + " NPCs");
+		}
+		while (x.length < newCount){
+			grow();
+		}
+		count = newCount;
+		for (int i = 0; i < count; i++){
+			x[i] = buffer.getInt();
+			y[i] = buffer.getInt();
+			spawnX[i] = buffer.getInt();
+			spawnY[i] = buffer.getInt();
+			step[i] = buffer.getInt();
+			jumpStep[i] = buffer.getInt();
+			input[i] = buffer.getInt();
+			flags[i] = buffer.getInt();
+			jumpCountdown[i] = buffer.getInt();
+			fallCountdown[i] = buffer.getInt();
+			fastFallCountdown[i] = buffer.getInt();
+			moveCountdown[i] = buffer.getInt();
+			gravity[i] = buffer.getDouble();
+			fastGravity[i] = buffer.getDouble();
+		}
+	}
+
+	/**
+	 * Make every array twice as big.
+	 */
+	private void grow(){
+		int size = x.length * 2;
+		x = Arrays.copyOf(x, size);
+		y = Arrays.copyOf(y, size);
+		spawnX = Arrays.copyOf(spawnX, size);
+		spawnY = Arrays.copyOf(spawnY, size);
+		step = Arrays.copyOf(step, size);
+		jumpStep = Arrays.copyOf(jumpStep, size);
+		input = Arrays.copyOf(input, size);
+		flags = Arrays.copyOf(flags, size);
+		jumpCountdown = Arrays.copyOf(jumpCountdown, size);
+		fallCountdown = Arrays.copyOf(fallCountdown, size);
+		fastFallCountdown = Arrays.copyOf(fastFallCountdown, size);
+		moveCountdown = Arrays.copyOf(moveCountdown, size);
+		gravity = Arrays.copyOf(gravity, size);
+		fastGravity = Arrays.copyOf(fastGravity, size);
+	}
+
+	/**
+	 * Advance every NPC by one tick. For each NPC, the timers are ticked in
+	 * the same order as in GameState.tick(): jump, fall, fast fall, move.
+	 * @return boolean: true if any NPC moved or changed its step, so the window needs to be repainted
+	 */
+	public boolean tick(){
+		boolean changed = false;
+		for (int i = 0; i < count; i++){
+			if (!map.isLoaded(x[i], y[i])){
+				continue; //the map around this NPC isn't loaded (it is streamed in chunks), so it waits until it is
+			}
+			int oldX = x[i];
+			int oldY = y[i];
+			int oldStep = step[i];
+			if ((flags[i] & JUMPING) != 0 && --jumpCountdown[i] <= 0){
+				jumpCountdown[i] = JUMP_PERIOD;
+				jump(i);
+			}
+			if ((flags[i] & FALLING) != 0 && --fallCountdown[i] <= 0){
+				fallCountdown[i] = FALL_PERIOD;
+				fall(i);
+			}
+			if ((flags[i] & FAST_FALLING) != 0 && --fastFallCountdown[i] <= 0){
+				fastFallCountdown[i] = FAST_FALL_PERIOD;
+				fastFall(i);
+			}
+			if ((input[i] & DIRECTIONS) == 0){
+				flags[i] &= ~MOVING;
+			} else if ((flags[i] & MOVING) == 0){
+				flags[i] |= MOVING;
+				moveCountdown[i] = MOVE_PERIOD;
+			} else if (--moveCountdown[i] <= 0){
+				moveCountdown[i] = MOVE_PERIOD;
+				moveHeld(i);
+			}
+			changed |= x[i] != oldX || y[i] != oldY || step[i] != oldStep;
+		}
+		return changed;
+	}
+
+	/**
+	 * Start one of an NPC's timers, if it isn't already running (like TickTimer.start()).
+	 * @param i the NPC
+	 * @param timer JUMPING, FALLING or FAST_FALLING
+	 */
+	private void start(int i, int timer){
+		if ((flags[i] & timer) != 0){
+			return;
+		}
+		flags[i] |= timer;
+		if (timer == JUMPING){
+			jumpCountdown[i] = JUMP_PERIOD;
+		} else if (timer == FALLING){
+			fallCountdown[i] = FALL_PERIOD;
+		} else {
+			fastFallCountdown[i] = FAST_FALL_PERIOD;
+		}
+	}
+
+	/**
+	 * Return the climbability around an NPC. In-map-warps count as nothing, since NPCs don't warp.
+	 * @param i the NPC
+	 * @return int: 0, 1, 2 or 3 (see GameState.checkClimb())
+	 */
+	private int climb(int i){
+		int priority = GameState.getClimbPriority(map, x[i], y[i]);
+		return priority >= 10 ? 0 : priority;
+	}
+
+	/**
+	 * Is an NPC standing on the ground? Same as GameState.isOnGround().
+	 * @param i the NPC
+	 * @return boolean: true if it is
+	 */
+	private boolean onGround(int i){
+		return !GameState.checkCollision(map, 'd', x[i], y[i]);
+	}
+
+	/**
+	 * Has an NPC fallen off the bottom of the map? If it has, send it back to its spawn point.
+	 * @param i the NPC
+	 * @return boolean: true if it fell off and was respawned
+	 */
+	private boolean checkFellOff(int i){
+		if (y[i] >= map.getFrameHeight() + GameState.BOTTOM_EDGE_WARP_OFFSET){
+			respawn(i);
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Put an NPC back at its spawn point, standing still.
+	 * @param i the NPC
+	 */
+	private void respawn(int i){
+		x[i] = spawnX[i];
+		y[i] = spawnY[i];
+		step[i] = 0;
+		jumpStep[i] = 3;
+		flags[i] &= PATROL | MOVING;
+		gravity[i] = GameState.GRAVITY_INITIAL_SPEED;
+		fastGravity[i] = GameState.FAST_GRAVITY_INITIAL_SPEED;
+		checkFall(i);
+	}
+
+	/**
+	 * Same as GameState.checkFall(): start falling if not on the ground or on something climbable.
+	 * @param i the NPC
+	 */
+	private void checkFall(int i){
+		int climb = climb(i);
+		if (!onGround(i) && climb != 1 && climb != 3 && (flags[i] & FAST_FALLING) == 0){
+			start(i, FALLING);
+		}
+	}
+
+	/**
+	 * Same as GameState.resetFallSpeed().
+	 * @param i the NPC
+	 */
+	private void resetFallSpeed(int i){
+		if (climb(i) != 2){
+			flags[i] &= ~(FAST_FALLING | FALLING);
+		}
+		gravity[i] = GameState.GRAVITY_INITIAL_SPEED;
+		fastGravity[i] = GameState.FAST_GRAVITY_INITIAL_SPEED;
+	}
+
+	/**
+	 * Stop falling, the same way the player does when landing.
+	 * @param i the NPC
+	 */
+	private void land(int i){
+		flags[i] &= ~(FALLING | FAST_FALLING);
+		step[i] = 0;
+		resetFallSpeed(i);
+		checkFall(i);
+	}
+
+	/**
+	 * One step of the jump, same as the jumpTimer in GameState.
+	 * @param i the NPC
+	 */
+	private void jump(int i){
+		if (jumpStep[i] <= 1){
+			if (GameState.checkCollision(map, 'd', x[i], y[i] - GameState.MOVE_SIZE) && y[i] - 3 > 0 - GameState.TOP_EDGE_WARP_OFFSET){
+				y[i] -= 3;
+			}
+		} else if (jumpStep[i] == 2){
+			flags[i] &= ~JUMPING;
+			step[i] = 0;
+			checkFall(i);
+		}
+		jumpStep[i]++;
+	}
+
+	/**
+	 * One step of a short fall, same as the fallTimer in GameState.
+	 * @param i the NPC
+	 */
+	private void fall(int i){
+		int steps = (int) (gravity[i] / GameState.GRAVITY_DIVIDER);
+		for (int k = 0; k < steps; k++){
+			if (!onGround(i) && climb(i) == 0 && (flags[i] & FAST_FALLING) == 0){
+				y[i] += GameState.PARTIAL_JUMP_HEIGHT;
+				if (checkFellOff(i)){
+					return;
+				}
+				if (GameState.USE_GRAVITY_ACCELERATION){
+					if (gravity[i] <= GameState.TERMINAL_VELOCITY * GameState.GRAVITY_DIVIDER){
+						gravity[i] += GameState.GRAVITY_ACCELERATION;
+					}
+					if (gravity[i] / GameState.GRAVITY_DIVIDER >= 3){
+						start(i, FAST_FALLING);
+						flags[i] &= ~FALLING;
+					}
+				}
+			}
+		}
+		if (!onGround(i) && climb(i) == 0 && (flags[i] & FAST_FALLING) == 0){
+			y[i] += GameState.PARTIAL_JUMP_HEIGHT;
+			checkFellOff(i);
+		} else if (!onGround(i) && climb(i) == 2){
+			//sink slowly in water
+			y[i] += GameState.PARTIAL_JUMP_HEIGHT;
+			if (!checkFellOff(i)){
+				resetFallSpeed(i);
+			}
+		} else if ((flags[i] & FAST_FALLING) != 0){
+			flags[i] &= ~FALLING;
+		} else {
+			land(i);
+		}
+	}
+
+	/**
+	 * One step of a fast fall, same as the fastFallTimer in GameState:
+	 * the hitbox is swept down the whole distance at once.
+	 * @param i the NPC
+	 */
+	private void fastFall(int i){
+		int loopSteps = (int) (fastGravity[i] / GameState.FAST_GRAVITY_DIVIDER);
+		int remaining = loopSteps + 1;
+		while (remaining > 0){
+			int distance = GameState.sweepFall(map, x[i], y[i], remaining);
+			if (distance == 0 && GameState.getClimbPriority(map, x[i], y[i]) >= 10){
+				distance = 1; //NPCs fall straight through in-map-warps
+			}
+			if (distance == 0){
+				land(i);
+				return;
+			}
+			y[i] += distance;
+			fastGravity[i] = GameState.accelerateFastFall(fastGravity[i], Math.min(distance, loopSteps));
+			loopSteps = Math.max(0, loopSteps - distance);
+			remaining -= distance;
+			if (checkFellOff(i)){
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Move while input is held, the same way as the moveTimer in GameState.
+	 * @param i the NPC
+	 */
+	private void moveHeld(int i){
+		int keys = input[i];
+		boolean left = (keys & LEFT) != 0;
+		boolean up = (keys & UP) != 0;
+		boolean right = (keys & RIGHT) != 0;
+		boolean down = (keys & DOWN) != 0;
+		char side = left ? 'l' : 'r';
+		if (left || right){
+			boolean moved;
+			if (up){
+				boolean move1 = move(i, 'u');
+				moved = move(i, side);
+				int climb = climb(i);
+				if (move1 && moved && (climb == 1 || climb == 3)){
+					incStep(i);
+				}
+			} else if (down){
+				boolean move1 = move(i, 'd');
+				moved = move(i, side);
+				int climb = climb(i);
+				if (move1 && moved && climb != 0){
+					incStep(i);
+				}
+			} else {
+				moved = move(i, side);
+			}
+			if (!moved && (flags[i] & PATROL) != 0){
+				//walked into a wall. turn around
+				input[i] ^= LEFT | RIGHT;
+			}
+		} else if (up){
+			move(i, 'u');
+		} else if (down){
+			move(i, 'd');
+		}
+	}
+
+	/**
+	 * Move an NPC in a direction if it can, the same way as GameState.move(),
+	 * except that the map edges are walls.
+	 * @param i the NPC
+	 * @param dir 'l', 'r', 'u' or 'd'
+	 * @return boolean: true if the NPC moved
+	 */
+	private boolean move(int i, char dir){
+		boolean moved = false;
+		if (dir == 'r'){
+			for (int k = 0; k < 3; k++){
+				int newX = x[i] + GameState.PARTIAL_MOVE_SIZE;
+				if (newX < map.getFrameWidth() + GameState.RIGHT_EDGE_WARP_OFFSET && GameState.checkCollision(map, 'r', newX, y[i])){
+					x[i] = newX;
+					moved = true;
+				}
+			}
+		} else if (dir == 'l'){
+			for (int k = 0; k < 3; k++){
+				int newX = x[i] - GameState.PARTIAL_MOVE_SIZE;
+				if (newX > 0 - GameState.LEFT_EDGE_WARP_OFFSET && GameState.checkCollision(map, 'l', newX, y[i])){
+					x[i] = newX;
+					moved = true;
+				}
+			}
+		} else if (dir == 'u'){
+			int climb = climb(i);
+			int jumpY = y[i] - 3 * GameState.PARTIAL_JUMP_HEIGHT;
+			if (((onGround(i) && climb == 0) || climb == 2 || climb == 3) && jumpStep[i] == 3 && jumpY > 0 - GameState.TOP_EDGE_WARP_OFFSET && GameState.checkCollision(map, 'u', x[i], jumpY)){
+				//jump
+				moved = true;
+				flags[i] &= ~FALLING;
+				y[i] = jumpY;
+				step[i] = 0;
+				jumpStep[i] = 0;
+				start(i, JUMPING);
+			} else if (climb == 1){
+				//climb
+				for (int k = 0; k < 3; k++){
+					int newY = y[i] - GameState.PARTIAL_JUMP_HEIGHT;
+					if (newY > 0 - GameState.TOP_EDGE_WARP_OFFSET && GameState.checkCollision(map, 'u', x[i], newY)){
+						y[i] = newY;
+						moved = true;
+					}
+				}
+			}
+		} else if (dir == 'd'){
+			for (int k = 0; k < 3; k++){
+				if (jumpStep[i] == 3 && GameState.checkCollision(map, 'd', x[i], y[i] + GameState.PARTIAL_MOVE_SIZE)){
+					y[i] += GameState.PARTIAL_MOVE_SIZE;
+					moved = true;
+					if (checkFellOff(i)){
+						return true;
+					}
+				}
+			}
+		}
+		if (moved){
+			incStep(i);
+		}
+		if (jumpStep[i] == 3){
+			checkFall(i);
+		}
+		return moved;
+	}
+
+	/**
+	 * Go to the next step of the walking animation, like Player.incStep().
+	 * @param i the NPC
+	 */
+	private void incStep(int i){
+		step[i] = step[i] < Player.STEP_MAX ? step[i] + 1 : 0;
+	}
+
+	/**
+	 * Set which input bits an NPC is holding down.
+	 * @param i the NPC
+	 * @param mask the input bits (see GameState.setInputMask())
+	 */
+	public void setInput(int i, int mask){
+		input[i] = mask;
+	}
+
+	/**
+	 * Move the NPCs onto a new version of their map (after the map file changed).
+	 * The NPCs keep their positions, and fall if the ground under them is gone.
+	 * @param map the new version of the map
+	 */
+	public void setMap(Map map){
+		this.map = map;
+		for (int i = 0; i < count; i++){
+			checkFall(i);
+		}
+	}
+
+	/**
+	 * Return the map these NPCs are on
+	 * @return Map: the map
+	 */
+	public Map getMap(){
+		return map;
+	}
+
+	/**
+	 * Return how many NPCs there are
+	 * @return int: the number of NPCs
+	 */
+	public int getCount(){
+		return count;
+	}
+
+	/**
+	 * Return an NPC's x position
+	 * @param i the NPC
+	 * @return int: the x position
+	 */
+	public int getX(int i){
+		return x[i];
+	}
+
+	/**
+	 * Return an NPC's y position
+	 * @param i the NPC
+	 * @return int: the y position
+	 */
+	public int getY(int i){
+		return y[i];
+	}
+
+	/**
+	 * Return which step of the walking animation an NPC is on
+	 * @param i the NPC
+	 * @return int: the step
+	 */
+	public int getStep(int i){
+		return step[i];
+	}
+
+	/**
+	 * Return which input bits an NPC is holding down (patrolling NPCs change their own)
+	 * @param i the NPC
+	 * @return int: the input bits
+	 */
+	public int getInput(int i){
+		return input[i];
+	}
+}
@@ -11,7 +11,7 @@ public class Player {
 	private int xPos; //current x position of the player sprite
 	private int yPos; //current y position of the player sprite
 	private int step; //which step of the walking animation is the player sprite currently on?
-	private static final int STEP_MAX = 1; //how many different frames are in the walking animation? 1 frame is STEP_MAX = 0, 2 frames is STEP_MAX = 1, etc.
+	static final int STEP_MAX = 1; //how many different frames are in the walking animation? 1 frame is STEP_MAX = 0, 2 frames is STEP_MAX = 1, etc.
 	private static final int MOVE_SIZE = 3; //how large is each movement of the player sprite? i.e. how many pixels
 	
 	/**
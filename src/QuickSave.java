@@ -0,0 +1,158 @@
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Saves the player's state and the NPCs to a small binary file, and loads it back.
+ * This is what the quick save (F5) and quick load (F9) keys use, and it
+ * is fast enough to be used for checkpoints during long play sessions.
+ *
+ * A save holds the map number, the player's position and walking step,
+ * and the jump, fall and gravity state (including the jump and fall timers).
+ * The keys being held down are not saved, so loading doesn't leave any
+ * keys stuck down. The file is written and read through one direct buffer
+ * that is only replaced when a save has more NPCs than it has room for, so
+ * saving and loading usually don't create any new objects (other than the
+ * file channel). Loading doesn't read the map text file if
+ * the save is on the map the game is already on.
+ *
+ * File format (big-endian): int MAGIC, int VERSION, int map number, int x, int y,
+ * int step, int jump step, double gravityStart, double fastGravityStart,
+ * byte fastFalling, int lastClimb, then for the jump, fall and fast fall timers:
+ * byte running, int countdown. Version 2 adds the NPCs at the end, as written
+ * by NpcPool.write(). Version 1 files (without NPCs) can still be loaded, and
+ * leave the map without NPCs.
+ *
+ * @version Version 1.4
+ */
+public class QuickSave {
+	public static final Path DEFAULT_PATH = Paths.get("saves", "quicksave.dat"); //where the quick save keys save to
+	private static final int MAGIC = 0x4C4D5153; //"LMQS", the first four bytes of every save file
+	private static final int VERSION = 2; //the version of the file format
+	private static final int SIZE = 4 * 7 + 8 * 2 + 1 + 4 + 3 * (1 + 4); //how many bytes are in a save file before the NPCs (the whole file in version 1)
+	private static final int[] SAVED_TIMERS = {GameSnapshot.TIMER_JUMP, GameSnapshot.TIMER_FALL, GameSnapshot.TIMER_FAST_FALL}; //the timers that are saved. the move timer depends on the keys, so it isn't
+	private ByteBuffer buffer = ByteBuffer.allocateDirect(SIZE + 4 + 16 * NpcPool.SAVED_BYTES); //the file is written from and read into this buffer. grown when needed
+	private GameSnapshot snapshot = new GameSnapshot(); //used to copy the state out of and into the game
+	private NpcPool npcs = new NpcPool(null); //the NPCs read from a file, until the whole file has been checked
+
+	/**
+	 * Save the game's state to a file, creating the file's directory if it doesn't exist.
+	 * @param game the game to save
+	 * @param path the file to save to
+	 * @throws IOException if the file can't be written
+	 */
+	public void save(GameState game, Path path) throws IOException {
+		game.saveSnapshot(snapshot);
+		NpcPool current = game.getNpcs(); //the NPCs aren't in the snapshot, so they are saved separately
+		ensureCapacity(SIZE + 4 + current.getCount() * NpcPool.SAVED_BYTES);
+		buffer.clear();
+		buffer.putInt(MAGIC);
+		buffer.putInt(VERSION);
+		buffer.putInt(snapshot.mapNumber);
+		buffer.putInt(snapshot.x);
+		buffer.putInt(snapshot.y);
+		buffer.putInt(snapshot.step);
+		buffer.putInt(snapshot.jumpStep);
+		buffer.putDouble(snapshot.gravityStart);
+		buffer.putDouble(snapshot.fastGravityStart);
+		buffer.put((byte) (snapshot.fastFalling ? 1 : 0));
+		buffer.putInt(snapshot.lastClimb);
+		for (int timer : SAVED_TIMERS){
+			buffer.put((byte) (snapshot.timerRunning[timer] ? 1 : 0));
+			buffer.putInt(snapshot.timerCountdown[timer]);
+		}
+		current.write(buffer);
+		buffer.flip();
+		Path directory = path.toAbsolutePath().getParent();
+		if (directory != null){
+			Files.createDirectories(directory);
+		}
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)){
+			while (buffer.hasRemaining()){
+				channel.write(buffer);
+			}
+		}
+	}
+
+	/**
+	 * Load a save file into the game. The keys that are being held down right now stay held down.
+	 * @param game the game to load into
+	 * @param path the file to load
+	 * @return boolean: true if the save was loaded, false if there is no save file
+	 * @throws IOException if the file can't be read, isn't a save file, or is on a map that doesn't exist
+	 */
+	public boolean load(GameState game, Path path) throws IOException {
+		buffer.clear();
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)){
+			if (channel.size() > Integer.MAX_VALUE){
+				throw new IOException(path + " is not a quick save file");
+			}
+			ensureCapacity((int) channel.size());
+			buffer.clear();
+			while (buffer.hasRemaining() && channel.read(buffer) >= 0){
+				//keep reading until the buffer is full or the file ends
+			}
+		} catch (NoSuchFileException e) {
+			return false;
+		}
+		buffer.flip();
+		if (buffer.remaining() < SIZE || buffer.getInt() != MAGIC){
+			throw new IOException(path + " is not a quick save file");
+		}
+		int version = buffer.getInt();
+		if (version != 1 && version != VERSION){
+			throw new IOException(path + " is version " + version + ", but only versions 1 to " + VERSION + " can be loaded");
+		}
+		if (version == 1 && buffer.remaining() != SIZE - 8){
+			throw new IOException(path + " is not a quick save file");
+		}
+		game.saveSnapshot(snapshot); //start from the current state, so the keys being held down stay the same
+		snapshot.mapNumber = buffer.getInt();
+		snapshot.x = buffer.getInt();
+		snapshot.y = buffer.getInt();
+		snapshot.step = buffer.getInt();
+		snapshot.jumpStep = buffer.getInt();
+		snapshot.gravityStart = buffer.getDouble();
+		snapshot.fastGravityStart = buffer.getDouble();
+		snapshot.fastFalling = buffer.get() != 0;
+		snapshot.lastClimb = buffer.getInt();
+		for (int timer : SAVED_TIMERS){
+			snapshot.timerRunning[timer] = buffer.get() != 0;
+			snapshot.timerCountdown[timer] = buffer.getInt();
+		}
+		if (version == 1){
+			npcs.clear(); //version 1 didn't save NPCs
+		} else {
+			try {
+				npcs.read(buffer);
+			} catch (BufferUnderflowException | IllegalArgumentException e) {
+				throw new IOException(path + " is not a quick save file: " + e.getMessage());
+			}
+			if (buffer.hasRemaining()){
+				throw new IOException(path + " is not a quick save file");
+			}
+		}
+		if (!MapFileReader.exists(snapshot.mapNumber)){
+			throw new IOException(path + " is on map " + snapshot.mapNumber + ", which doesn't exist");
+		}
+		game.findMap(snapshot, snapshot.mapNumber);
+		game.restoreSnapshot(snapshot);
+		game.restoreNpcs(npcs);
+		return true;
+	}
+
+	/**
+	 * Replace the buffer with a bigger one if it can't hold the specified number of bytes.
+	 */
+	private void ensureCapacity(int bytes){
+		if (buffer.capacity() < bytes){
+			buffer = ByteBuffer.allocateDirect(Math.max(bytes, buffer.capacity() * 2));
+		}
+	}
+}
@@ -0,0 +1,363 @@
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Runs many independent headless games (sessions) at the same time, in one JVM.
+ * This is meant for bot evaluation, tournament replays and server-side validation.
+ *
+ * Every session is a headless GameState running on its own virtual thread.
+ * Virtual threads need Java 21. On older versions of Java, each session gets
+ * an ordinary (platform) daemon thread instead, which works the same way but
+ * uses more memory per session. The virtual thread API is looked up when the
+ * class is loaded, so the code still compiles and runs on Java 17.
+ * Each session keeps its own tick pacing with a TickWatchdog, and parks its
+ * thread until its next tick is due, so an idle session only costs a small
+ * stack and one wake-up per tick. Sessions are started and stopped with
+ * startSession() and stopSession(), and are identified by an id.
+ *
+ * Maps are kept in the host's own MapCache and shared by every session on that map.
+ * A loaded Map is never changed by a game, so sharing it is safe. The host's cache
+ * never forgets a map: a cache that forgot maps would load a second copy of a map
+ * while older sessions still use the first one. So the host holds every map any
+ * session has been on, which is at most the number of maps in the maps folder.
+ *
+ * The host also measures how late sessions wake up compared to when their
+ * tick was due (the scheduler overhead), which main() prints along with the
+ * heap memory used by each idle session.
+ *
+ * @version Version 1.4
+ */
+public class SessionHost {
+	private static boolean virtualThreads; //does SESSION_THREADS make virtual threads? set by createThreadFactory(), so it is declared first
+	private static final ThreadFactory SESSION_THREADS = createThreadFactory(); //makes the thread for each session
+	private MapCache maps = new MapCache(MapCache.UNLIMITED); //one shared copy of every map a session has been on
+	private ConcurrentHashMap<Integer, Session> sessions = new ConcurrentHashMap<Integer, Session>(); //the sessions that are running, by id
+	private AtomicInteger nextId = new AtomicInteger(); //the id that the next session will get
+	private LongAdder wakeUps = new LongAdder(); //how many times a session woke up to tick
+	private LongAdder totalLateness = new LongAdder(); //the total time sessions woke up after their tick was due, in nanoseconds
+	private LongAccumulator maxLateness = new LongAccumulator(Math::max, 0); //the latest a session has ever woken up, in nanoseconds
+
+	/**
+	 * Return the shared copy of a map, loading it the first time it is asked for.
+	 * @param mapNumber the map number
+	 * @return Map: the shared map
+	 */
+	public Map getMap(int mapNumber){
+		return maps.get(mapNumber);
+	}
+
+	/**
+	 * Start a session that ticks every TickTimer.TICK_LENGTH milliseconds.
+	 * @param mapNumber the map number the session starts on
+	 * @return int: the id of the new session
+	 */
+	public int startSession(int mapNumber){
+		return startSession(mapNumber, TickTimer.TICK_LENGTH);
+	}
+
+	/**
+	 * Start a session on its own thread (a virtual thread if usesVirtualThreads()).
+	 * @param mapNumber the map number the session starts on
+	 * @param tickMillis how often the session ticks, in milliseconds. a longer tick runs the game in slow motion, a shorter one runs it fast forward
+	 * @return int: the id of the new session
+	 */
+	public int startSession(int mapNumber, int tickMillis){
+		if (tickMillis < 1){
+			throw new IllegalArgumentException("tickMillis must be at least 1");
+		}
+		int id = nextId.getAndIncrement();
+		Session session = new Session(id, new GameState(mapNumber, true, maps), tickMillis);
+		//the thread is made before the session is published, so stopSession() and stopAll() always find it
+		sessions.put(id, session);
+		session.thread.start();
+		return id;
+	}
+
+	/**
+	 * Make the factory for session threads: virtual threads if this version of Java has them
+	 * (Thread.ofVirtual(), Java 21 and later), or platform daemon threads if it doesn't.
+	 * @return ThreadFactory: the factory
+	 */
+	private static ThreadFactory createThreadFactory(){
+		try {
+			Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+			ThreadFactory factory = (ThreadFactory) Class.forName("java.lang.Thread$Builder").getMethod("factory").invoke(builder);
+			virtualThreads = true;
+			return factory;
+		} catch (ReflectiveOperationException e) {
+			//no virtual threads before Java 21
+			return new ThreadFactory(){
+				@Override
+				public Thread newThread(Runnable runnable){
+					Thread thread = new Thread(runnable);
+					thread.setDaemon(true); //like virtual threads, never keeps the program running
+					return thread;
+				}
+			};
+		}
+	}
+
+	/**
+	 * Do sessions run on virtual threads? False on versions of Java before 21, where they run on platform threads.
+	 * @return boolean: true if sessions use virtual threads
+	 */
+	public static boolean usesVirtualThreads(){
+		return virtualThreads;
+	}
+
+	/**
+	 * Stop a session. Its thread finishes the tick it is on (if any) and ends.
+	 * @param id the id of the session
+	 * @return boolean: true if the session was running, false if there is no session with that id
+	 */
+	public boolean stopSession(int id){
+		Session session = sessions.remove(id);
+		if (session == null){
+			return false;
+		}
+		session.running = false;
+		LockSupport.unpark(session.thread);
+		return true;
+	}
+
+	/**
+	 * Stop every session, and wait for all of their threads to end.
+	 */
+	public void stopAll(){
+		Session[] stopping = sessions.values().toArray(new Session[0]);
+		for (Session session : stopping){
+			stopSession(session.id);
+		}
+		for (Session session : stopping){
+			try {
+				session.thread.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Set which keys are held down in a session. The keys are given to the
+	 * game at the start of the session's next tick.
+	 * @param id the id of the session
+	 * @param mask the input bitmask (see GameState.setInputMask())
+	 * @return boolean: true if the session exists
+	 */
+	public boolean setInput(int id, int mask){
+		Session session = sessions.get(id);
+		if (session == null){
+			return false;
+		}
+		session.inputMask = mask;
+		return true;
+	}
+
+	/**
+	 * Return a running session, so its latest state can be read.
+	 * @param id the id of the session
+	 * @return Session: the session, or null if there is no session with that id
+	 */
+	public Session getSession(int id){
+		return sessions.get(id);
+	}
+
+	/**
+	 * Return how many sessions are running
+	 * @return int: the number of sessions
+	 */
+	public int getSessionCount(){
+		return sessions.size();
+	}
+
+	/**
+	 * Return how many different maps are loaded and shared right now
+	 * @return int: the number of loaded maps
+	 */
+	public int getLoadedMapCount(){
+		return maps.size();
+	}
+
+	/**
+	 * Return how many times sessions have woken up to tick
+	 * @return long: the number of wake ups
+	 */
+	public long getWakeUps(){
+		return wakeUps.sum();
+	}
+
+	/**
+	 * Return how late sessions wake up on average, compared to when their tick was due
+	 * @return long: the average lateness, in nanoseconds
+	 */
+	public long getAverageLateness(){
+		long count = wakeUps.sum();
+		if (count == 0){
+			return 0;
+		}
+		return totalLateness.sum() / count;
+	}
+
+	/**
+	 * Return the latest any session has woken up, compared to when its tick was due
+	 * @return long: the largest lateness, in nanoseconds
+	 */
+	public long getMaxLateness(){
+		return maxLateness.get();
+	}
+
+	/**
+	 * One game, and the thread that ticks it. The game is only ever
+	 * touched by its own thread; other threads pass in input with
+	 * SessionHost.setInput(), and read the state that the session publishes
+	 * after every tick.
+	 */
+	public class Session implements Runnable {
+		private final int id; //the id of this session
+		private final GameState game; //the game, only touched by this session's thread
+		private final TickWatchdog watchdog; //keeps this session's ticks on schedule
+		private final Thread thread; //the thread running this session. made with the session, started once it is published
+		private volatile boolean running = true; //set to false to stop the session
+		private volatile int inputMask; //the keys that should be held down, given to the game every tick
+		private volatile int x; //the player's x position after the last tick
+		private volatile int y; //the player's y position after the last tick
+		private volatile int mapNumber; //the map number after the last tick
+		private volatile long tickCount; //how many ticks the game has run
+
+		Session(int id, GameState game, int tickMillis){
+			this.id = id;
+			this.game = game;
+			watchdog = new TickWatchdog(tickMillis, TickWatchdog.POLICY_CATCH_UP);
+			publish();
+			thread = SESSION_THREADS.newThread(this);
+			thread.setName("session-" + id);
+		}
+
+		@Override
+		public void run() {
+			while (running){
+				long now = System.nanoTime();
+				int due = watchdog.ticksDue(now);
+				for (int i = 0; i < due && running; i++){
+					game.setInputMask(inputMask);
+					game.tick();
+				}
+				if (due > 0){
+					publish();
+				}
+				long wait = watchdog.getNextTickTime() - System.nanoTime();
+				if (wait > 0){
+					long wakeAt = System.nanoTime() + wait;
+					LockSupport.parkNanos(wait);
+					long late = Math.max(0, System.nanoTime() - wakeAt);
+					wakeUps.increment();
+					totalLateness.add(late);
+					maxLateness.accumulate(late);
+				}
+			}
+		}
+
+		/**
+		 * Copy the game's state into the fields that other threads read.
+		 */
+		private void publish(){
+			x = game.getCharX();
+			y = game.getCharY();
+			mapNumber = game.getMapNumber();
+			tickCount = game.getTickCount();
+		}
+
+		/**
+		 * Return the id of this session
+		 * @return int: the id
+		 */
+		public int getId(){
+			return id;
+		}
+
+		/**
+		 * Return the player's x position after the last tick
+		 * @return int: the x position
+		 */
+		public int getX(){
+			return x;
+		}
+
+		/**
+		 * Return the player's y position after the last tick
+		 * @return int: the y position
+		 */
+		public int getY(){
+			return y;
+		}
+
+		/**
+		 * Return the map number after the last tick
+		 * @return int: the map number
+		 */
+		public int getMapNumber(){
+			return mapNumber;
+		}
+
+		/**
+		 * Return how many ticks the game has run
+		 * @return long: the tick count
+		 */
+		public long getTickCount(){
+			return tickCount;
+		}
+	}
+
+	/**
+	 * Measure the cost of idle sessions: start a number of sessions, let
+	 * them run, then print the heap memory used per session and how late the
+	 * sessions wake up.
+	 * @param args optional: the number of sessions (default 1000), the map number (default 18), and how many seconds to run (default 5)
+	 */
+	public static void main(String[] args){
+		int count = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+		int mapNumber = args.length > 1 ? Integer.parseInt(args[1]) : 18;
+		int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+		SessionHost host = new SessionHost();
+		host.getMap(mapNumber); //load the map before measuring, so only the sessions are counted
+
+		Runtime runtime = Runtime.getRuntime();
+		long before = usedMemory(runtime);
+		for (int i = 0; i < count; i++){
+			host.startSession(mapNumber);
+		}
+		long after = usedMemory(runtime);
+		System.out.println(count + " sessions on " + (usesVirtualThreads() ? "virtual" : "platform") + " threads, " + host.getLoadedMapCount() + " shared map(s)");
+		System.out.println("heap per idle session: " + ((after - before) / count) + " bytes (thread stacks not counted, varies from run to run)");
+
+		try {
+			Thread.sleep(seconds * 1000L);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		long ticks = 0;
+		for (Session session : host.sessions.values()){
+			ticks += session.getTickCount();
+		}
+		System.out.println("ticks run: " + ticks + " (" + (ticks / Math.max(1, seconds)) + " per second)");
+		System.out.println("average wake up lateness: " + (host.getAverageLateness() / 1000) + " microseconds, max " + (host.getMaxLateness() / 1000) + " microseconds");
+		host.stopAll();
+	}
+
+	/**
+	 * Run the garbage collector, then return how much memory is in use.
+	 * @param runtime the runtime to measure
+	 * @return long: the memory in use, in bytes
+	 */
+	private static long usedMemory(Runtime runtime){
+		for (int i = 0; i < 3; i++){
+			System.gc();
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+}
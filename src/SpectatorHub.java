@@ -0,0 +1,221 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+
+/**
+ * Sends the state of a GameServer to any number of spectators, without
+ * letting the spectators slow the game down.
+ *
+ * Every batch, the server encodes its state once into a new frame, and
+ * broadcast() hands that same frame to every spectator. The frame is never
+ * changed after it is encoded, so each spectator just gets a read-only view
+ * of it, and adding more spectators doesn't add any more encoding.
+ *
+ * Each spectator has a short queue of frames that haven't been sent yet.
+ * All of them are written to the socket in one gathering write. If a
+ * spectator can't keep up and its queue is full, the oldest frame that hasn't
+ * started sending is dropped, so slow spectators see fewer frames instead of
+ * holding up the server. Frames hold the whole state, not a delta, so any
+ * frame can be dropped.
+ *
+ * Spectators don't send anything. The hub only reads from them to notice
+ * when they disconnect.
+ *
+ * Spectator frames are an int length (not counting itself), then:
+ * ~   int server tick, int player count, and for every player: int id, int map number, int x, int y
+ *
+ * @version Version 1.4
+ */
+public class SpectatorHub {
+	public static final int MAX_QUEUED_FRAMES = 4; //how many frames a spectator can fall behind before frames are dropped
+	public static final int PLAYER_SIZE = 16; //how many bytes each player takes in a frame
+	public static final int HEADER_SIZE = 12; //how many bytes come before the players in a frame: length, tick and count
+	private ArrayList<Spectator> spectators = new ArrayList<Spectator>(); //every connected spectator
+	private ByteBuffer discard = ByteBuffer.allocate(256); //anything a spectator sends is read into here and thrown away
+	private long framesEncoded; //how many frames have been broadcast
+	private long framesDropped; //how many frames were dropped because a spectator was too slow
+	private long bytesSent; //how many bytes have been sent to spectators
+
+	/**
+	 * Add a spectator.
+	 * @param channel the spectator's connection. it is made non-blocking
+	 * @param selector the selector the server uses. the spectator's key gets this hub's Spectator as its attachment
+	 * @throws IOException if the connection can't be set up
+	 */
+	public void addSpectator(SocketChannel channel, Selector selector) throws IOException {
+		channel.configureBlocking(false);
+		Spectator spectator = new Spectator(channel);
+		spectator.key = channel.register(selector, SelectionKey.OP_READ, spectator);
+		spectators.add(spectator);
+	}
+
+	/**
+	 * Create the buffer for a new frame, with the length already written.
+	 * The caller fills in the tick, the player count and the players, then passes it to broadcast().
+	 * @param players how many players will be in the frame
+	 * @return ByteBuffer: an empty frame, big enough for the players
+	 */
+	public ByteBuffer newFrame(int players){
+		int length = HEADER_SIZE + players * PLAYER_SIZE;
+		ByteBuffer frame = ByteBuffer.allocate(length);
+		frame.putInt(length - 4);
+		return frame;
+	}
+
+	/**
+	 * Send a frame to every spectator. The frame must not be changed afterwards.
+	 * @param frame the frame, filled in after newFrame()
+	 */
+	public void broadcast(ByteBuffer frame){
+		frame.flip();
+		ByteBuffer shared = frame.asReadOnlyBuffer();
+		framesEncoded++;
+		for (int i = 0; i < spectators.size(); i++){
+			Spectator spectator = spectators.get(i);
+			spectator.offer(shared.duplicate());
+			if (!spectator.flush()){
+				remove(spectator);
+				i--;
+			}
+		}
+	}
+
+	/**
+	 * Handle a spectator's key, when the selector says it is ready.
+	 * @param spectator the spectator (the key's attachment)
+	 * @param key the spectator's key
+	 */
+	public void handle(Spectator spectator, SelectionKey key){
+		boolean open = true;
+		if (key.isReadable()){
+			try {
+				discard.clear();
+				open = spectator.channel.read(discard) >= 0;
+			} catch (IOException e) {
+				open = false;
+			}
+		}
+		if (open && key.isValid() && key.isWritable()){
+			open = spectator.flush();
+		}
+		if (!open){
+			remove(spectator);
+		}
+	}
+
+	/**
+	 * Disconnect a spectator.
+	 * @param spectator the spectator to remove
+	 */
+	private void remove(Spectator spectator){
+		spectators.remove(spectator);
+		spectator.key.cancel();
+		try {
+			spectator.channel.close();
+		} catch (IOException e) {
+			//already closed
+		}
+	}
+
+	/**
+	 * Disconnect every spectator.
+	 */
+	public void close(){
+		while (!spectators.isEmpty()){
+			remove(spectators.get(spectators.size() - 1));
+		}
+	}
+
+	/**
+	 * Return how many spectators are connected
+	 * @return int: the number of spectators
+	 */
+	public int getSpectatorCount(){
+		return spectators.size();
+	}
+
+	/**
+	 * Return how many frames have been encoded and broadcast
+	 * @return long: the number of frames
+	 */
+	public long getFramesEncoded(){
+		return framesEncoded;
+	}
+
+	/**
+	 * Return how many frames were dropped because spectators were too slow
+	 * @return long: the number of dropped frames, counted once per spectator
+	 */
+	public long getFramesDropped(){
+		return framesDropped;
+	}
+
+	/**
+	 * Return how many bytes have been sent to spectators
+	 * @return long: the number of bytes
+	 */
+	public long getBytesSent(){
+		return bytesSent;
+	}
+
+	/**
+	 * One spectator, and the frames waiting to be sent to it.
+	 */
+	class Spectator {
+		private SocketChannel channel; //the connection to the spectator
+		private SelectionKey key; //the connection's key in the selector
+		private ByteBuffer[] queue = new ByteBuffer[MAX_QUEUED_FRAMES]; //frames waiting to be sent, oldest first. the first one may be partly sent
+		private int queued; //how many frames are in the queue
+
+		Spectator(SocketChannel channel){
+			this.channel = channel;
+		}
+
+		/**
+		 * Add a frame to the queue, dropping the oldest frame that hasn't started sending if the queue is full.
+		 * @param frame a read-only view of the frame
+		 */
+		void offer(ByteBuffer frame){
+			if (queued == MAX_QUEUED_FRAMES){
+				//the first frame might be partly sent, so it has to finish. drop the one after it
+				int drop = queue[0].position() > 0 ? 1 : 0;
+				System.arraycopy(queue, drop + 1, queue, drop, queued - drop - 1);
+				queued--;
+				framesDropped++;
+			}
+			queue[queued++] = frame;
+		}
+
+		/**
+		 * Write as much of the queue as the socket will take, in one gathering write.
+		 * @return boolean: false if the connection failed
+		 */
+		boolean flush(){
+			if (queued == 0){
+				return true;
+			}
+			try {
+				bytesSent += channel.write(queue, 0, queued);
+			} catch (IOException e) {
+				return false;
+			}
+			//take the frames that were fully sent out of the queue
+			int sent = 0;
+			while (sent < queued && !queue[sent].hasRemaining()){
+				sent++;
+			}
+			if (sent > 0){
+				System.arraycopy(queue, sent, queue, 0, queued - sent);
+				for (int i = queued - sent; i < queued; i++){
+					queue[i] = null;
+				}
+				queued -= sent;
+			}
+			key.interestOps(queued > 0 ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+			return true;
+		}
+	}
+}
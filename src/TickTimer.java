@@ -0,0 +1,101 @@
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+
+/**
+ * A timer that is driven by game ticks instead of by the clock.
+ * It works like a javax.swing.Timer (it has a delay, a listener,
+ * and can be started and stopped), but it only fires when
+ * tick() is called enough times. This lets the game run
+ * the same way whether it is being played in a window (where a
+ * single Swing timer calls GameState.tick() every TICK_LENGTH
+ * milliseconds) or headless (where something else, like the
+ * BatchEnvironment, calls GameState.tick() as fast as it wants).
+ *
+ * Instantiated within the GameState class.
+ *
+ * @version Version 1.4
+ */
+public class TickTimer {
+	public static final int TICK_LENGTH = 10; //how many milliseconds of game time pass during one game tick. all timer delays should be a multiple of this.
+	private int period; //how many game ticks pass between each time this timer fires
+	private int countdown; //how many more game ticks until this timer fires next
+	private boolean running; //is the timer currently running?
+	private ActionListener listener; //the listener that is called every time the timer fires
+	private ActionEvent event; //the event that is passed to the listener. it is reused every time so that ticking never creates any new objects
+
+	/**
+	 * Create a new tick timer. The timer does not run until start() is called.
+	 * @param delay the delay between firings in milliseconds, same as a javax.swing.Timer.
+	 * it is rounded down to a whole number of game ticks (but is always at least one tick).
+	 * @param listener the ActionListener that will be called every time the timer fires
+	 */
+	public TickTimer(int delay, ActionListener listener){
+		period = Math.max(1, delay / TICK_LENGTH);
+		countdown = period;
+		running = false;
+		this.listener = listener;
+		event = new ActionEvent(this, ActionEvent.ACTION_PERFORMED, null);
+	}
+
+	/**
+	 * Start the timer. Just like a javax.swing.Timer, starting a timer that
+	 * is already running does nothing, and the first firing happens one full
+	 * delay after the timer is started.
+	 */
+	public void start(){
+		if (!running){
+			running = true;
+			countdown = period;
+		}
+	}
+
+	/**
+	 * Stop the timer. It will not fire again until start() is called.
+	 */
+	public void stop(){
+		running = false;
+	}
+
+	/**
+	 * Is the timer currently running?
+	 * @return boolean: true if the timer is running, false if not
+	 */
+	public boolean isRunning(){
+		return running;
+	}
+
+	/**
+	 * Return how many more game ticks until this timer fires next.
+	 * Used when saving a GameSnapshot.
+	 * @return int: the number of ticks left
+	 */
+	public int getCountdown(){
+		return countdown;
+	}
+
+	/**
+	 * Put the timer back into a saved state. Used when restoring a GameSnapshot.
+	 * @param running should the timer be running?
+	 * @param countdown how many more game ticks until the timer fires next
+	 */
+	public void restore(boolean running, int countdown){
+		this.running = running;
+		this.countdown = countdown;
+	}
+
+	/**
+	 * Advance the timer by one game tick. If the timer is running and
+	 * its delay has passed, the listener is called. The countdown is
+	 * reset before calling the listener, so the listener is allowed
+	 * to stop or restart this timer.
+	 */
+	public void tick(){
+		if (running){
+			countdown--;
+			if (countdown <= 0){
+				countdown = period;
+				listener.actionPerformed(event);
+			}
+		}
+	}
+}
@@ -0,0 +1,215 @@
+/**
+ * Keeps the game loop on schedule, and keeps track of ticks that take too long.
+ *
+ * The game is supposed to tick once every TickTimer.TICK_LENGTH milliseconds.
+ * If a tick takes longer than that (a garbage collection pause, or a slow map
+ * load in GameState.changeMap()), the loop falls behind. Before, the swing
+ * timers would just merge the late events together, and the game would
+ * quietly slow down. Now the game loop asks the watchdog how many ticks are
+ * due every time it runs, and the watchdog decides what to do about lost time
+ * using one of three policies:
+ *
+ * ~   POLICY_CATCH_UP: run the missed ticks right away, but never more than
+ *     maxCatchUpTicks at once. Anything beyond that is skipped. Game speed
+ *     stays the same as long as the slowdown is short.
+ * ~   POLICY_SKIP_FRAMES: run one tick and skip all of the missed ones,
+ *     keeping the loop lined up with the original schedule.
+ * ~   POLICY_SLOW_MOTION: run one tick and start the schedule over from now,
+ *     so the game just runs slower while it is under load.
+ *
+ * Every tick is also timed. A tick that takes longer than its budget is an
+ * overrun. If SUSTAINED_OVERRUN_TICKS overruns happen in a row, a warning is
+ * printed (once, until a tick fits in its budget again), and isSustainedOverrun()
+ * returns true, so that whoever is running the game can be alerted.
+ *
+ * @version Version 1.4
+ */
+public class TickWatchdog {
+	public static final int POLICY_CATCH_UP = 0; //run missed ticks, up to maxCatchUpTicks at once
+	public static final int POLICY_SKIP_FRAMES = 1; //skip missed ticks, stay on the original schedule
+	public static final int POLICY_SLOW_MOTION = 2; //forget missed ticks, start the schedule over from now
+	private static final int DEFAULT_MAX_CATCH_UP_TICKS = 5; //default limit on how many ticks can run at once while catching up
+	private static final int SUSTAINED_OVERRUN_TICKS = 50; //how many overruns in a row count as a sustained overrun
+	private int policy; //which policy to use when the loop falls behind
+	private int maxCatchUpTicks; //the most ticks that can run at once while catching up
+	private long tickLength; //how long a tick is supposed to take, in nanoseconds
+	private long nextTickTime; //when the next tick is due (System.nanoTime()). 0 until the first call to ticksDue()
+	private long tickCount; //how many ticks have been timed
+	private long overrunCount; //how many ticks took longer than tickLength
+	private int consecutiveOverruns; //how many ticks in a row took longer than tickLength
+	private boolean sustainedOverrun; //have there been SUSTAINED_OVERRUN_TICKS overruns in a row (and no tick that fit since)?
+	private long skippedTicks; //how many ticks were never run because of the policy
+	private long longestTick; //the longest tick so far, in nanoseconds
+	private long totalTickTime; //the total time spent ticking, in nanoseconds
+
+	/**
+	 * Create a watchdog for a loop that ticks every TickTimer.TICK_LENGTH
+	 * milliseconds, using the catch up policy.
+	 */
+	public TickWatchdog(){
+		this(TickTimer.TICK_LENGTH, POLICY_CATCH_UP);
+	}
+
+	/**
+	 * Create a watchdog.
+	 * @param tickMillis how long each tick is supposed to take, in milliseconds
+	 * @param policy POLICY_CATCH_UP, POLICY_SKIP_FRAMES or POLICY_SLOW_MOTION
+	 */
+	public TickWatchdog(int tickMillis, int policy){
+		tickLength = tickMillis * 1000000L;
+		maxCatchUpTicks = DEFAULT_MAX_CATCH_UP_TICKS;
+		setPolicy(policy);
+	}
+
+	/**
+	 * Work out how many ticks the loop should run right now, based on how long
+	 * it has been since the last tick was due and on the current policy.
+	 * @param now the current time, from System.nanoTime()
+	 * @return int: how many ticks to run (usually 1, 0 if the loop ran early)
+	 */
+	public int ticksDue(long now){
+		if (nextTickTime == 0){
+			nextTickTime = now; //first call, start the schedule
+		}
+		if (now < nextTickTime){
+			return 0;
+		}
+		long behind = (now - nextTickTime) / tickLength + 1; //how many ticks are due, including the one that is due right now
+		long run;
+		if (policy == POLICY_CATCH_UP){
+			run = Math.min(behind, maxCatchUpTicks);
+			if (behind > run){
+				//too far behind to catch up. skip the rest and continue from now
+				skippedTicks += behind - run;
+				nextTickTime = now + tickLength;
+			} else {
+				nextTickTime += run * tickLength;
+			}
+		} else if (policy == POLICY_SKIP_FRAMES){
+			run = 1;
+			skippedTicks += behind - 1;
+			nextTickTime += behind * tickLength;
+		} else {
+			run = 1;
+			nextTickTime = now + tickLength;
+		}
+		return (int) run;
+	}
+
+	/**
+	 * Record how long a tick took, and check whether it was an overrun.
+	 * @param duration how long the tick took, in nanoseconds
+	 */
+	public void recordTick(long duration){
+		tickCount++;
+		totalTickTime += duration;
+		if (duration > longestTick){
+			longestTick = duration;
+		}
+		if (duration > tickLength){
+			overrunCount++;
+			consecutiveOverruns++;
+			if (consecutiveOverruns >= SUSTAINED_OVERRUN_TICKS && !sustainedOverrun){
+				sustainedOverrun = true;
+				System.out.println("TickWatchdog: " + consecutiveOverruns + " ticks in a row took longer than " + (tickLength / 1000000) + "ms");
+			}
+		} else {
+			consecutiveOverruns = 0;
+			sustainedOverrun = false;
+		}
+	}
+
+	/**
+	 * Return when the next tick is due, so a loop can sleep until then.
+	 * @return long: the time the next tick is due (System.nanoTime()), or 0 before the first call to ticksDue()
+	 */
+	public long getNextTickTime(){
+		return nextTickTime;
+	}
+
+	/**
+	 * Set the policy for what to do when the loop falls behind.
+	 * @param policy POLICY_CATCH_UP, POLICY_SKIP_FRAMES or POLICY_SLOW_MOTION
+	 */
+	public void setPolicy(int policy){
+		if (policy != POLICY_CATCH_UP && policy != POLICY_SKIP_FRAMES && policy != POLICY_SLOW_MOTION){
+			throw new IllegalArgumentException("unknown overrun policy: " + policy);
+		}
+		this.policy = policy;
+	}
+
+	/**
+	 * Return the current policy
+	 * @return int: POLICY_CATCH_UP, POLICY_SKIP_FRAMES or POLICY_SLOW_MOTION
+	 */
+	public int getPolicy(){
+		return policy;
+	}
+
+	/**
+	 * Set the most ticks that can run at once when using the catch up policy.
+	 * @param ticks the limit, at least 1
+	 */
+	public void setMaxCatchUpTicks(int ticks){
+		maxCatchUpTicks = Math.max(1, ticks);
+	}
+
+	/**
+	 * Return how many ticks have been timed
+	 * @return long: the number of ticks
+	 */
+	public long getTickCount(){
+		return tickCount;
+	}
+
+	/**
+	 * Return how many ticks took longer than their budget
+	 * @return long: the number of overruns
+	 */
+	public long getOverrunCount(){
+		return overrunCount;
+	}
+
+	/**
+	 * Return how many ticks in a row have taken longer than their budget
+	 * @return int: the number of overruns in a row
+	 */
+	public int getConsecutiveOverruns(){
+		return consecutiveOverruns;
+	}
+
+	/**
+	 * Is the loop in a sustained overrun (SUSTAINED_OVERRUN_TICKS or more overruns in a row)?
+	 * @return boolean: true if it is
+	 */
+	public boolean isSustainedOverrun(){
+		return sustainedOverrun;
+	}
+
+	/**
+	 * Return how many ticks were never run because the loop fell behind
+	 * @return long: the number of skipped ticks
+	 */
+	public long getSkippedTicks(){
+		return skippedTicks;
+	}
+
+	/**
+	 * Return the longest time a single tick has taken
+	 * @return long: the longest tick, in nanoseconds
+	 */
+	public long getLongestTick(){
+		return longestTick;
+	}
+
+	/**
+	 * Return the average time a tick takes
+	 * @return long: the average tick, in nanoseconds
+	 */
+	public long getAverageTick(){
+		if (tickCount == 0){
+			return 0;
+		}
+		return totalTickTime / tickCount;
+	}
+}